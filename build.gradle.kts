@@ -1,6 +1,7 @@
 plugins {
     id("fabric-loom") version "1.1-SNAPSHOT"
     id("maven-publish")
+    id("me.champeau.jmh") version "0.6.8"
 }
 
 version = project.properties["mod_version"]!!
@@ -64,3 +65,9 @@ java {
 
     withSourcesJar()
 }
+
+// Benchmarks live in src/jmh and run with ./gradlew jmh
+jmh {
+    jmhVersion.set("1.36")
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,16 @@
+#version 450
+#extension GL_EXT_nonuniform_qualifier : require
+
+layout(location = 0) in vec2 inTextCoords;
+
+layout(location = 0) out vec4 outFragColor;
+
+layout(set = 1, binding = 0) uniform sampler2D textures[];
+
+layout(push_constant) uniform MaterialPushConstants {
+    layout(offset = 64) uint textureIndex;
+} material;
+
+void main() {
+    outFragColor = texture(textures[material.textureIndex], inTextCoords);
+}
@@ -0,0 +1,77 @@
+#version 450
+
+// Turns every mesh level that received instances into a draw command, packed at the front of its batch so
+// vkCmdDrawIndexedIndirectCount only reads live commands. Runs after cull.c.glsl.
+layout(local_size_x = 64) in;
+
+const uint MAX_LODS = 4;
+
+struct Model {
+    mat4 dequantization;
+    vec4 sphere;
+    uint instanceBase;
+    uint entityCount;
+    uint lodCount;
+    uint pad;
+};
+
+// One mesh at one detail level
+struct DrawSlot {
+    uint indexCount;
+    uint firstIndex;
+    int vertexOffset;
+    uint model;
+    uint lod;
+    uint batch;
+    // First command of the slot's batch
+    uint commandBase;
+    uint pad;
+};
+
+struct DrawCommand {
+    uint indexCount;
+    uint instanceCount;
+    uint firstIndex;
+    int vertexOffset;
+    uint firstInstance;
+};
+
+layout(std430, set = 0, binding = 1) readonly buffer Models {
+    Model models[];
+};
+
+layout(std430, set = 0, binding = 4) buffer Counters {
+    uint counters[];
+};
+
+layout(std430, set = 0, binding = 6) readonly buffer DrawSlots {
+    DrawSlot slots[];
+};
+
+layout(std430, set = 0, binding = 7) writeonly buffer DrawCommands {
+    DrawCommand commands[];
+};
+
+layout(push_constant) uniform PushConstants {
+    uint count;
+    uint drawCountBase;
+} pushConstants;
+
+void main() {
+    uint slotIdx = gl_GlobalInvocationID.x;
+    if (slotIdx >= pushConstants.count) return;
+
+    DrawSlot slot = slots[slotIdx];
+    uint instanceCount = counters[slot.model * MAX_LODS + slot.lod];
+    if (instanceCount == 0) return;
+
+    Model model = models[slot.model];
+    uint draw = atomicAdd(counters[pushConstants.drawCountBase + slot.batch], 1);
+    commands[slot.commandBase + draw] = DrawCommand(
+            slot.indexCount,
+            instanceCount,
+            slot.firstIndex,
+            slot.vertexOffset,
+            model.instanceBase + slot.lod * model.entityCount
+    );
+}
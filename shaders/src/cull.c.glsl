@@ -0,0 +1,79 @@
+#version 450
+
+// Frustum culls one entity per invocation, picks its detail level and appends its instance matrix to the range of its
+// model and level. Mirrors the buffer layouts written by GpuCuller.
+layout(local_size_x = 64) in;
+
+const uint MAX_LODS = 4;
+
+struct Model {
+    mat4 dequantization;
+    // Bounding sphere centre in xyz, radius in w
+    vec4 sphere;
+    uint instanceBase;
+    uint entityCount;
+    uint lodCount;
+    uint pad;
+};
+
+layout(std430, set = 0, binding = 0) readonly buffer Params {
+    // Plane equations pointing into the frustum
+    vec4 planes[6];
+    // Projected diameters in pixels below which level i + 1 replaces level i
+    vec4 lodPixels;
+    // Projection's vertical scale times the viewport height
+    float projectionScale;
+} params;
+
+layout(std430, set = 0, binding = 1) readonly buffer Models {
+    Model models[];
+};
+
+layout(std430, set = 0, binding = 2) readonly buffer Transforms {
+    mat4 transforms[];
+};
+
+layout(std430, set = 0, binding = 3) readonly buffer EntityModels {
+    uint entityModels[];
+};
+
+// Visible instances per model and level, followed by the draw count of every batch
+layout(std430, set = 0, binding = 4) buffer Counters {
+    uint counters[];
+};
+
+layout(std430, set = 0, binding = 5) writeonly buffer Instances {
+    mat4 instances[];
+};
+
+layout(push_constant) uniform PushConstants {
+    uint count;
+    uint drawCountBase;
+} pushConstants;
+
+void main() {
+    uint entity = gl_GlobalInvocationID.x;
+    if (entity >= pushConstants.count) return;
+
+    uint modelIdx = entityModels[entity];
+    Model model = models[modelIdx];
+    mat4 transform = transforms[entity];
+    vec3 center = (transform * vec4(model.sphere.xyz, 1)).xyz;
+    float scale = max(length(transform[0].xyz), max(length(transform[1].xyz), length(transform[2].xyz)));
+    float radius = model.sphere.w * scale;
+    for (int i = 0; i < 6; i++) {
+        if (dot(params.planes[i].xyz, center) + params.planes[i].w < -radius) return;
+    }
+
+    // Same thresholds as LodSelector but without its hysteresis, nothing is kept between frames
+    uint lod = 0;
+    float distance = length(center);
+    if (distance > radius) {
+        float pixels = radius / distance * params.projectionScale;
+        uint maxLod = min(model.lodCount, MAX_LODS) - 1;
+        while (lod < maxLod && pixels < params.lodPixels[lod]) lod++;
+    }
+
+    uint slot = atomicAdd(counters[modelIdx * MAX_LODS + lod], 1);
+    instances[model.instanceBase + lod * model.entityCount + slot] = transform * model.dequantization;
+}
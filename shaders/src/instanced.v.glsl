@@ -0,0 +1,19 @@
+#version 450
+
+layout(location = 0) in vec3 inPosition;
+layout(location = 1) in vec2 inTextCoords;
+// Octahedral encoded, not lit yet
+layout(location = 2) in vec2 inNormal;
+layout(location = 3) in mat4 inModelMatrix;
+
+layout(location = 0) out vec2 outTextCoords;
+
+layout(set = 0, binding = 0) uniform ProjUniform {
+    mat4 projectionMatrix;
+} projUniform;
+
+void main() {
+    // Packed positions are relative to the model bounds, the model matrix carries the dequantization
+    gl_Position = projUniform.projectionMatrix * inModelMatrix * vec4(inPosition, 1);
+    outTextCoords = inTextCoords;
+}
@@ -0,0 +1,22 @@
+#version 450
+
+layout(location = 0) in vec3 inPosition;
+layout(location = 1) in vec2 inTextCoords;
+// Octahedral encoded, not lit yet
+layout(location = 2) in vec2 inNormal;
+
+layout(location = 0) out vec2 outTextCoords;
+
+layout(set = 0, binding = 0) uniform ProjUniform {
+    mat4 projectionMatrix;
+} projUniform;
+
+layout(push_constant) uniform MatrixPushConstants {
+    mat4 modelMatrix;
+} push;
+
+void main() {
+    // Packed positions are relative to the model bounds, the model matrix carries the dequantization
+    gl_Position = projUniform.projectionMatrix * push.modelMatrix * vec4(inPosition, 1);
+    outTextCoords = inTextCoords;
+}
@@ -0,0 +1,100 @@
+package me.hydos.vkinteropexperiments.graph.image.texture;
+
+import me.hydos.vkinteropexperiments.graph.command.CommandBuffer;
+import me.hydos.vkinteropexperiments.graph.command.CommandPool;
+import me.hydos.vkinteropexperiments.graph.setup.Instance;
+import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import me.hydos.vkinteropexperiments.graph.setup.PhysicalDevice;
+import me.hydos.vkinteropexperiments.graph.setup.Queue;
+import me.hydos.vkinteropexperiments.graph.sync.Fence;
+import me.hydos.vkinteropexperiments.graph.upload.QueueOwnershipTransfer;
+import me.hydos.vkinteropexperiments.memory.Allocator;
+import me.hydos.vkinteropexperiments.scene.ModelData;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VK10;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two ways a texture gets its mip chain, from packed level 0 pixels to every level shader readable on a
+ * headless device: {@link MipGenerator#buildChain} followed by one copy of the whole chain, against copying level 0
+ * and blitting the rest on the graphics queue as the gpuMipmaps setting does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MipGenerationBenchmark {
+
+    @Param({"512", "2048", "4096"})
+    public int size;
+    @Param({"true", "false"})
+    public boolean cpuMipmaps;
+    private Instance instance;
+    private PhysicalDevice physicalDevice;
+    private LogicalDevice logicalDevice;
+    private Allocator allocator;
+    private Queue.Graphics graphicsQueue;
+    private CommandPool cmdPool;
+    private Fence fence;
+    private QueueOwnershipTransfer ownership;
+    private ByteBuffer pixels;
+    private ModelData.TextureData data;
+    private Texture.Options options;
+
+    @Setup
+    public void setup() {
+        this.instance = new Instance(false, false);
+        this.physicalDevice = PhysicalDevice.create(instance, null);
+        this.logicalDevice = new LogicalDevice(physicalDevice);
+        this.allocator = new Allocator(instance, physicalDevice, logicalDevice);
+        this.graphicsQueue = new Queue.Graphics(logicalDevice, 0);
+        this.cmdPool = new CommandPool(logicalDevice, graphicsQueue.queueFamilyIndex);
+        this.fence = new Fence(logicalDevice, false);
+        // Everything runs on the graphics queue, so no ownership moves between families
+        this.ownership = new QueueOwnershipTransfer(graphicsQueue.queueFamilyIndex, graphicsQueue.queueFamilyIndex);
+
+        var random = new Random(size);
+        this.pixels = MemoryUtil.memAlloc(size * size * PixelConverter.BYTES_PER_TEXEL);
+        for (var i = 0; i < pixels.capacity(); i += Integer.BYTES) pixels.putInt(i, random.nextInt());
+        this.data = ModelData.TextureData.packed("benchmark", size, size, pixels);
+        this.options = new Texture.Options(false, false, cpuMipmaps, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MemoryUtil.memFree(pixels);
+        fence.close();
+        cmdPool.close();
+        allocator.close();
+        logicalDevice.close();
+        physicalDevice.close();
+        instance.close();
+    }
+
+    @Benchmark
+    public void createTexture() {
+        var texture = new Texture(allocator, data, VK10.VK_FORMAT_R8G8B8A8_SRGB, false, options);
+        var cmd = new CommandBuffer(cmdPool, true, true);
+        cmd.beginRecording();
+        texture.recordUpload(cmd, ownership);
+        texture.recordAcquire(cmd, ownership);
+        cmd.endRecording();
+
+        try (var stack = MemoryStack.stackPush()) {
+            graphicsQueue.submit(stack.pointers(cmd.vk()), null, null, null, fence);
+            fence.waitForFence();
+            fence.reset();
+        }
+
+        cmd.close();
+        texture.closeStagingBuffer();
+        texture.close();
+    }
+}
@@ -0,0 +1,72 @@
+package me.hydos.vkinteropexperiments.graph.image.texture;
+
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts noise images through each of {@link PixelConverter}'s in place raster paths. Images from 512x512 up are
+ * split across the common pool, so these sizes measure the parallel path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PixelConverterBenchmark {
+
+    @Param({"512", "2048", "4096"})
+    public int size;
+    @Param({"INT", "BYTE", "FLOAT"})
+    public RasterType raster;
+    private BufferedImage image;
+    private long address;
+
+    @Setup
+    public void setup() {
+        this.image = raster.create(size);
+        var random = new Random(size);
+        var bands = image.getRaster().getNumBands();
+        var row = new float[size * bands];
+        for (var y = 0; y < size; y++) {
+            for (var i = 0; i < row.length; i++) row[i] = raster == RasterType.FLOAT ? random.nextFloat() : random.nextInt(256);
+            image.getRaster().setPixels(0, y, size, 1, row);
+        }
+        this.address = MemoryUtil.nmemAlloc(PixelConverter.byteSize(image));
+    }
+
+    @TearDown
+    public void tearDown() {
+        MemoryUtil.nmemFree(address);
+    }
+
+    @Benchmark
+    public void convert() {
+        PixelConverter.convert(image, address);
+    }
+
+    public enum RasterType {
+        INT,
+        BYTE,
+        FLOAT;
+
+        private BufferedImage create(int size) {
+            return switch (this) {
+                case INT -> new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+                case BYTE -> new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+                case FLOAT -> {
+                    var colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB), true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_FLOAT);
+                    yield new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(size, size), false, null);
+                }
+            };
+        }
+    }
+}
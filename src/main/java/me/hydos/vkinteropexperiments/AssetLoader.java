@@ -0,0 +1,207 @@
+package me.hydos.vkinteropexperiments;
+
+import com.thepokecraftmod.rks.assimp.AssimpModelLoader;
+import com.thepokecraftmod.rks.model.Model;
+import me.hydos.vkinteropexperiments.graph.Renderer;
+import me.hydos.vkinteropexperiments.graph.cache.OptimizedMeshCache;
+import me.hydos.vkinteropexperiments.graph.cache.TextureCache;
+import me.hydos.vkinteropexperiments.graph.vertex.GpuModel;
+import me.hydos.vkinteropexperiments.scene.MeshOptimizer;
+import me.hydos.vkinteropexperiments.scene.MeshSimplifier;
+import me.hydos.vkinteropexperiments.scene.ModelData;
+import org.lwjgl.assimp.Assimp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads models off the render thread in stages: parse with Assimp, decode textures, build {@link ModelData}, optimize
+ * its meshes, then hand it to the renderer's upload scheduler. Every stage runs on a small fixed size pool. Only a few
+ * models load at once and the rest wait their turn, so a burst of new entities cannot flood the machine with decoding
+ * work and never makes the caller wait or fail.
+ */
+public class AssetLoader implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AssetLoader.class);
+    // Models past this wait before any of their work is queued
+    private static final int MAX_MODELS_IN_FLIGHT = 8;
+    private final Renderer renderer;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, CompletableFuture<GpuModel>> loading = new ConcurrentHashMap<>();
+    private final Semaphore modelSlots = new Semaphore(MAX_MODELS_IN_FLIGHT);
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    public AssetLoader(Renderer renderer, int threadCount) {
+        this.renderer = renderer;
+        var threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            var thread = new Thread(r, "Asset Loader " + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts loading the model unless it is already loading or loaded. A failed load is forgotten, so loading the
+     * same name again retries it.
+     *
+     * @param name      the model name entities refer to
+     * @param root      resource directory holding the model and its textures
+     * @param modelFile model file inside the root
+     */
+    public CompletableFuture<GpuModel> load(String name, String root, String modelFile) {
+        var future = loading.computeIfAbsent(name, key -> {
+            var result = new CompletableFuture<GpuModel>();
+            waiting.add(() -> startLoad(name, root, modelFile, result));
+            return result;
+        });
+        startWaiting();
+        return future;
+    }
+
+    /**
+     * Starts waiting loads while there are free slots. Called after queueing a load and after a load finishes, so a
+     * waiting load is never left behind.
+     */
+    private void startWaiting() {
+        while (!waiting.isEmpty() && modelSlots.tryAcquire()) {
+            var next = waiting.poll();
+            if (next == null) {
+                modelSlots.release();
+                return;
+            }
+            next.run();
+        }
+    }
+
+    private void startLoad(String name, String root, String modelFile, CompletableFuture<GpuModel> result) {
+        var start = System.nanoTime();
+        var locator = new ResourceCachedFileLocator(root);
+        CompletableFuture<GpuModel> stages;
+        try {
+            stages = CompletableFuture.supplyAsync(() -> AssimpModelLoader.load(modelFile, locator, Assimp.aiProcess_GenNormals | Assimp.aiProcess_LimitBoneWeights), executor)
+                    .thenCompose(model -> new MaterialUploader(model, locator, executor).loaded.thenApplyAsync(materials -> buildModelData(name, model, materials), executor))
+                    .thenApplyAsync(AssetLoader::optimizeMeshes, executor)
+                    .thenCompose(renderer::loadModel);
+        } catch (RejectedExecutionException e) {
+            // Only happens once the loader is closed
+            stages = CompletableFuture.failedFuture(e);
+        }
+
+        stages.whenComplete((model, throwable) -> {
+            modelSlots.release();
+            if (throwable != null) {
+                LOGGER.error("Failed to load {}", name, throwable);
+                loading.remove(name, result);
+                result.completeExceptionally(throwable);
+            } else {
+                LOGGER.info("{} resident after {}ms", name, (System.nanoTime() - start) / 1_000_000);
+                result.complete(model);
+            }
+            startWaiting();
+        });
+    }
+
+    /**
+     * Drops the finished or in-flight load so the next {@link #load} of this name starts from scratch.
+     */
+    public void forget(String name) {
+        loading.remove(name);
+    }
+
+    private static ModelData buildModelData(String name, Model model, MaterialUploader materialUploader) {
+        var meshes = new ArrayList<ModelData.MeshData>();
+        for (var mesh : model.meshes()) {
+            var positions = new float[mesh.positions().size() * 3];
+            for (var i = 0; i < mesh.positions().size(); i++) {
+                var pos = mesh.positions().get(i);
+                positions[i * 3 + 0] = pos.x;
+                positions[i * 3 + 1] = pos.y;
+                positions[i * 3 + 2] = pos.z;
+            }
+
+            var uvs = new float[mesh.uvs().size() * 2];
+            for (var i = 0; i < mesh.uvs().size(); i++) {
+                var uv = mesh.uvs().get(i);
+                uvs[i * 2 + 0] = uv.x;
+                uvs[i * 2 + 1] = uv.y;
+            }
+
+            // Generated by aiProcess_GenNormals when the file has none
+            var normals = new float[mesh.normals().size() * 3];
+            for (var i = 0; i < mesh.normals().size(); i++) {
+                var normal = mesh.normals().get(i);
+                normals[i * 3 + 0] = normal.x;
+                normals[i * 3 + 1] = normal.y;
+                normals[i * 3 + 2] = normal.z;
+            }
+
+            var indices = new int[mesh.indices().size()];
+            for (var i = 0; i < mesh.indices().size(); i++) indices[i] = mesh.indices().get(i);
+
+            meshes.add(new ModelData.MeshData(
+                    positions,
+                    uvs,
+                    normals,
+                    indices,
+                    List.of(),
+                    0
+            ));
+        }
+
+        return new ModelData(name, materialUploader.materials.values().stream()
+                .map(material -> material.textures.isEmpty() ? TextureCache.MISSING : material.textures.get(0))
+                .toList(), meshes);
+    }
+
+    /**
+     * Reorders every mesh for vertex cache, overdraw and fetch locality, then builds its detail levels. Results are
+     * cached on disk, so only the first load of a mesh pays for them.
+     */
+    private static ModelData optimizeMeshes(ModelData modelData) {
+        var meshes = new ArrayList<ModelData.MeshData>();
+        for (var i = 0; i < modelData.meshes().size(); i++) {
+            var mesh = modelData.meshes().get(i);
+            if (!MeshOptimizer.canReorder(mesh)) {
+                LOGGER.warn("{} mesh {} has attributes that don't cover every vertex, leaving it unoptimized", modelData.name(), i);
+                meshes.add(mesh);
+                continue;
+            }
+            var key = OptimizedMeshCache.key(mesh);
+            var order = OptimizedMeshCache.load(key, mesh);
+            var cached = order != null;
+            if (!cached) {
+                order = MeshOptimizer.optimize(mesh);
+                order = order.withLods(MeshSimplifier.generateLods(order.apply(mesh)));
+                OptimizedMeshCache.save(key, mesh, order);
+            }
+
+            LOGGER.info("{} mesh {}: ACMR {} -> {}, LOD triangles {}{}", modelData.name(), i,
+                    String.format("%.3f", MeshOptimizer.acmr(mesh.indices(), mesh.positions().length / 3)),
+                    String.format("%.3f", MeshOptimizer.acmr(order.indices(), order.remap().length)),
+                    order.lods().stream().map(lod -> String.valueOf(lod.length / 3)).toList(),
+                    cached ? " (cached)" : "");
+            meshes.add(order.apply(mesh));
+        }
+        return new ModelData(modelData.name(), modelData.materials(), meshes);
+    }
+
+    @Override
+    public void close() {
+        waiting.clear();
+        executor.shutdownNow();
+    }
+}
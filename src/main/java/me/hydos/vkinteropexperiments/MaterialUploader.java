@@ -6,28 +6,41 @@ import com.thepokecraftmod.rks.FileLocator;
 import com.thepokecraftmod.rks.model.Model;
 import com.thepokecraftmod.rks.model.config.TextureFilter;
 import com.thepokecraftmod.rks.model.texture.TextureType;
-import me.hydos.vkinteropexperiments.graph.Renderer;
-import org.lwjgl.vulkan.VK10;
+import me.hydos.vkinteropexperiments.graph.cache.ProcessedTextureCache;
+import me.hydos.vkinteropexperiments.scene.ModelData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+/**
+ * Decodes a model's material textures on the given executor, one task per material. The GPU side is created later by
+ * the upload scheduler, so nothing here touches Vulkan.
+ */
 public class MaterialUploader {
     private static final Logger LOGGER = LoggerFactory.getLogger("Material Uploader");
-    public final Map<String, Material> materials = new HashMap<>();
-    public final List<Runnable> mainThreadUploads = new ArrayList<>();
-    private final Renderer renderer;
+    // Describes what mergeAndLoad does to the layers. Change it whenever the processing changes
+    private static final String PROCESSING_KEY = "jxl;hdr=off;mirror=halfwidth;composite=green<200";
+    public final Map<String, Material> materials = new LinkedHashMap<>();
+    public final CompletableFuture<MaterialUploader> loaded;
 
-    public MaterialUploader(Model model, FileLocator locator, Renderer renderer) {
+    public MaterialUploader(Model model, FileLocator locator, Executor executor) {
         var filter = model.config().textureFiltering;
-        this.renderer = renderer;
+        var futures = new ArrayList<CompletableFuture<Void>>();
 
         for (var entry : model.config().materials.entrySet()) {
             var name = entry.getKey();
@@ -37,14 +50,19 @@ public class MaterialUploader {
             var texture = meshMaterial.getTextures(TextureType.ALBEDO);
 
             if (texture.size() < 1) LOGGER.debug("Shader expects " + TextureType.ALBEDO + " but the texture is missing");
-            else upload(material, mergeAndLoad(locator, filter, texture));
+            else futures.add(CompletableFuture.supplyAsync(() -> mergeAndLoad(locator, filter, texture), executor).thenAccept(material.textures::add));
 
             materials.put(name, material);
         }
+
+        this.loaded = CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(v -> this);
     }
 
-    private BufferedImage mergeAndLoad(FileLocator locator, TextureFilter filter, List<String> textures) {
+    private ModelData.TextureData mergeAndLoad(FileLocator locator, TextureFilter filter, List<String> textures) {
         var imageReferences = textures.stream().map(s -> "textures/" + s).map(locator::getFile).toList();
+        var id = contentHash(imageReferences);
+        var cached = ProcessedTextureCache.load(id);
+        if (cached != null) return cached;
 
         var loadedImages = imageReferences.stream().map(bytes -> {
             try {
@@ -95,17 +113,32 @@ public class MaterialUploader {
             }
         }
 
-        return baseImage;
+        var texture = ModelData.TextureData.decoded(id, baseImage);
+        ProcessedTextureCache.save(texture);
+        return texture;
     }
 
-    private void upload(Material material, BufferedImage image) {
-        renderer.textureCache.createTexture(renderer.logicalDevice, image, VK10.VK_FORMAT_R8G8B8A8_SRGB, false);
-        material.textures.add(image);
+    /**
+     * Hashes the encoded layers and the processing applied to them, so equal hashes mean equal images.
+     */
+    private static String contentHash(List<byte[]> layers) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(PROCESSING_KEY.getBytes(StandardCharsets.UTF_8));
+            for (var layer : layers) {
+                // Length prefixed so moving bytes between layers changes the hash
+                digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(layer.length).flip());
+                digest.update(layer);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public static class Material {
         public final String name;
-        public final List<BufferedImage> textures = new ArrayList<>();
+        public final List<ModelData.TextureData> textures = Collections.synchronizedList(new ArrayList<>());
 
         public Material(String name) {
             this.name = name;
@@ -0,0 +1,68 @@
+package me.hydos.vkinteropexperiments;
+
+import me.hydos.vkinteropexperiments.graph.Renderer;
+import me.hydos.vkinteropexperiments.graph.vertex.GpuModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reference counted models keyed by resource id. Any number of entities share one load and one resident
+ * {@link GpuModel}; the model is unloaded when the last entity using it releases it.
+ */
+public class ModelRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelRegistry.class);
+    private final AssetLoader loader;
+    private final Renderer renderer;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public ModelRegistry(AssetLoader loader, Renderer renderer) {
+        this.loader = loader;
+        this.renderer = renderer;
+    }
+
+    /**
+     * @return the model name entities should refer to
+     */
+    public synchronized String acquire(String root, String modelFile) {
+        var id = root + "/" + modelFile;
+        var entry = entries.computeIfAbsent(id, key -> {
+            LOGGER.info("Loading {}", key);
+            return new Entry(loader.load(key, root, modelFile));
+        });
+        if (entry.model.isCompletedExceptionally()) {
+            LOGGER.info("Retrying failed load of {}", id);
+            entry.model = loader.load(id, root, modelFile);
+        }
+        entry.references++;
+        return id;
+    }
+
+    public synchronized void release(String id) {
+        var entry = entries.get(id);
+        if (entry == null) throw new RuntimeException("Released unknown model " + id);
+        if (--entry.references > 0) return;
+
+        LOGGER.info("No references left to {}", id);
+        entries.remove(id);
+        loader.forget(id);
+        entry.model.thenAccept(renderer::unloadModel);
+    }
+
+    public synchronized int references(String id) {
+        var entry = entries.get(id);
+        return entry != null ? entry.references : 0;
+    }
+
+    private static class Entry {
+        private CompletableFuture<GpuModel> model;
+        private int references;
+
+        private Entry(CompletableFuture<GpuModel> model) {
+            this.model = model;
+        }
+    }
+}
@@ -8,13 +8,13 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ResourceCachedFileLocator implements FileLocator {
 
-    private final Map<String, byte[]> fileCache = new HashMap<>();
+    private final Map<String, byte[]> fileCache = new ConcurrentHashMap<>();
     private final String root;
 
     public ResourceCachedFileLocator(String root) {
@@ -0,0 +1,69 @@
+package me.hydos.vkinteropexperiments.graph;
+
+import me.hydos.vkinteropexperiments.graph.cache.PipelineCache;
+import me.hydos.vkinteropexperiments.graph.descriptor.DescriptorSetLayout;
+import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import me.hydos.vkinteropexperiments.graph.shader.ShaderProgram;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import java.io.Closeable;
+
+import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
+
+public class ComputePipeline implements Closeable, VkObjectHolder<Long> {
+
+    private final LogicalDevice logicalDevice;
+    private final long pipeline;
+    public final long layout;
+
+    /**
+     * @param shaderProgram a program with a single compute stage
+     */
+    public ComputePipeline(PipelineCache cache, ShaderProgram shaderProgram, int pushConstantsSize, DescriptorSetLayout[] descriptorSetLayouts) {
+        try (var stack = MemoryStack.stackPush()) {
+            this.logicalDevice = cache.logicalDevice;
+            var pp = stack.mallocLong(1);
+            var shaderModule = shaderProgram.shaderModules[0];
+            if (shaderModule.shaderStage() != VK10.VK_SHADER_STAGE_COMPUTE_BIT) throw new RuntimeException("Compute pipelines need a compute shader");
+
+            var pushConstantRange = pushConstantsSize > 0 ? VkPushConstantRange.calloc(1, stack)
+                    .stageFlags(VK10.VK_SHADER_STAGE_COMPUTE_BIT)
+                    .offset(0)
+                    .size(pushConstantsSize) : null;
+
+            var pLayouts = stack.mallocLong(descriptorSetLayouts.length);
+            for (int i = 0; i < descriptorSetLayouts.length; i++) pLayouts.put(i, descriptorSetLayouts[i].layout);
+
+            var layoutCreateInfo = VkPipelineLayoutCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pSetLayouts(pLayouts)
+                    .pPushConstantRanges(pushConstantRange);
+            ok(VK10.vkCreatePipelineLayout(logicalDevice.vk(), layoutCreateInfo, null, pp), "Failed to create compute PipelineLayout");
+            this.layout = pp.get(0);
+
+            var pipeline = VkComputePipelineCreateInfo.calloc(1, stack)
+                    .sType$Default()
+                    .stage(stage -> stage
+                            .sType$Default()
+                            .stage(VK10.VK_SHADER_STAGE_COMPUTE_BIT)
+                            .module(shaderModule.handle())
+                            .pName(stack.UTF8("main")))
+                    .layout(layout);
+
+            ok(VK10.vkCreateComputePipelines(logicalDevice.vk(), cache.vk(), pipeline, null, pp), "Error creating compute Pipeline");
+            this.pipeline = pp.get(0);
+        }
+    }
+
+    @Override
+    public Long vk() {
+        return pipeline;
+    }
+
+    @Override
+    public void close() {
+        VK10.vkDestroyPipelineLayout(logicalDevice.vk(), layout, null);
+        VK10.vkDestroyPipeline(logicalDevice.vk(), pipeline, null);
+    }
+}
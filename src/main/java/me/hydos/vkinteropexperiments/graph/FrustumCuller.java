@@ -0,0 +1,200 @@
+package me.hydos.vkinteropexperiments.graph;
+
+import me.hydos.vkinteropexperiments.graph.vertex.GpuModel;
+import me.hydos.vkinteropexperiments.scene.RenderEntity;
+import me.hydos.vkinteropexperiments.scene.Scene;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Hides entities whose model bounds lie outside the view frustum. Every entity's bounding sphere is classified against
+ * the frustum planes in one batch, then only spheres crossing a plane are tested again with the tighter box.
+ */
+public class FrustumCuller {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrustumCuller.class);
+    // Entities handled by one task when culling in parallel
+    private static final int CHUNK_SIZE = 4096;
+    // Below this the fork/join overhead costs more than it saves
+    private static final int PARALLEL_THRESHOLD = 4 * CHUNK_SIZE;
+    // How often the culled entity count is logged
+    private static final long REPORT_INTERVAL_NANOS = 5_000_000_000L;
+    static final int PLANE_COUNT = 6;
+    private static final byte OUTSIDE = 0;
+    private static final byte INTERSECTING = 1;
+    private static final byte INSIDE = 2;
+    private final Matrix4f projection = new Matrix4f();
+    // Normalised plane equations pointing into the frustum, 4 floats per plane
+    private final float[] planes = new float[PLANE_COUNT * 4];
+    private RenderEntity[] entities = new RenderEntity[0];
+    private GpuModel[] entityModels = new GpuModel[0];
+    // View space bounding spheres, one array per component so the sphere test walks each plane over flat arrays
+    private float[] centerX = new float[0];
+    private float[] centerY = new float[0];
+    private float[] centerZ = new float[0];
+    private float[] radii = new float[0];
+    private byte[] classes = new byte[0];
+    private boolean[] visible = new boolean[0];
+    private long lastReportTime = System.nanoTime();
+
+    /**
+     * Culls the entities of every resident model. Entities still waiting for their model are culled against the
+     * placeholder drawn in its place, or left visible while there is none.
+     *
+     * @param placeholder the model drawn for entities whose model is not resident, may be null
+     * @return whether any entity changed visibility
+     */
+    public boolean update(List<GpuModel> models, GpuModel placeholder, Scene scene) {
+        projection.set(scene.getProjection());
+        extractPlanes(projection, planes);
+
+        var count = 0;
+        var residentModels = new HashSet<String>();
+        for (var model : models) {
+            residentModels.add(model.name);
+            count = add(scene.getEntitiesByModelId(model.name), model, count);
+        }
+        if (placeholder != null) {
+            for (var entry : scene.entitiesByModel().entrySet())
+                if (!residentModels.contains(entry.getKey())) count = add(entry.getValue(), placeholder, count);
+        }
+
+        var entityCount = count;
+        var chunkCount = (entityCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (entityCount >= PARALLEL_THRESHOLD) IntStream.range(0, chunkCount).parallel().forEach(chunk -> cullChunk(chunk, entityCount));
+        else for (var chunk = 0; chunk < chunkCount; chunk++) cullChunk(chunk, entityCount);
+
+        var changed = false;
+        var visibleCount = 0;
+        for (var i = 0; i < count; i++) {
+            var entity = entities[i];
+            if (visible[i]) visibleCount++;
+            if (entity.visible == visible[i]) continue;
+            entity.visible = visible[i];
+            changed = true;
+        }
+        // Don't keep entities removed from the scene alive
+        Arrays.fill(entities, 0, count, null);
+        Arrays.fill(entityModels, 0, count, null);
+        var now = System.nanoTime();
+        if (now - lastReportTime >= REPORT_INTERVAL_NANOS) {
+            lastReportTime = now;
+            LOGGER.info("Frustum culled {} of {} entities", count - visibleCount, count);
+        }
+        return changed;
+    }
+
+    /**
+     * @return the entity count once {@code modelEntities} are queued for culling against {@code model}
+     */
+    private int add(List<RenderEntity> modelEntities, GpuModel model, int count) {
+        if (modelEntities == null) return count;
+        ensureCapacity(count + modelEntities.size());
+        for (var entity : modelEntities) {
+            entities[count] = entity;
+            entityModels[count++] = model;
+        }
+        return count;
+    }
+
+    private void cullChunk(int chunk, int count) {
+        var from = chunk * CHUNK_SIZE;
+        var to = Math.min(from + CHUNK_SIZE, count);
+        var scratch = new Vector3f();
+        for (var i = from; i < to; i++) {
+            var transform = entities[i].translation;
+            var bounds = entityModels[i].bounds;
+            transform.transformPosition(bounds.center(), scratch);
+            centerX[i] = scratch.x;
+            centerY[i] = scratch.y;
+            centerZ[i] = scratch.z;
+            var scale = transform.getScale(scratch);
+            radii[i] = bounds.radius() * Math.max(scale.x, Math.max(scale.y, scale.z));
+        }
+
+        classifySpheres(from, to);
+        for (var i = from; i < to; i++) {
+            visible[i] = switch (classes[i]) {
+                case OUTSIDE -> false;
+                case INSIDE -> true;
+                default -> boxVisible(i);
+            };
+        }
+    }
+
+    /**
+     * Tests the model box transformed by the entity, using its extent along each plane normal.
+     */
+    private boolean boxVisible(int i) {
+        Matrix4fc transform = entities[i].translation;
+        var halfExtent = entityModels[i].bounds.halfExtent();
+        for (var plane = 0; plane < PLANE_COUNT; plane++) {
+            var a = planes[plane * 4];
+            var b = planes[plane * 4 + 1];
+            var c = planes[plane * 4 + 2];
+            var d = planes[plane * 4 + 3];
+            var distance = a * centerX[i] + b * centerY[i] + c * centerZ[i] + d;
+            var extent = halfExtent.x() * Math.abs(a * transform.m00() + b * transform.m01() + c * transform.m02())
+                    + halfExtent.y() * Math.abs(a * transform.m10() + b * transform.m11() + c * transform.m12())
+                    + halfExtent.z() * Math.abs(a * transform.m20() + b * transform.m21() + c * transform.m22());
+            if (distance < -extent) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Entities are already in view space, so the frustum planes come straight from the projection.
+     *
+     * @param planes receives the normalised plane equations pointing into the frustum, 4 floats per plane
+     */
+    static void extractPlanes(Matrix4fc projection, float[] planes) {
+        var plane = new Vector4f();
+        for (var i = 0; i < PLANE_COUNT; i++) {
+            projection.frustumPlane(Matrix4fc.PLANE_NX + i, plane);
+            planes[i * 4] = plane.x;
+            planes[i * 4 + 1] = plane.y;
+            planes[i * 4 + 2] = plane.z;
+            planes[i * 4 + 3] = plane.w;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= entities.length) return;
+        var newCapacity = Math.max(capacity, entities.length * 2);
+        entities = Arrays.copyOf(entities, newCapacity);
+        entityModels = Arrays.copyOf(entityModels, newCapacity);
+        centerX = Arrays.copyOf(centerX, newCapacity);
+        centerY = Arrays.copyOf(centerY, newCapacity);
+        centerZ = Arrays.copyOf(centerZ, newCapacity);
+        radii = Arrays.copyOf(radii, newCapacity);
+        classes = Arrays.copyOf(classes, newCapacity);
+        visible = Arrays.copyOf(visible, newCapacity);
+    }
+
+    /**
+     * Classifies spheres {@code from} (inclusive) to {@code to} (exclusive) as {@link #OUTSIDE}, {@link #INSIDE} or
+     * {@link #INTERSECTING} the frustum. Runs one plane at a time so the inner loop is branch free over the arrays.
+     */
+    private void classifySpheres(int from, int to) {
+        Arrays.fill(classes, from, to, INSIDE);
+        for (var plane = 0; plane < PLANE_COUNT; plane++) {
+            var a = planes[plane * 4];
+            var b = planes[plane * 4 + 1];
+            var c = planes[plane * 4 + 2];
+            var d = planes[plane * 4 + 3];
+            for (var i = from; i < to; i++) {
+                var distance = a * centerX[i] + b * centerY[i] + c * centerZ[i] + d;
+                var planeClass = distance < -radii[i] ? OUTSIDE : distance < radii[i] ? INTERSECTING : INSIDE;
+                classes[i] = (byte) Math.min(classes[i], planeClass);
+            }
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package me.hydos.vkinteropexperiments.graph;
+
+import me.hydos.vkinteropexperiments.graph.cache.PipelineCache;
+import me.hydos.vkinteropexperiments.graph.descriptor.DescriptorAllocator;
+import me.hydos.vkinteropexperiments.graph.descriptor.DescriptorSet;
+import me.hydos.vkinteropexperiments.graph.descriptor.DescriptorSetLayout;
+import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import me.hydos.vkinteropexperiments.graph.shader.ShaderProgram;
+import me.hydos.vkinteropexperiments.graph.sync.FrameRetirementQueue;
+import me.hydos.vkinteropexperiments.graph.vertex.GpuModel;
+import me.hydos.vkinteropexperiments.memory.Allocator;
+import me.hydos.vkinteropexperiments.memory.FrameRingBuffer;
+import me.hydos.vkinteropexperiments.memory.VkBuffer;
+import me.hydos.vkinteropexperiments.scene.RenderEntity;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK12;
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkDrawIndexedIndirectCommand;
+import org.lwjgl.vulkan.VkMemoryBarrier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Frustum culls and picks detail levels for every entity on the GPU, then writes the surviving draws for
+ * vkCmdDrawIndexedIndirectCount. Two dispatches run ahead of the render pass: cull.c.glsl appends every visible
+ * entity's instance matrix to the range of its model and level, then compact.c.glsl writes a command for every mesh
+ * level that received instances, packed at the front of its batch. A batch is one material and index type of a model,
+ * the unit the main pass binds state for.
+ */
+public class GpuCuller implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GpuCuller.class);
+    private static final ShaderProgram.ShaderModuleData[] CULL_SHADER = {new ShaderProgram.ShaderModuleData(VK10.VK_SHADER_STAGE_COMPUTE_BIT, "cull.c.glsl")};
+    private static final ShaderProgram.ShaderModuleData[] COMPACT_SHADER = {new ShaderProgram.ShaderModuleData(VK10.VK_SHADER_STAGE_COMPUTE_BIT, "compact.c.glsl")};
+    private static final int WORKGROUP_SIZE = 64;
+    // The full mesh plus one level per LodSelector threshold, matches MAX_LODS in the shaders
+    private static final int MAX_LODS = LodSelector.LOD_PIXELS.length + 1;
+    private static final int BINDING_COUNT = 8;
+    private static final int PUSH_CONSTANTS_SIZE = 2 * Integer.BYTES;
+    private static final int PARAMS_SIZE = 128;
+    private static final int MODEL_SIZE = 96;
+    private static final int SLOT_SIZE = 8 * Integer.BYTES;
+    private static final int MATRIX_SIZE = Float.BYTES * 4 * 4;
+    private static final int COMMAND_SIZE = VkDrawIndexedIndirectCommand.SIZEOF;
+    private static final Matrix4fc IDENTITY = new Matrix4f();
+    private final LogicalDevice logicalDevice;
+    private final Allocator allocator;
+    private final PipelineCache pipelineCache;
+    private final FrameRingBuffer frameUploads;
+    private final DescriptorAllocator descriptorAllocator;
+    private final long storageAlignment;
+    private final DescriptorSetLayout.StorageBufferDescriptorSetLayout descriptorSetLayout;
+    private Pipelines pipelines;
+    private final AtomicReference<Pipelines> pendingPipelines = new AtomicReference<>();
+    private final FrameState[] frames;
+    private final float[] planes = new float[FrustumCuller.PLANE_COUNT * 4];
+
+    public GpuCuller(LogicalDevice logicalDevice, Allocator allocator, PipelineCache pipelineCache, FrameRingBuffer frameUploads, DescriptorAllocator descriptorAllocator, int frameCount) {
+        this.logicalDevice = logicalDevice;
+        this.allocator = allocator;
+        this.pipelineCache = pipelineCache;
+        this.frameUploads = frameUploads;
+        this.descriptorAllocator = descriptorAllocator;
+        this.storageAlignment = logicalDevice.physicalDevice.physicalDeviceProperties.limits().minStorageBufferOffsetAlignment();
+        this.descriptorSetLayout = new DescriptorSetLayout.StorageBufferDescriptorSetLayout(logicalDevice, BINDING_COUNT, VK10.VK_SHADER_STAGE_COMPUTE_BIT);
+        this.pipelines = createPipelines();
+        this.frames = new FrameState[frameCount];
+        for (var i = 0; i < frameCount; i++) frames[i] = new FrameState();
+    }
+
+    private Pipelines createPipelines() {
+        var layouts = new DescriptorSetLayout[]{descriptorSetLayout};
+        var cullShader = new ShaderProgram(logicalDevice, CULL_SHADER);
+        ShaderProgram compactShader = null;
+        ComputePipeline cullPipeline = null;
+        try {
+            compactShader = new ShaderProgram(logicalDevice, COMPACT_SHADER);
+            cullPipeline = new ComputePipeline(pipelineCache, cullShader, PUSH_CONSTANTS_SIZE, layouts);
+            var compactPipeline = new ComputePipeline(pipelineCache, compactShader, PUSH_CONSTANTS_SIZE, layouts);
+            return new Pipelines(cullShader, compactShader, cullPipeline, compactPipeline);
+        } catch (RuntimeException e) {
+            if (cullPipeline != null) cullPipeline.close();
+            if (compactShader != null) compactShader.close();
+            cullShader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Rebuilds both pipelines on the calling thread when the changed files affect either shader. The culler switches
+     * to them once {@link #applyPendingPipelines} is called. On failure the current pipelines stay in use.
+     */
+    public void reloadShaders(Set<String> changedFiles) {
+        if (!ShaderProgram.affectedBy(CULL_SHADER, changedFiles) && !ShaderProgram.affectedBy(COMPACT_SHADER, changedFiles)) return;
+        try {
+            var start = System.nanoTime();
+            var replaced = pendingPipelines.getAndSet(createPipelines());
+            if (replaced != null) replaced.close();
+            LOGGER.info("Rebuilt culling pipelines in {}ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to reload culling shaders, keeping the current pipelines", e);
+        }
+    }
+
+    /**
+     * Swaps in reloaded pipelines. The old ones are retired since frames in flight may still use them.
+     *
+     * @return whether the pipelines changed, so recordings using the old ones must be redone
+     */
+    public boolean applyPendingPipelines(FrameRetirementQueue retirements) {
+        var swap = pendingPipelines.getAndSet(null);
+        if (swap == null) return false;
+
+        retirements.retire(pipelines);
+        this.pipelines = swap;
+        return true;
+    }
+
+    /**
+     * Writes the frame's culling inputs and records the culling dispatches. Must be recorded outside a render pass, and
+     * only after the frame's fence has signalled since the frame's output buffers may be replaced.
+     *
+     * @return the batches to draw with {@link #recordDraw} inside the render pass
+     */
+    public Output recordCulling(VkCommandBuffer cmdHandle, int frameIdx, List<RendererImpl.ModelDraw> draws, Matrix4fc projection, int viewportHeight) {
+        var frame = frames[frameIdx];
+        var modelCount = draws.size();
+        var drawCountBase = modelCount * MAX_LODS;
+
+        // Batches first, the slot and command counts size everything else
+        var batches = new ArrayList<Batch>();
+        var slotCount = 0;
+        var entityCount = 0;
+        var instanceCount = 0L;
+        for (var draw : draws) {
+            var lodCount = lodCount(draw.model());
+            entityCount += draw.entities().size();
+            instanceCount += (long) draw.entities().size() * lodCount;
+            for (var material : draw.model().materials) {
+                for (var indexType : RendererImpl.INDEX_TYPES) {
+                    var meshCount = (int) material.meshes().stream().filter(mesh -> mesh.indexType() == indexType).count();
+                    if (meshCount == 0) continue;
+                    var maxDraws = meshCount * lodCount;
+                    batches.add(new Batch(material, indexType, (long) slotCount * COMMAND_SIZE, (long) (drawCountBase + batches.size()) * Integer.BYTES, maxDraws));
+                    slotCount += maxDraws;
+                }
+            }
+        }
+
+        var params = allocate(PARAMS_SIZE);
+        var models = allocate((long) modelCount * MODEL_SIZE);
+        var transforms = allocate((long) entityCount * MATRIX_SIZE);
+        var entityModels = allocate((long) entityCount * Integer.BYTES);
+        var slots = allocate((long) slotCount * SLOT_SIZE);
+        var countersSize = (long) (drawCountBase + batches.size()) * Integer.BYTES;
+        frame.counters = ensureSize(frame.counters, countersSize, VK10.VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK10.VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT | VK10.VK_BUFFER_USAGE_TRANSFER_DST_BIT);
+        frame.commands = ensureSize(frame.commands, (long) slotCount * COMMAND_SIZE, VK10.VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK10.VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT);
+        frame.instances = ensureSize(frame.instances, instanceCount * MATRIX_SIZE, VK10.VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK10.VK_BUFFER_USAGE_VERTEX_BUFFER_BIT);
+        // The inputs aren't all in the upload buffer, so the renderer grows it and records the frame again
+        if (frameUploads.overflowed()) return new Output(frame.instances.buffer, frame.commands.buffer, frame.counters.buffer, List.of());
+
+        frame.entities.clear();
+        frame.paramsAddress = params.address();
+        frame.transformsAddress = transforms.address();
+        writeParams(frame, projection, viewportHeight);
+
+        var matrix = new Matrix4f();
+        var instanceBase = 0;
+        var entity = 0;
+        var slot = 0;
+        var batch = 0;
+        for (var modelIdx = 0; modelIdx < modelCount; modelIdx++) {
+            var draw = draws.get(modelIdx);
+            var model = draw.model();
+            var lodCount = lodCount(model);
+            var modelEntities = draw.entities().size();
+
+            var address = models.address() + (long) modelIdx * MODEL_SIZE;
+            matrix.set(model.dequantization != null ? model.dequantization : IDENTITY).getToAddress(address);
+            var bounds = model.bounds;
+            MemoryUtil.memPutFloat(address + 64, bounds.center().x());
+            MemoryUtil.memPutFloat(address + 68, bounds.center().y());
+            MemoryUtil.memPutFloat(address + 72, bounds.center().z());
+            MemoryUtil.memPutFloat(address + 76, bounds.radius());
+            MemoryUtil.memPutInt(address + 80, instanceBase);
+            MemoryUtil.memPutInt(address + 84, modelEntities);
+            MemoryUtil.memPutInt(address + 88, lodCount);
+            MemoryUtil.memPutInt(address + 92, 0);
+            instanceBase += modelEntities * lodCount;
+
+            for (var renderEntity : draw.entities()) {
+                frame.entities.add(renderEntity);
+                MemoryUtil.memPutInt(entityModels.address() + (long) entity++ * Integer.BYTES, modelIdx);
+            }
+
+            for (var material : model.materials) {
+                for (var indexType : RendererImpl.INDEX_TYPES) {
+                    var meshes = material.meshes().stream().filter(mesh -> mesh.indexType() == indexType).toList();
+                    if (meshes.isEmpty()) continue;
+                    var commandBase = (int) (batches.get(batch).commandOffset() / COMMAND_SIZE);
+                    for (var mesh : meshes) {
+                        for (var level = 0; level < lodCount; level++) {
+                            var lod = mesh.lod(level);
+                            var slotAddress = slots.address() + (long) slot++ * SLOT_SIZE;
+                            MemoryUtil.memPutInt(slotAddress, lod.indexCount());
+                            MemoryUtil.memPutInt(slotAddress + 4, lod.firstIndex());
+                            MemoryUtil.memPutInt(slotAddress + 8, mesh.vertexOffset());
+                            MemoryUtil.memPutInt(slotAddress + 12, modelIdx);
+                            MemoryUtil.memPutInt(slotAddress + 16, level);
+                            MemoryUtil.memPutInt(slotAddress + 20, batch);
+                            MemoryUtil.memPutInt(slotAddress + 24, commandBase);
+                            MemoryUtil.memPutInt(slotAddress + 28, 0);
+                        }
+                    }
+                    batch++;
+                }
+            }
+        }
+        writeTransforms(frame);
+
+        var descriptorSet = new DescriptorSet.StorageBufferDescriptorSet(descriptorAllocator, frameIdx, descriptorSetLayout, List.of(
+                range(params),
+                range(models),
+                range(transforms),
+                range(entityModels),
+                new DescriptorSet.BufferRange(frame.counters.buffer, 0, frame.counters.requestedSize),
+                new DescriptorSet.BufferRange(frame.instances.buffer, 0, frame.instances.requestedSize),
+                range(slots),
+                new DescriptorSet.BufferRange(frame.commands.buffer, 0, frame.commands.requestedSize)
+        ));
+
+        try (var stack = MemoryStack.stackPush()) {
+            if (countersSize > 0) VK10.vkCmdFillBuffer(cmdHandle, frame.counters.buffer, 0, countersSize, 0);
+            barrier(cmdHandle, VK10.VK_ACCESS_TRANSFER_WRITE_BIT, VK10.VK_ACCESS_SHADER_READ_BIT | VK10.VK_ACCESS_SHADER_WRITE_BIT, VK10.VK_PIPELINE_STAGE_TRANSFER_BIT, VK10.VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT);
+
+            var pDescriptorSets = stack.longs(descriptorSet.vk());
+            dispatch(stack, cmdHandle, pipelines.cull(), pDescriptorSets, entityCount, drawCountBase);
+            barrier(cmdHandle, VK10.VK_ACCESS_SHADER_WRITE_BIT, VK10.VK_ACCESS_SHADER_READ_BIT | VK10.VK_ACCESS_SHADER_WRITE_BIT, VK10.VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, VK10.VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT);
+            dispatch(stack, cmdHandle, pipelines.compact(), pDescriptorSets, slotCount, drawCountBase);
+            barrier(cmdHandle, VK10.VK_ACCESS_SHADER_WRITE_BIT, VK10.VK_ACCESS_INDIRECT_COMMAND_READ_BIT | VK10.VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT, VK10.VK_PIPELINE_STAGE_COMPUTE_SHADER_BIT, VK10.VK_PIPELINE_STAGE_DRAW_INDIRECT_BIT | VK10.VK_PIPELINE_STAGE_VERTEX_INPUT_BIT);
+        }
+
+        return new Output(frame.instances.buffer, frame.commands.buffer, frame.counters.buffer, List.copyOf(batches));
+    }
+
+    /**
+     * Refreshes the frustum and entity transforms of a frame whose recording is reused.
+     */
+    public void refresh(int frameIdx, Matrix4fc projection, int viewportHeight) {
+        var frame = frames[frameIdx];
+        writeParams(frame, projection, viewportHeight);
+        writeTransforms(frame);
+    }
+
+    /**
+     * Records a batch's indirect count draw. The caller binds the pipeline, the vertex buffers, the batch's material and
+     * its index type.
+     */
+    public static void recordDraw(VkCommandBuffer cmdHandle, Output output, Batch batch) {
+        VK12.vkCmdDrawIndexedIndirectCount(cmdHandle, output.commandBuffer(), batch.commandOffset(), output.countBuffer(), batch.countOffset(), batch.maxDraws(), COMMAND_SIZE);
+    }
+
+    private void writeParams(FrameState frame, Matrix4fc projection, int viewportHeight) {
+        FrustumCuller.extractPlanes(projection, planes);
+        var address = frame.paramsAddress;
+        for (var i = 0; i < planes.length; i++) MemoryUtil.memPutFloat(address + (long) i * Float.BYTES, planes[i]);
+        for (var i = 0; i < 4; i++) MemoryUtil.memPutFloat(address + 96 + i * Float.BYTES, i < LodSelector.LOD_PIXELS.length ? LodSelector.LOD_PIXELS[i] : 0);
+        MemoryUtil.memPutFloat(address + 112, Math.abs(projection.m11()) * viewportHeight);
+    }
+
+    private static void writeTransforms(FrameState frame) {
+        for (var i = 0; i < frame.entities.size(); i++)
+            frame.entities.get(i).translation.getToAddress(frame.transformsAddress + (long) i * MATRIX_SIZE);
+    }
+
+    private static int lodCount(GpuModel model) {
+        return Math.min(model.lodCount(), MAX_LODS);
+    }
+
+    private static void dispatch(MemoryStack stack, VkCommandBuffer cmdHandle, ComputePipeline pipeline, LongBuffer pDescriptorSets, int count, int drawCountBase) {
+        if (count == 0) return;
+        VK10.vkCmdBindPipeline(cmdHandle, VK10.VK_PIPELINE_BIND_POINT_COMPUTE, pipeline.vk());
+        VK10.vkCmdBindDescriptorSets(cmdHandle, VK10.VK_PIPELINE_BIND_POINT_COMPUTE, pipeline.layout, 0, pDescriptorSets, null);
+        VK10.vkCmdPushConstants(cmdHandle, pipeline.layout, VK10.VK_SHADER_STAGE_COMPUTE_BIT, 0, stack.ints(count, drawCountBase));
+        VK10.vkCmdDispatch(cmdHandle, (count + WORKGROUP_SIZE - 1) / WORKGROUP_SIZE, 1, 1);
+    }
+
+    private static void barrier(VkCommandBuffer cmdHandle, int srcAccess, int dstAccess, int srcStage, int dstStage) {
+        try (var stack = MemoryStack.stackPush()) {
+            var memoryBarrier = VkMemoryBarrier.calloc(1, stack)
+                    .sType$Default()
+                    .srcAccessMask(srcAccess)
+                    .dstAccessMask(dstAccess);
+            VK10.vkCmdPipelineBarrier(cmdHandle, srcStage, dstStage, 0, memoryBarrier, null, null);
+        }
+    }
+
+    /**
+     * Empty inputs still get a few bytes, descriptors can't point at zero sized ranges.
+     */
+    private FrameRingBuffer.Slice allocate(long size) {
+        return frameUploads.allocate(Math.max(size, 16), storageAlignment);
+    }
+
+    private DescriptorSet.BufferRange range(FrameRingBuffer.Slice slice) {
+        return new DescriptorSet.BufferRange(frameUploads.buffer.buffer, slice.offset(), slice.size());
+    }
+
+    /**
+     * Grows a frame's output buffer. The old one is closed right away, only this frame used it and its fence has
+     * signalled.
+     */
+    private VkBuffer ensureSize(VkBuffer buffer, long size, int usage) {
+        size = Math.max(size, 16);
+        if (buffer != null && buffer.requestedSize >= size) return buffer;
+        var newSize = buffer != null ? Math.max(size, buffer.requestedSize * 2) : size;
+        if (buffer != null) buffer.close();
+        return new VkBuffer(allocator, newSize, usage, Allocator.MemoryUsage.GPU_ONLY);
+    }
+
+    @Override
+    public void close() {
+        for (var frame : frames) {
+            if (frame.counters != null) frame.counters.close();
+            if (frame.commands != null) frame.commands.close();
+            if (frame.instances != null) frame.instances.close();
+        }
+        var pendingSwap = pendingPipelines.getAndSet(null);
+        if (pendingSwap != null) pendingSwap.close();
+        pipelines.close();
+        descriptorSetLayout.close();
+    }
+
+    private record Pipelines(
+            ShaderProgram cullShader,
+            ShaderProgram compactShader,
+            ComputePipeline cull,
+            ComputePipeline compact
+    ) implements Closeable {
+        @Override
+        public void close() {
+            compact.close();
+            cull.close();
+            compactShader.close();
+            cullShader.close();
+        }
+    }
+
+    /**
+     * The output buffers of one frame, plus what has to be rewritten when its recording is reused.
+     */
+    private static final class FrameState {
+        private final List<RenderEntity> entities = new ArrayList<>();
+        private VkBuffer counters;
+        private VkBuffer commands;
+        private VkBuffer instances;
+        private long paramsAddress;
+        private long transformsAddress;
+    }
+
+    /**
+     * Buffers the main pass reads. Instances are addressed through firstInstance, so the instance buffer is bound at
+     * offset 0.
+     */
+    public record Output(
+            long instanceBuffer,
+            long commandBuffer,
+            long countBuffer,
+            List<Batch> batches
+    ) {}
+
+    /**
+     * @param commandOffset byte offset of the batch's first command
+     * @param countOffset   byte offset of the batch's draw count
+     * @param maxDraws      commands reserved for the batch, one per mesh and level
+     */
+    public record Batch(
+            GpuModel.Material material,
+            int indexType,
+            long commandOffset,
+            long countOffset,
+            int maxDraws
+    ) {}
+}
@@ -0,0 +1,65 @@
+package me.hydos.vkinteropexperiments.graph;
+
+import me.hydos.vkinteropexperiments.graph.vertex.GpuModel;
+import me.hydos.vkinteropexperiments.scene.RenderEntity;
+import me.hydos.vkinteropexperiments.scene.Scene;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.List;
+
+/**
+ * Picks a detail level for every entity from how large its model appears on screen. A level only changes once the size
+ * has moved past the threshold by a margin, so entities sitting right at one don't flicker between two levels.
+ */
+public class LodSelector {
+    // Projected diameter in pixels below which level i + 1 replaces level i
+    static final float[] LOD_PIXELS = {400, 200, 100};
+    // Fraction past a threshold the size has to move before the level changes
+    private static final float HYSTERESIS = 0.15f;
+    private final Matrix4f projection = new Matrix4f();
+    private final Vector3f scratch = new Vector3f();
+
+    /**
+     * @return whether any entity changed level
+     */
+    public boolean update(List<GpuModel> models, Scene scene, int viewportHeight) {
+        projection.set(scene.getProjection());
+        var projectionScale = Math.abs(projection.m11()) * viewportHeight;
+        var changed = false;
+        for (var model : models) {
+            var entities = scene.getEntitiesByModelId(model.name);
+            if (entities == null) continue;
+
+            var lodCount = model.lodCount();
+            for (var entity : entities) {
+                var level = select(entity.lod, projectedDiameter(entity, model.bounds, projectionScale, scratch), lodCount);
+                if (level == entity.lod) continue;
+                entity.lod = level;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static int select(int current, float pixels, int lodCount) {
+        var level = Math.min(current, lodCount - 1);
+        while (level > 0 && pixels > LOD_PIXELS[level - 1] * (1 + HYSTERESIS)) level--;
+        while (level < Math.min(lodCount, LOD_PIXELS.length + 1) - 1 && pixels < LOD_PIXELS[level] * (1 - HYSTERESIS)) level++;
+        return level;
+    }
+
+    /**
+     * Measures the model's bounding sphere the same way the GPU culling pass does.
+     *
+     * @param projectionScale the projection's vertical scale times the viewport height in pixels
+     * @return the entity's diameter on screen in pixels, {@link Float#MAX_VALUE} when the camera is inside it
+     */
+    public static float projectedDiameter(RenderEntity entity, GpuModel.Bounds bounds, float projectionScale, Vector3f scratch) {
+        var distance = entity.translation.transformPosition(bounds.center(), scratch).length();
+        var scale = entity.translation.getScale(scratch);
+        var radius = bounds.radius() * Math.max(scale.x, Math.max(scale.y, scale.z));
+        if (distance <= radius) return Float.MAX_VALUE;
+        return radius / distance * projectionScale;
+    }
+}
@@ -93,10 +93,17 @@ public class Pipeline implements Closeable, VkObjectHolder<Long> {
                             VK10.VK_DYNAMIC_STATE_SCISSOR
                     ));
 
-            var pushConstantRange = VkPushConstantRange.calloc(1, stack)
+            // Fragment push constants sit right after the vertex ones so each stage can be pushed separately
+            var hasFragmentPushConstants = creationInfo.fragmentPushConstantsSize > 0;
+            var pushConstantRange = VkPushConstantRange.calloc(hasFragmentPushConstants ? 2 : 1, stack);
+            pushConstantRange.get(0)
                     .stageFlags(VK10.VK_SHADER_STAGE_VERTEX_BIT)
                     .offset(0)
                     .size(creationInfo.pushConstantsSize);
+            if (hasFragmentPushConstants) pushConstantRange.get(1)
+                    .stageFlags(VK10.VK_SHADER_STAGE_FRAGMENT_BIT)
+                    .offset(creationInfo.pushConstantsSize)
+                    .size(creationInfo.fragmentPushConstantsSize);
 
             var descriptorSetLayouts = creationInfo.descriptorSetLayouts();
             var numLayouts = descriptorSetLayouts != null ? descriptorSetLayouts.length : 0;
@@ -147,9 +154,15 @@ public class Pipeline implements Closeable, VkObjectHolder<Long> {
             boolean enableDepth,
             boolean enableBlend,
             int pushConstantsSize,
+            int fragmentPushConstantsSize,
             VertexInputStateInfo vertInputStateInfo,
             DescriptorSetLayout[] descriptorSetLayouts
     ) implements Closeable {
+
+        public CreationInfo withShaderProgram(ShaderProgram shaderProgram) {
+            return new CreationInfo(vkRenderPass, shaderProgram, colorAttachmentCount, enableDepth, enableBlend, pushConstantsSize, fragmentPushConstantsSize, vertInputStateInfo, descriptorSetLayouts);
+        }
+
         @Override
         public void close() {
             vertInputStateInfo.close();
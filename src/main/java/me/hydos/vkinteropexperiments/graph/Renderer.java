@@ -3,6 +3,9 @@ package me.hydos.vkinteropexperiments.graph;
 import me.hydos.vkinteropexperiments.debug.DebugWindow;
 import me.hydos.vkinteropexperiments.debug.Surface;
 import me.hydos.vkinteropexperiments.graph.cache.TextureCache;
+import me.hydos.vkinteropexperiments.graph.image.texture.Texture;
+import me.hydos.vkinteropexperiments.graph.image.texture.TextureCompressor;
+import me.hydos.vkinteropexperiments.graph.command.CommandBuffer;
 import me.hydos.vkinteropexperiments.graph.command.CommandPool;
 import me.hydos.vkinteropexperiments.graph.cache.PipelineCache;
 import me.hydos.vkinteropexperiments.graph.setup.Instance;
@@ -11,49 +14,143 @@ import me.hydos.vkinteropexperiments.graph.setup.PhysicalDevice;
 import me.hydos.vkinteropexperiments.graph.setup.Queue;
 import me.hydos.vkinteropexperiments.graph.swapchain.SurfaceSwapchain;
 import me.hydos.vkinteropexperiments.graph.swapchain.Swapchain;
+import me.hydos.vkinteropexperiments.graph.sync.FrameRetirementQueue;
+import me.hydos.vkinteropexperiments.graph.upload.TextureStreamer;
+import me.hydos.vkinteropexperiments.graph.upload.UploadScheduler;
 import me.hydos.vkinteropexperiments.graph.vertex.GpuModel;
+import me.hydos.vkinteropexperiments.graph.vertex.MeshArena;
+import me.hydos.vkinteropexperiments.graph.vertex.VertexFormat;
+import me.hydos.vkinteropexperiments.memory.Allocator;
 import me.hydos.vkinteropexperiments.scene.ModelData;
+import me.hydos.vkinteropexperiments.scene.PlaceholderModel;
 import me.hydos.vkinteropexperiments.scene.Scene;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Renderer implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(Renderer.class);
+    private static final long ARENA_VERTEX_CAPACITY = 64L * 1024 * 1024;
+    private static final long ARENA_INDEX_CAPACITY = 32L * 1024 * 1024;
+    private static final Path PIPELINE_CACHE_FILE = Path.of("cache/pipeline_cache.bin");
     public final Instance instance;
     public final PhysicalDevice physicalDevice;
     public final LogicalDevice logicalDevice;
+    public final Allocator allocator;
+    public final MeshArena meshArena;
     public final Surface surface;
     public final Queue.Graphics graphicsQueue;
+    public final Queue.Transfer transferQueue;
     public final CommandPool cmdPool;
     private final PipelineCache pipelineCache;
     public final Queue.Present presentQueue;
     public final RendererImpl impl;
+    public final FrameRetirementQueue retirements;
+    public final UploadScheduler uploads;
+    // Null when texture streaming is disabled
+    public final TextureStreamer textureStreamer;
+    private final Scene scene;
     private final List<GpuModel> models = new ArrayList<>();
-    public final TextureCache textureCache = new TextureCache();
+    private final ConcurrentLinkedQueue<GpuModel> pendingUnloads = new ConcurrentLinkedQueue<>();
+    public final TextureCache textureCache;
     public Swapchain swapchain;
 
     public Renderer(boolean enableDebug, DebugWindow window, Scene scene, Settings settings) {
+        this.scene = scene;
         this.instance = new Instance(enableDebug, window != null);
         this.physicalDevice = PhysicalDevice.create(instance, settings.preferredDevice);
         this.logicalDevice = new LogicalDevice(physicalDevice);
+        this.allocator = new Allocator(instance, physicalDevice, logicalDevice);
+        this.textureCache = new TextureCache(new Texture.Options(
+                settings.textureBudget > 0,
+                settings.keepCpuTextures,
+                !settings.gpuMipmaps,
+                settings.compressTextures ? TextureCompressor.create(logicalDevice) : null
+        ));
+        this.meshArena = new MeshArena(allocator, settings.vertexFormat, ARENA_VERTEX_CAPACITY, ARENA_INDEX_CAPACITY);
         this.surface = window != null ? new Surface(physicalDevice, window.pointer) : null;
         this.graphicsQueue = new Queue.Graphics(logicalDevice, 0);
         this.presentQueue = new Queue.Present(logicalDevice, surface, 0);
+        this.transferQueue = new Queue.Transfer(logicalDevice, graphicsQueue);
         this.swapchain = window != null ? new SurfaceSwapchain(logicalDevice, surface, window, settings.imageCount, settings.vSync) : null;
         this.cmdPool = new CommandPool(logicalDevice, graphicsQueue.queueFamilyIndex);
-        this.pipelineCache = new PipelineCache(logicalDevice);
-        this.impl = new RendererImpl(((SurfaceSwapchain) swapchain), cmdPool, pipelineCache, scene);
+        this.pipelineCache = new PipelineCache(logicalDevice, PIPELINE_CACHE_FILE);
+        this.retirements = new FrameRetirementQueue(((SurfaceSwapchain) swapchain).imageViews.length);
+        this.impl = new RendererImpl(((SurfaceSwapchain) swapchain), allocator, meshArena, retirements, cmdPool, pipelineCache, scene, settings);
+        this.uploads = new UploadScheduler(logicalDevice, allocator, meshArena, textureCache, transferQueue, graphicsQueue);
+        this.textureStreamer = settings.textureBudget > 0 ? new TextureStreamer(allocator, retirements, settings.textureBudget) : null;
+        uploads.upload(PlaceholderModel.create());
     }
 
-    public void loadModels(List<ModelData> models) {
+    /**
+     * Queues the model for upload. Entities using it are drawn as a placeholder until it is resident.
+     */
+    public CompletableFuture<GpuModel> loadModel(ModelData model) {
+        return uploads.upload(model);
+    }
+
+    /**
+     * Queues the models for upload. Entities using them are drawn as a placeholder until they are resident.
+     */
+    public List<CompletableFuture<GpuModel>> loadModels(List<ModelData> models) {
         LOGGER.info("Loading {} models", models.size());
-        this.models.addAll(GpuModel.transformModels(models, textureCache, cmdPool, graphicsQueue));
-        LOGGER.info("Loaded {} models", models.size());
+        return models.stream().map(this::loadModel).toList();
+    }
+
+    /**
+     * Stops drawing the model and frees it once no frame in flight uses it. Safe to call from any thread.
+     */
+    public void unloadModel(GpuModel model) {
+        pendingUnloads.add(model);
+    }
+
+    private void processUnloads() {
+        var changed = false;
+        GpuModel model;
+        while ((model = pendingUnloads.poll()) != null) {
+            if (!models.remove(model)) continue;
+            LOGGER.info("Unloading {}", model.name);
+            retirements.retire(model);
+            for (var material : model.materials) releaseTexture(material.texture());
+            changed = true;
+        }
+
+        if (changed) impl.registerModels(models);
+    }
+
+    /**
+     * Gives back the model's reference to a texture, retiring the texture when no other model uses it.
+     */
+    private void releaseTexture(Texture texture) {
+        if (!textureCache.release(texture)) return;
+
+        LOGGER.info("Unloading texture {}", texture.key);
+        impl.unregisterTexture(texture);
+        if (textureStreamer != null) textureStreamer.release(texture);
+        else retirements.retire(texture);
+    }
+
+    /**
+     * Makes finished uploads drawable, recording their acquire barriers into a command buffer submitted before the
+     * frame using them.
+     */
+    private void registerUploads(CommandBuffer acquireCmd, List<UploadScheduler.ReadyUpload> readyUploads) {
+        for (var readyUpload : readyUploads) {
+            var model = readyUpload.upload().model();
+            readyUpload.upload().recordAcquire(acquireCmd, uploads.ownership);
+            this.models.add(model);
+            if (model.name.equals(PlaceholderModel.NAME)) impl.setPlaceholderModel(model);
+        }
+        LOGGER.info("Loaded {} models", readyUploads.size());
+        allocator.logStatistics();
+        LOGGER.info("Descriptors: {}", impl.descriptorStats());
 
         this.models.forEach(m -> m.materials.sort((a, b) -> Boolean.compare(a.isTransparent(), b.isTransparent())));
         this.models.sort((a, b) -> {
@@ -74,8 +171,28 @@ public class Renderer implements Closeable {
             ((SurfaceSwapchain) swapchain).acquireNextImage();
         }
 
+        processUnloads();
+        if (textureStreamer != null) textureStreamer.update(models, scene, ((SurfaceSwapchain) swapchain).extent.height());
+        var readyUploads = uploads.takeReady();
+        var streamedTextures = textureStreamer != null && textureStreamer.hasStaged();
+
+        // Uploaded models and streamed texture levels share one command buffer run ahead of the frame
+        var acquireCmd = (CommandBuffer) null;
+        if (!readyUploads.isEmpty() || streamedTextures) {
+            acquireCmd = new CommandBuffer(cmdPool, true, true);
+            acquireCmd.beginRecording();
+            if (!readyUploads.isEmpty()) registerUploads(acquireCmd, readyUploads);
+            if (streamedTextures) textureStreamer.recordStaged(acquireCmd).forEach(impl::updateTexture);
+            acquireCmd.endRecording();
+        }
+
         impl.recordCmdBuffer(models);
-        impl.submit(presentQueue);
+        impl.submit(presentQueue, acquireCmd);
+
+        if (acquireCmd != null) {
+            retirements.retire(acquireCmd);
+            readyUploads.forEach(readyUpload -> readyUpload.future().complete(readyUpload.upload().model()));
+        }
 
         if (((SurfaceSwapchain) swapchain).presentImage(graphicsQueue)) {
             window.resized = true;
@@ -88,17 +205,25 @@ public class Renderer implements Closeable {
         var oldSwapchain = (SurfaceSwapchain) swapchain;
         oldSwapchain.close();
         swapchain = new SurfaceSwapchain(logicalDevice, surface, window, oldSwapchain.requestedImgCount, oldSwapchain.vsync);
+        impl.resize((SurfaceSwapchain) swapchain);
     }
 
     @Override
     public void close() {
         waitFor();
+        uploads.close();
+        if (textureStreamer != null) textureStreamer.close();
+        waitFor();
+        retirements.close();
         textureCache.close();
         models.forEach(GpuModel::close);
         impl.close();
+        pipelineCache.close();
+        meshArena.close();
         cmdPool.close();
         swapchain.close();
         surface.close();
+        allocator.close();
         logicalDevice.close();
         physicalDevice.close();
         instance.close();
@@ -107,12 +232,161 @@ public class Renderer implements Closeable {
     public void waitFor() {
         presentQueue.waitIdle();
         graphicsQueue.waitIdle();
+        transferQueue.waitIdle();
         logicalDevice.waitIdle();
     }
 
     public record Settings(
             boolean vSync,
             int imageCount,
-            String preferredDevice
-    ) {}
+            String preferredDevice,
+            DrawMode drawMode,
+            int recordingThreads,
+            boolean hotReloadShaders,
+            boolean bindlessTextures,
+            // VRAM budget for streamed textures in bytes, 0 uploads every texture at full detail
+            long textureBudget,
+            // Keep decoded texture images after upload for debug readback
+            boolean keepCpuTextures,
+            // Block compress sRGB textures when the device supports BC formats
+            boolean compressTextures,
+            // Blit mip levels on the GPU instead of building them on the CPU
+            boolean gpuMipmaps,
+            VertexFormat vertexFormat,
+            // Skip entities whose bounds are outside the view frustum
+            boolean frustumCulling
+    ) {
+
+        /**
+         * Defaults to no vSync, triple buffering, instanced drawing on the render thread and float vertices, with
+         * bindless textures, texture compression and frustum culling on wherever the device supports them.
+         */
+        public static class Builder {
+            private boolean bindlessTextures;
+            private boolean compressTextures;
+            private DrawMode drawMode;
+            private boolean frustumCulling;
+            private boolean gpuMipmaps;
+            private boolean hotReloadShaders;
+            private int imageCount;
+            private boolean keepCpuTextures;
+            private String preferredDevice;
+            private int recordingThreads;
+            private long textureBudget;
+            private boolean vSync;
+            private VertexFormat vertexFormat;
+
+            public Builder() {
+                this.imageCount = 3;
+                this.drawMode = DrawMode.INSTANCED;
+                this.bindlessTextures = true;
+                this.compressTextures = true;
+                this.vertexFormat = VertexFormat.FLOAT;
+                this.frustumCulling = true;
+            }
+
+            public Builder bindlessTextures(boolean bindlessTextures) {
+                this.bindlessTextures = bindlessTextures;
+                return this;
+            }
+
+            public Builder compressTextures(boolean compressTextures) {
+                this.compressTextures = compressTextures;
+                return this;
+            }
+
+            public Builder drawMode(DrawMode drawMode) {
+                this.drawMode = drawMode;
+                return this;
+            }
+
+            public Builder frustumCulling(boolean frustumCulling) {
+                this.frustumCulling = frustumCulling;
+                return this;
+            }
+
+            public Builder gpuMipmaps(boolean gpuMipmaps) {
+                this.gpuMipmaps = gpuMipmaps;
+                return this;
+            }
+
+            public Builder hotReloadShaders(boolean hotReloadShaders) {
+                this.hotReloadShaders = hotReloadShaders;
+                return this;
+            }
+
+            public Builder imageCount(int imageCount) {
+                this.imageCount = imageCount;
+                return this;
+            }
+
+            public Builder keepCpuTextures(boolean keepCpuTextures) {
+                this.keepCpuTextures = keepCpuTextures;
+                return this;
+            }
+
+            public Builder preferredDevice(String preferredDevice) {
+                this.preferredDevice = preferredDevice;
+                return this;
+            }
+
+            public Builder recordingThreads(int recordingThreads) {
+                this.recordingThreads = recordingThreads;
+                return this;
+            }
+
+            public Builder textureBudget(long textureBudget) {
+                this.textureBudget = textureBudget;
+                return this;
+            }
+
+            public Builder vSync(boolean vSync) {
+                this.vSync = vSync;
+                return this;
+            }
+
+            public Builder vertexFormat(VertexFormat vertexFormat) {
+                this.vertexFormat = vertexFormat;
+                return this;
+            }
+
+            public Settings build() {
+                return new Settings(
+                        vSync,
+                        imageCount,
+                        preferredDevice,
+                        drawMode,
+                        recordingThreads,
+                        hotReloadShaders,
+                        bindlessTextures,
+                        textureBudget,
+                        keepCpuTextures,
+                        compressTextures,
+                        gpuMipmaps,
+                        vertexFormat,
+                        frustumCulling
+                );
+            }
+        }
+    }
+
+    public enum DrawMode {
+        /**
+         * One draw per entity per mesh with the entity transform as a push constant.
+         */
+        DIRECT,
+        /**
+         * One draw per mesh with every entity's transform packed into a per-frame instance buffer.
+         */
+        INSTANCED,
+        /**
+         * Instanced, but each material is a single vkCmdDrawIndexedIndirect over the mesh arena.
+         */
+        INDIRECT,
+        /**
+         * Indirect, but a compute pass culls entities, picks their detail levels and writes the draws, which are issued
+         * with vkCmdDrawIndexedIndirectCount. The CPU frustum culling and level selection are skipped.
+         */
+        GPU_CULLED
+    }
 }
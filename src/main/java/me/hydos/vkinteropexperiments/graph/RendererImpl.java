@@ -2,6 +2,9 @@ package me.hydos.vkinteropexperiments.graph;
 
 import me.hydos.vkinteropexperiments.graph.command.CommandBuffer;
 import me.hydos.vkinteropexperiments.graph.command.CommandPool;
+import me.hydos.vkinteropexperiments.graph.command.ParallelCommandRecorder;
+import me.hydos.vkinteropexperiments.graph.descriptor.BindlessTextureArray;
+import me.hydos.vkinteropexperiments.graph.descriptor.DescriptorAllocator;
 import me.hydos.vkinteropexperiments.graph.descriptor.DescriptorPool;
 import me.hydos.vkinteropexperiments.graph.descriptor.DescriptorSet;
 import me.hydos.vkinteropexperiments.graph.descriptor.DescriptorSetLayout;
@@ -12,71 +15,137 @@ import me.hydos.vkinteropexperiments.graph.image.texture.Texture;
 import me.hydos.vkinteropexperiments.graph.image.texture.TextureSampler;
 import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
 import me.hydos.vkinteropexperiments.graph.setup.Queue;
+import me.hydos.vkinteropexperiments.graph.shader.ShaderCompiler;
 import me.hydos.vkinteropexperiments.graph.shader.ShaderProgram;
+import me.hydos.vkinteropexperiments.graph.shader.ShaderWatcher;
 import me.hydos.vkinteropexperiments.graph.swapchain.RenderPass;
 import me.hydos.vkinteropexperiments.graph.swapchain.SurfaceSwapchain;
 import me.hydos.vkinteropexperiments.graph.sync.Fence;
+import me.hydos.vkinteropexperiments.graph.sync.FrameRetirementQueue;
 import me.hydos.vkinteropexperiments.graph.vertex.GpuModel;
+import me.hydos.vkinteropexperiments.graph.vertex.InstancedVertexBufferStructure;
+import me.hydos.vkinteropexperiments.graph.vertex.MeshArena;
 import me.hydos.vkinteropexperiments.graph.vertex.VertexBufferStructure;
-import me.hydos.vkinteropexperiments.memory.VkBuffer;
+import me.hydos.vkinteropexperiments.memory.Allocator;
+import me.hydos.vkinteropexperiments.memory.FrameRingBuffer;
+import me.hydos.vkinteropexperiments.scene.RenderEntity;
 import me.hydos.vkinteropexperiments.scene.Scene;
 import org.joml.Matrix4f;
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.awt.image.BufferedImage;
 import java.io.Closeable;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class RendererImpl implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RendererImpl.class);
+    private static final long FRAME_UPLOAD_REGION_SIZE = 1024 * 1024;
+    private static final int MATRIX_SIZE = Float.BYTES * 4 * 4;
+    private static final int INDIRECT_COMMAND_SIZE = VkDrawIndexedIndirectCommand.SIZEOF;
+    static final int[] INDEX_TYPES = {VK10.VK_INDEX_TYPE_UINT16, VK10.VK_INDEX_TYPE_UINT32};
+    private static final int MAX_BINDLESS_TEXTURES = 4096;
+    private static final int DESCRIPTOR_POOL_SETS = 64;
 
     private final CommandBuffer[] cmdBuffers;
     private final Fence[] fences;
-    private final ShaderProgram shader;
-    private final Pipeline pipeline;
+    private final ShaderProgram.ShaderModuleData[] shaderModuleData;
+    private final PipelineCache pipelineCache;
+    private final Pipeline.CreationInfo pipelineCreationInfo;
+    private final AtomicReference<PipelineSwap> pendingPipeline = new AtomicReference<>();
+    private final ShaderWatcher shaderWatcher;
+    private ShaderProgram shader;
+    private Pipeline pipeline;
     private final RenderPass renderPass;
     private final Scene scene;
     private final LogicalDevice logicalDevice;
+    private final Allocator allocator;
+    private final MeshArena meshArena;
+    private final FrameRetirementQueue retirements;
+    private final Renderer.DrawMode drawMode;
+    private final ParallelCommandRecorder recorder;
+    private final LodSelector lodSelector = new LodSelector();
+    // Null when frustum culling is disabled or done on the GPU
+    private final FrustumCuller frustumCuller;
+    // Only set in GPU_CULLED mode
+    private final GpuCuller gpuCuller;
+    // Scene structure version each frame's command buffer was recorded against, -1 when it must be re-recorded
+    private final long[] recordedVersions;
+    private final long[] recordedHeads;
+    private final FrameRingBuffer.Slice[] projectionSlices;
+    private final List<InstanceWrite>[] instanceWrites;
+    private GpuModel placeholderModel;
+    private long recordedFrames;
+    private long reusedFrames;
     private FrameBuffer[] frameBuffers;
     private ImageAttachment[] depthAttachments;
     private SurfaceSwapchain swapchain;
-    private DescriptorPool descriptorPool;
+    private DescriptorAllocator descriptorAllocator;
     private DescriptorSetLayout[] descriptorSetLayouts;
-    private Map<BufferedImage, TextureDescriptorSet> descriptorSetMap;
-    private DescriptorSet.UniformDescriptorSet projMatrixDescriptorSet;
-    private VkBuffer projMatrixUniform;
+    private Map<String, TextureDescriptorSet> descriptorSetMap;
+    // Bindless mode only: every texture lives in one array and materials select it by slot
+    private BindlessTextureArray bindlessTextures;
+    private Map<String, Integer> textureSlots;
+    private DescriptorSet.DynamicUniformDescriptorSet projMatrixDescriptorSet;
+    private FrameRingBuffer frameUploads;
+    private long uniformAlignment;
     private DescriptorSetLayout.SamplerDescriptorSetLayout textureDescriptorSetLayout;
     private TextureSampler textureSampler;
-    private DescriptorSetLayout.UniformDescriptorSetLayout uniformDescriptorSetLayout;
+    private DescriptorSetLayout.DynamicUniformDescriptorSetLayout uniformDescriptorSetLayout;
 
-    public RendererImpl(SurfaceSwapchain swapchain, CommandPool cmdPool, PipelineCache pipelineCache, Scene scene) {
+    public RendererImpl(SurfaceSwapchain swapchain, Allocator allocator, MeshArena meshArena, FrameRetirementQueue retirements, CommandPool cmdPool, PipelineCache pipelineCache, Scene scene, Renderer.Settings settings) {
         this.swapchain = swapchain;
         this.scene = scene;
         this.logicalDevice = swapchain.logicalDevice;
+        this.allocator = allocator;
+        this.meshArena = meshArena;
+        this.retirements = retirements;
+        var requestedDrawMode = settings.drawMode();
+        if (requestedDrawMode == Renderer.DrawMode.GPU_CULLED && !(logicalDevice.drawIndirectCount && logicalDevice.multiDrawIndirect)) {
+            LOGGER.warn("drawIndirectCount or multiDrawIndirect is not supported, falling back to indirect drawing");
+            requestedDrawMode = Renderer.DrawMode.INDIRECT;
+        }
+        if (requestedDrawMode != Renderer.DrawMode.DIRECT && requestedDrawMode != Renderer.DrawMode.INSTANCED && !logicalDevice.drawIndirectFirstInstance) {
+            LOGGER.warn("drawIndirectFirstInstance is not supported, falling back to instanced drawing");
+            requestedDrawMode = Renderer.DrawMode.INSTANCED;
+        }
+        this.drawMode = requestedDrawMode;
+        var instanced = drawMode != Renderer.DrawMode.DIRECT;
+        var bindless = settings.bindlessTextures() && logicalDevice.descriptorIndexing;
+        if (settings.bindlessTextures() && !bindless) LOGGER.warn("Descriptor indexing is not supported, falling back to a descriptor set per texture");
 
         var imgCount = swapchain.imageViews.length;
         createDepthImages();
         renderPass = new RenderPass(swapchain, depthAttachments[0].vk().format);
         createFrameBuffers();
 
-        this.shader = new ShaderProgram(logicalDevice, new ShaderProgram.ShaderModuleData[]{
-                new ShaderProgram.ShaderModuleData(VK10.VK_SHADER_STAGE_VERTEX_BIT, "triangle.v.glsl"),
-                new ShaderProgram.ShaderModuleData(VK10.VK_SHADER_STAGE_FRAGMENT_BIT, "triangle.f.glsl")
-        });
+        this.shaderModuleData = new ShaderProgram.ShaderModuleData[]{
+                new ShaderProgram.ShaderModuleData(VK10.VK_SHADER_STAGE_VERTEX_BIT, instanced ? "instanced.v.glsl" : "triangle.v.glsl"),
+                new ShaderProgram.ShaderModuleData(VK10.VK_SHADER_STAGE_FRAGMENT_BIT, bindless ? "bindless.f.glsl" : "triangle.f.glsl")
+        };
+        this.shader = new ShaderProgram(logicalDevice, shaderModuleData);
 
-        createDescriptorSets();
+        createDescriptorSets(imgCount, bindless);
 
-        this.pipeline = new Pipeline(pipelineCache, new Pipeline.CreationInfo(
+        this.pipelineCache = pipelineCache;
+        this.pipelineCreationInfo = new Pipeline.CreationInfo(
                 renderPass.vk(),
                 shader,
                 1,
                 true,
                 false,
-                Float.BYTES * 4 * 4,
-                new VertexBufferStructure(),
+                MATRIX_SIZE,
+                bindless ? Integer.BYTES : 0,
+                instanced ? new InstancedVertexBufferStructure(meshArena.vertexFormat) : new VertexBufferStructure(meshArena.vertexFormat),
                 descriptorSetLayouts
-        ));
+        );
+        this.pipeline = new Pipeline(pipelineCache, pipelineCreationInfo);
 
         this.cmdBuffers = new CommandBuffer[imgCount];
         this.fences = new Fence[imgCount];
@@ -85,24 +154,52 @@ public class RendererImpl implements Closeable {
             cmdBuffers[i] = new CommandBuffer(cmdPool, true, false);
             fences[i] = new Fence(logicalDevice, true);
         }
+
+        this.recordedVersions = new long[imgCount];
+        this.recordedHeads = new long[imgCount];
+        this.projectionSlices = new FrameRingBuffer.Slice[imgCount];
+        //noinspection unchecked
+        this.instanceWrites = new List[imgCount];
+        for (var i = 0; i < imgCount; i++) instanceWrites[i] = Collections.synchronizedList(new ArrayList<>());
+        invalidateRecordings();
+
+        this.gpuCuller = drawMode == Renderer.DrawMode.GPU_CULLED ? new GpuCuller(logicalDevice, allocator, pipelineCache, frameUploads, descriptorAllocator, imgCount) : null;
+        this.frustumCuller = settings.frustumCulling() && gpuCuller == null ? new FrustumCuller() : null;
+        this.recorder = settings.recordingThreads() > 0 ? new ParallelCommandRecorder(logicalDevice, cmdPool.queueFamilyIndex, imgCount, settings.recordingThreads()) : null;
+        // Started last since it calls back into the graphics and culling pipelines from its own thread
+        this.shaderWatcher = settings.hotReloadShaders() ? new ShaderWatcher(ShaderCompiler.SRC_SHADER_DIR, this::reloadShaders) : null;
     }
 
-    private void createDescriptorSets() {
-        this.uniformDescriptorSetLayout = new DescriptorSetLayout.UniformDescriptorSetLayout(logicalDevice, 0, VK10.VK_SHADER_STAGE_VERTEX_BIT);
-        this.textureDescriptorSetLayout = new DescriptorSetLayout.SamplerDescriptorSetLayout(logicalDevice, 0, VK10.VK_SHADER_STAGE_FRAGMENT_BIT);
-        this.descriptorSetLayouts = new DescriptorSetLayout[]{
-                uniformDescriptorSetLayout,
-                textureDescriptorSetLayout,
-        };
+    private void createDescriptorSets(int frameCount, boolean bindless) {
+        this.textureSampler = new TextureSampler(logicalDevice, 1);
+        this.uniformDescriptorSetLayout = new DescriptorSetLayout.DynamicUniformDescriptorSetLayout(logicalDevice, 0, VK10.VK_SHADER_STAGE_VERTEX_BIT);
+        if (bindless) {
+            var capacity = Math.min(MAX_BINDLESS_TEXTURES, logicalDevice.maxBindlessTextures);
+            if (capacity < MAX_BINDLESS_TEXTURES) LOGGER.warn("Device allows {} bindless textures, limiting the texture array to that", capacity);
+            this.bindlessTextures = new BindlessTextureArray(logicalDevice, textureSampler, 0, capacity);
+            this.textureSlots = new HashMap<>();
+            this.descriptorSetLayouts = new DescriptorSetLayout[]{
+                    uniformDescriptorSetLayout,
+                    bindlessTextures.layout,
+            };
+        } else {
+            this.textureDescriptorSetLayout = new DescriptorSetLayout.SamplerDescriptorSetLayout(logicalDevice, 0, VK10.VK_SHADER_STAGE_FRAGMENT_BIT);
+            this.descriptorSetLayouts = new DescriptorSetLayout[]{
+                    uniformDescriptorSetLayout,
+                    textureDescriptorSetLayout,
+            };
+        }
 
         var descriptorTypeCounts = new ArrayList<DescriptorPool.DescriptorTypeCount>();
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(1, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER));
-        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(1, VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER));
-        this.descriptorPool = new DescriptorPool(logicalDevice, descriptorTypeCounts);
+        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(DESCRIPTOR_POOL_SETS / 4, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC));
+        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(DESCRIPTOR_POOL_SETS, VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER));
+        // Culling pass inputs and outputs in GPU_CULLED mode
+        descriptorTypeCounts.add(new DescriptorPool.DescriptorTypeCount(DESCRIPTOR_POOL_SETS / 4, VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER));
+        this.descriptorAllocator = new DescriptorAllocator(logicalDevice, descriptorTypeCounts, DESCRIPTOR_POOL_SETS, frameCount);
         this.descriptorSetMap = new HashMap<>();
-        this.textureSampler = new TextureSampler(logicalDevice, 1);
-        this.projMatrixUniform = new VkBuffer(logicalDevice, Float.BYTES * 4 * 4, VK10.VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT, VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT);
-        this.projMatrixDescriptorSet = new DescriptorSet.UniformDescriptorSet(descriptorPool, uniformDescriptorSetLayout, projMatrixUniform, 0);
+        this.uniformAlignment = logicalDevice.physicalDevice.physicalDeviceProperties.limits().minUniformBufferOffsetAlignment();
+        this.frameUploads = new FrameRingBuffer(allocator, FRAME_UPLOAD_REGION_SIZE, frameCount, VK10.VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT | VK10.VK_BUFFER_USAGE_VERTEX_BUFFER_BIT | VK10.VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT | VK10.VK_BUFFER_USAGE_STORAGE_BUFFER_BIT);
+        this.projMatrixDescriptorSet = new DescriptorSet.DynamicUniformDescriptorSet(descriptorAllocator, uniformDescriptorSetLayout, frameUploads.buffer, 0, MATRIX_SIZE);
     }
 
     private void createDepthImages() {
@@ -110,7 +207,7 @@ public class RendererImpl implements Closeable {
         var swapChainExtent = swapchain.extent;
         this.depthAttachments = new ImageAttachment[imageCount];
         for (int i = 0; i < imageCount; i++) {
-            depthAttachments[i] = new ImageAttachment(logicalDevice, swapChainExtent.width(), swapChainExtent.height(), VK10.VK_FORMAT_D32_SFLOAT, VK10.VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT);
+            depthAttachments[i] = new ImageAttachment(allocator, swapChainExtent.width(), swapChainExtent.height(), VK10.VK_FORMAT_D32_SFLOAT, VK10.VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT);
         }
     }
 
@@ -131,18 +228,55 @@ public class RendererImpl implements Closeable {
     }
 
     public void recordCmdBuffer(List<GpuModel> models) {
-        try (var stack = MemoryStack.stackPush()) {
-            var extent = swapchain.extent;
-            int width = extent.width();
-            int height = extent.height();
-            int idx = swapchain.currentFrame;
+        var extent = swapchain.extent;
+        int width = extent.width();
+        int height = extent.height();
+        int idx = swapchain.currentFrame;
+
+        Fence fence = fences[idx];
+        fence.waitForFence();
+        fence.reset();
+        retirements.frameCompleted(idx);
+        applyPendingPipeline();
+        // The GPU culling pass picks levels itself
+        if (gpuCuller == null && lodSelector.update(models, scene, height)) invalidateRecordings();
+        // Recordings bake in which entities are drawn, so they are only reused while visibility stays the same
+        if (frustumCuller != null && frustumCuller.update(models, placeholderModel, scene)) invalidateRecordings();
+
+        // Direct draws bake transforms into push constants, so only the other modes can reuse a recording
+        var sceneVersion = scene.structureVersion();
+        if (drawMode != Renderer.DrawMode.DIRECT && recordedVersions[idx] == sceneVersion) {
+            frameUploads.resumeFrame(idx, recordedHeads[idx]);
+            scene.getProjection().get(MemoryUtil.memByteBuffer(projectionSlices[idx].address(), MATRIX_SIZE));
+            for (var write : instanceWrites[idx]) write.write();
+            if (gpuCuller != null) gpuCuller.refresh(idx, scene.getProjection(), height);
+            reusedFrames++;
+            return;
+        }
+
+        recordedFrames++;
+        recordFrame(models, idx, width, height, sceneVersion);
+        // Whatever didn't fit went to scratch memory the GPU never sees, so the frame is recorded again
+        while (frameUploads.overflowed()) {
+            growFrameUploads();
+            recordFrame(models, idx, width, height, sceneVersion);
+        }
+    }
 
-            Fence fence = fences[idx];
+    private void recordFrame(List<GpuModel> models, int idx, int width, int height, long sceneVersion) {
+        try (var stack = MemoryStack.stackPush()) {
             var cmdBuffer = cmdBuffers[idx];
             var frameBuffer = frameBuffers[idx];
 
-            fence.waitForFence();
-            fence.reset();
+            frameUploads.beginFrame(idx);
+            descriptorAllocator.resetFrame(idx);
+            instanceWrites[idx].clear();
+
+            var projMatrix = frameUploads.allocate(MATRIX_SIZE, uniformAlignment);
+            scene.getProjection().get(MemoryUtil.memByteBuffer(projMatrix.address(), MATRIX_SIZE));
+            projectionSlices[idx] = projMatrix;
+            var projOffset = (int) projMatrix.offset();
+            var draws = collectDraws(models);
 
             cmdBuffer.reset();
             var clearValues = VkClearValue.calloc(2, stack)
@@ -163,8 +297,150 @@ public class RendererImpl implements Closeable {
 
             cmdBuffer.beginRecording();
             var cmdHandle = cmdBuffer.vk();
-            VK10.vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK10.VK_SUBPASS_CONTENTS_INLINE);
+            var culled = gpuCuller != null ? gpuCuller.recordCulling(cmdHandle, idx, draws, scene.getProjection(), height) : null;
+
+            // GPU culled frames are a handful of draws, not worth splitting across threads
+            if (recorder == null || culled != null) {
+                VK10.vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK10.VK_SUBPASS_CONTENTS_INLINE);
+                recordDraws(cmdHandle, width, height, draws, culled, projOffset);
+            } else {
+                var inheritance = new CommandBuffer.InheritanceInfo(renderPass.vk(), 0, frameBuffer.vk());
+                var chunks = recorder.split(draws, this::drawWeight);
+                var secondaryBuffers = recorder.record(idx, inheritance, chunks, (secondary, chunk) -> recordDraws(secondary.vk(), width, height, chunk, null, projOffset));
+
+                VK10.vkCmdBeginRenderPass(cmdHandle, renderPassBeginInfo, VK10.VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS);
+                if (!secondaryBuffers.isEmpty()) {
+                    var pSecondaryBuffers = stack.mallocPointer(secondaryBuffers.size());
+                    secondaryBuffers.forEach(secondary -> pSecondaryBuffers.put(secondary.vk()));
+                    VK10.vkCmdExecuteCommands(cmdHandle, pSecondaryBuffers.flip());
+                }
+            }
+
+            VK10.vkCmdEndRenderPass(cmdHandle);
+            cmdBuffer.endRecording();
+            recordedVersions[idx] = sceneVersion;
+            recordedHeads[idx] = frameUploads.head();
+        }
+    }
+
+    /**
+     * Doubles the frame upload regions until the current frame fits. Everything pointing at the old buffer is replaced,
+     * and retired since frames in flight may still read it.
+     */
+    private void growFrameUploads() {
+        var oldRegionSize = frameUploads.regionSize;
+        var oldSet = projMatrixDescriptorSet;
+        frameUploads.grow(retirements);
+        retirements.retire(() -> descriptorAllocator.free(uniformDescriptorSetLayout, oldSet.vk()));
+        this.projMatrixDescriptorSet = new DescriptorSet.DynamicUniformDescriptorSet(descriptorAllocator, uniformDescriptorSetLayout, frameUploads.buffer, 0, MATRIX_SIZE);
+        invalidateRecordings();
+        LOGGER.info("Grew frame upload regions from {} to {} bytes", oldRegionSize, frameUploads.regionSize);
+    }
 
+    /**
+     * Recompiles the shaders the changed files affect and builds new pipelines on the calling thread. The renderer
+     * switches to them at the start of its next frame. On failure the current pipelines stay in use.
+     */
+    private void reloadShaders(Set<String> changedFiles) {
+        if (gpuCuller != null) gpuCuller.reloadShaders(changedFiles);
+        if (!ShaderProgram.affectedBy(shaderModuleData, changedFiles)) return;
+        try {
+            var start = System.nanoTime();
+            var newShader = new ShaderProgram(logicalDevice, shaderModuleData);
+            var newPipeline = new Pipeline(pipelineCache, pipelineCreationInfo.withShaderProgram(newShader));
+            var replaced = pendingPipeline.getAndSet(new PipelineSwap(newShader, newPipeline));
+            if (replaced != null) replaced.close();
+            LOGGER.info("Rebuilt pipeline in {}ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to reload shaders, keeping the current pipeline", e);
+        }
+    }
+
+    /**
+     * Swaps in reloaded pipelines. The old ones are retired since frames in flight may still use them.
+     */
+    private void applyPendingPipeline() {
+        if (gpuCuller != null && gpuCuller.applyPendingPipelines(retirements)) invalidateRecordings();
+        var swap = pendingPipeline.getAndSet(null);
+        if (swap == null) return;
+
+        retirements.retire(pipeline);
+        retirements.retire(shader);
+        this.pipeline = swap.pipeline();
+        this.shader = swap.shader();
+        invalidateRecordings();
+    }
+
+    /**
+     * Forces every frame to be re-recorded, for changes the scene version doesn't cover (models, pipelines and
+     * framebuffers).
+     */
+    private void invalidateRecordings() {
+        Arrays.fill(recordedVersions, -1);
+    }
+
+    public DescriptorAllocator.Stats descriptorStats() {
+        return descriptorAllocator.stats();
+    }
+
+    private List<ModelDraw> collectDraws(List<GpuModel> models) {
+        var draws = new ArrayList<ModelDraw>(models.size() + 1);
+        var residentModels = new HashSet<String>();
+        for (var model : models) {
+            residentModels.add(model.name);
+            var modelEntities = scene.getEntitiesByModelId(model.name);
+            if (modelEntities == null) continue;
+            var entities = modelEntities.stream().filter(entity -> entity.visible).toList();
+            if (entities.isEmpty()) continue;
+
+            // One draw per detail level in use, since instances of a draw share their meshes' index ranges
+            var lodCount = model.lodCount();
+            if (lodCount == 1) {
+                draws.add(new ModelDraw(model, 0, entities));
+                continue;
+            }
+            var byLod = new ArrayList<List<RenderEntity>>(lodCount);
+            for (var i = 0; i < lodCount; i++) byLod.add(new ArrayList<>());
+            for (var entity : entities) byLod.get(Math.min(entity.lod, lodCount - 1)).add(entity);
+            for (var lod = 0; lod < lodCount; lod++) if (!byLod.get(lod).isEmpty()) draws.add(new ModelDraw(model, lod, byLod.get(lod)));
+        }
+
+        if (placeholderModel != null) {
+            var waitingEntities = new ArrayList<RenderEntity>();
+            for (var entry : scene.entitiesByModel().entrySet())
+                if (!residentModels.contains(entry.getKey()))
+                    for (var entity : entry.getValue()) if (entity.visible) waitingEntities.add(entity);
+            if (!waitingEntities.isEmpty()) draws.add(0, new ModelDraw(placeholderModel, 0, waitingEntities));
+        }
+
+        return draws;
+    }
+
+    /**
+     * Sets the model drawn for entities whose own model is not resident yet.
+     */
+    public void setPlaceholderModel(GpuModel placeholderModel) {
+        this.placeholderModel = placeholderModel;
+        invalidateRecordings();
+    }
+
+    /**
+     * Rough cost of recording a model, used to balance work between recording threads.
+     */
+    private long drawWeight(ModelDraw draw) {
+        var meshCount = 0L;
+        for (var material : draw.model().materials) meshCount += material.meshes().size();
+        return drawMode == Renderer.DrawMode.DIRECT ? meshCount * draw.entities().size() : meshCount + draw.entities().size();
+    }
+
+    /**
+     * Records the draws into a command buffer that is already inside the render pass. Safe to call from several
+     * threads at once as long as each uses its own command buffer.
+     *
+     * @param culled the culling pass output in GPU_CULLED mode, which replaces {@code draws}
+     */
+    private void recordDraws(VkCommandBuffer cmdHandle, int width, int height, List<ModelDraw> draws, GpuCuller.Output culled, int projOffset) {
+        try (var stack = MemoryStack.stackPush()) {
             VK10.vkCmdBindPipeline(cmdHandle, VK10.VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.vk());
 
             var viewport = VkViewport.calloc(1, stack)
@@ -186,43 +462,136 @@ public class RendererImpl implements Closeable {
                     );
             VK10.vkCmdSetScissor(cmdHandle, 0, scissor);
 
-            var offsets = stack.mallocLong(1).put(0, 0L);
-            var vertexBuffer = stack.mallocLong(1);
-
             var descriptorSets = stack.mallocLong(2).put(0, projMatrixDescriptorSet.vk());
+            var dynamicOffsets = stack.ints(projOffset);
+            var indexBinding = new IndexBinding(cmdHandle);
+            switch (drawMode) {
+                case DIRECT -> VK10.vkCmdBindVertexBuffers(cmdHandle, 0, stack.longs(meshArena.vertexBuffer.buffer), stack.longs(0));
+                // Instances are addressed through firstInstance so the instance buffer is bound once at offset 0
+                case INDIRECT -> VK10.vkCmdBindVertexBuffers(cmdHandle, 0, stack.longs(meshArena.vertexBuffer.buffer, frameUploads.buffer.buffer), stack.longs(0, 0));
+                case GPU_CULLED -> VK10.vkCmdBindVertexBuffers(cmdHandle, 0, stack.longs(meshArena.vertexBuffer.buffer, culled.instanceBuffer()), stack.longs(0, 0));
+            }
 
-            for (var model : models) {
-                var name = model.name;
-                var entities = scene.getEntitiesByModelId(name);
-                if (entities.isEmpty()) continue;
+            // Bindless sets never change between materials so they are bound once up front
+            if (bindlessTextures != null) {
+                descriptorSets.put(1, bindlessTextures.vk());
+                VK10.vkCmdBindDescriptorSets(cmdHandle, VK10.VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.layout, 0, descriptorSets, dynamicOffsets);
+            }
+
+            if (culled != null) {
+                for (var batch : culled.batches()) {
+                    bindMaterialTexture(cmdHandle, batch.material(), descriptorSets, dynamicOffsets);
+                    indexBinding.bind(batch.indexType());
+                    GpuCuller.recordDraw(cmdHandle, culled, batch);
+                }
+                return;
+            }
+
+            for (var draw : draws) {
+                switch (drawMode) {
+                    case DIRECT -> recordDirectModel(cmdHandle, indexBinding, draw, descriptorSets, dynamicOffsets);
+                    case INSTANCED -> recordInstancedModel(stack, cmdHandle, indexBinding, draw, descriptorSets, dynamicOffsets);
+                    case INDIRECT -> recordIndirectModel(cmdHandle, indexBinding, draw, descriptorSets, dynamicOffsets);
+                }
+            }
+        }
+    }
+
+    private void recordDirectModel(VkCommandBuffer cmdHandle, IndexBinding indexBinding, ModelDraw draw, LongBuffer descriptorSets, IntBuffer dynamicOffsets) {
+        var model = draw.model();
+        var transform = new Matrix4f();
+        for (var material : model.materials) {
+            if (material.meshes().isEmpty()) continue;
+
+            bindMaterialTexture(cmdHandle, material, descriptorSets, dynamicOffsets);
+            for (var mesh : material.meshes()) {
+                indexBinding.bind(mesh.indexType());
+                var lod = mesh.lod(draw.lod());
+                for (var entity : draw.entities()) {
+                    VkUtils.setMatrixAsPushConstant(pipeline, cmdHandle, model.vertexTransform(entity.translation, transform));
+                    VK10.vkCmdDrawIndexed(cmdHandle, lod.indexCount(), 1, lod.firstIndex(), mesh.vertexOffset(), 0);
+                }
+            }
+        }
+    }
 
-                for (var material : model.materials) {
-                    if (material.meshes().isEmpty()) continue;
+    private void recordInstancedModel(MemoryStack stack, VkCommandBuffer cmdHandle, IndexBinding indexBinding, ModelDraw draw, LongBuffer descriptorSets, IntBuffer dynamicOffsets) {
+        var model = draw.model();
+        var instanceCount = draw.entities().size();
+        var instances = writeInstances(model, draw.entities());
+        VK10.vkCmdBindVertexBuffers(cmdHandle, 0, stack.longs(meshArena.vertexBuffer.buffer, frameUploads.buffer.buffer), stack.longs(0, instances.offset()));
 
-                    var textureDescriptorSet = descriptorSetMap.get(material.texture().cpuTexture);
-                    descriptorSets.put(1, textureDescriptorSet.vk());
+        for (var material : model.materials) {
+            if (material.meshes().isEmpty()) continue;
 
-                    for (var mesh : material.meshes()) {
-                        vertexBuffer.put(0, mesh.verticesBuffer().buffer);
-                        VK10.vkCmdBindVertexBuffers(cmdHandle, 0, vertexBuffer, offsets);
-                        VK10.vkCmdBindIndexBuffer(cmdHandle, mesh.indicesBuffer().buffer, 0, VK10.VK_INDEX_TYPE_UINT32);
+            bindMaterialTexture(cmdHandle, material, descriptorSets, dynamicOffsets);
+            for (var mesh : material.meshes()) {
+                indexBinding.bind(mesh.indexType());
+                var lod = mesh.lod(draw.lod());
+                VK10.vkCmdDrawIndexed(cmdHandle, lod.indexCount(), instanceCount, lod.firstIndex(), mesh.vertexOffset(), 0);
+            }
+        }
+    }
 
-                        for (var entity : entities) {
-                            VK10.vkCmdBindDescriptorSets(cmdHandle, VK10.VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.layout, 0, descriptorSets, null);
-                            VkUtils.setMatrixAsPushConstant(pipeline, cmdHandle, entity.translation);
-                            VK10.vkCmdDrawIndexed(cmdHandle, mesh.indexCount(), 1, 0, 0, 0);
-                        }
-                    }
+    private void recordIndirectModel(VkCommandBuffer cmdHandle, IndexBinding indexBinding, ModelDraw draw, LongBuffer descriptorSets, IntBuffer dynamicOffsets) {
+        var model = draw.model();
+        var instanceCount = draw.entities().size();
+        var firstInstance = (int) (writeInstances(model, draw.entities()).offset() / InstancedVertexBufferStructure.INSTANCE_SIZE);
+
+        for (var material : model.materials) {
+            if (material.meshes().isEmpty()) continue;
+
+            bindMaterialTexture(cmdHandle, material, descriptorSets, dynamicOffsets);
+            // The index buffer is bound with one index type at a time, so each type gets its own multi-draw
+            for (var indexType : INDEX_TYPES) {
+                var meshes = material.meshes().stream().filter(mesh -> mesh.indexType() == indexType).toList();
+                if (meshes.isEmpty()) continue;
+
+                var commands = frameUploads.allocate((long) meshes.size() * INDIRECT_COMMAND_SIZE, Integer.BYTES);
+                for (var i = 0; i < meshes.size(); i++) {
+                    var mesh = meshes.get(i);
+                    var lod = mesh.lod(draw.lod());
+                    var address = commands.address() + (long) i * INDIRECT_COMMAND_SIZE;
+                    MemoryUtil.memPutInt(address + VkDrawIndexedIndirectCommand.INDEXCOUNT, lod.indexCount());
+                    MemoryUtil.memPutInt(address + VkDrawIndexedIndirectCommand.INSTANCECOUNT, instanceCount);
+                    MemoryUtil.memPutInt(address + VkDrawIndexedIndirectCommand.FIRSTINDEX, lod.firstIndex());
+                    MemoryUtil.memPutInt(address + VkDrawIndexedIndirectCommand.VERTEXOFFSET, mesh.vertexOffset());
+                    MemoryUtil.memPutInt(address + VkDrawIndexedIndirectCommand.FIRSTINSTANCE, firstInstance);
                 }
+
+                indexBinding.bind(indexType);
+                if (logicalDevice.multiDrawIndirect) VK10.vkCmdDrawIndexedIndirect(cmdHandle, frameUploads.buffer.buffer, commands.offset(), meshes.size(), INDIRECT_COMMAND_SIZE);
+                else for (var i = 0; i < meshes.size(); i++)
+                    VK10.vkCmdDrawIndexedIndirect(cmdHandle, frameUploads.buffer.buffer, commands.offset() + (long) i * INDIRECT_COMMAND_SIZE, 1, INDIRECT_COMMAND_SIZE);
             }
+        }
+    }
 
-            VK10.vkCmdEndRenderPass(cmdHandle);
-            cmdBuffer.endRecording();
+    /**
+     * Makes the material's texture current. Bindless mode pushes its slot, otherwise its descriptor set is bound.
+     */
+    private void bindMaterialTexture(VkCommandBuffer cmdHandle, GpuModel.Material material, LongBuffer descriptorSets, IntBuffer dynamicOffsets) {
+        if (bindlessTextures != null) {
+            try (var stack = MemoryStack.stackPush()) {
+                VK10.vkCmdPushConstants(cmdHandle, pipeline.layout, VK10.VK_SHADER_STAGE_FRAGMENT_BIT, MATRIX_SIZE, stack.ints(textureSlots.get(material.texture().key)));
+            }
+            return;
         }
+
+        descriptorSets.put(1, descriptorSetMap.get(material.texture().key).vk());
+        VK10.vkCmdBindDescriptorSets(cmdHandle, VK10.VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.layout, 0, descriptorSets, dynamicOffsets);
+    }
+
+    private FrameRingBuffer.Slice writeInstances(GpuModel model, List<RenderEntity> entities) {
+        var instances = frameUploads.allocate((long) entities.size() * InstancedVertexBufferStructure.INSTANCE_SIZE, InstancedVertexBufferStructure.INSTANCE_SIZE);
+        var write = new InstanceWrite(instances.address(), model, entities);
+        instanceWrites[swapchain.currentFrame].add(write);
+        write.write();
+        return instances;
     }
 
     public void registerModels(List<GpuModel> models) {
-        logicalDevice.waitIdle();
+        invalidateRecordings();
 
         for (var vulkanModel : models) {
             for (var material : vulkanModel.materials) {
@@ -233,8 +602,54 @@ public class RendererImpl implements Closeable {
     }
 
     private void updateTextureDescriptorSet(Texture texture) {
-        var cpuReference = texture.cpuTexture;
-        descriptorSetMap.computeIfAbsent(cpuReference, image -> new TextureDescriptorSet(descriptorPool, textureDescriptorSetLayout, texture, textureSampler, 0));
+        var key = texture.key;
+        if (bindlessTextures != null) {
+            textureSlots.computeIfAbsent(key, id -> {
+                var slot = bindlessTextures.allocateSlot();
+                bindlessTextures.set(slot, texture);
+                return slot;
+            });
+            return;
+        }
+
+        descriptorSetMap.computeIfAbsent(key, id -> new TextureDescriptorSet(descriptorAllocator, textureDescriptorSetLayout, texture, textureSampler, 0));
+    }
+
+    /**
+     * Drops the descriptor of a texture no model uses any more. Frames in flight keep reading it until they retire.
+     */
+    public void unregisterTexture(Texture texture) {
+        var key = texture.key;
+        if (bindlessTextures != null) {
+            var slot = textureSlots.remove(key);
+            if (slot != null) retirements.retire(() -> bindlessTextures.freeSlot(slot));
+        } else {
+            var set = descriptorSetMap.remove(key);
+            if (set != null) retirements.retire(() -> descriptorAllocator.free(textureDescriptorSetLayout, set.vk()));
+        }
+        invalidateRecordings();
+    }
+
+    /**
+     * Points a registered texture's descriptor at its current view after streaming swapped it. Frames in flight keep
+     * reading the old slot or set until they retire.
+     */
+    public void updateTexture(Texture texture) {
+        var key = texture.key;
+        if (bindlessTextures != null) {
+            var oldSlot = textureSlots.get(key);
+            if (oldSlot == null) return;
+            var slot = bindlessTextures.allocateSlot();
+            bindlessTextures.set(slot, texture);
+            textureSlots.put(key, slot);
+            retirements.retire(() -> bindlessTextures.freeSlot(oldSlot));
+        } else {
+            var oldSet = descriptorSetMap.get(key);
+            if (oldSet == null) return;
+            descriptorSetMap.put(key, new TextureDescriptorSet(descriptorAllocator, textureDescriptorSetLayout, texture, textureSampler, 0));
+            retirements.retire(() -> descriptorAllocator.free(textureDescriptorSetLayout, oldSet.vk()));
+        }
+        invalidateRecordings();
     }
 
     public void resize(SurfaceSwapchain swapchain) {
@@ -243,16 +658,21 @@ public class RendererImpl implements Closeable {
         Arrays.stream(depthAttachments).forEach(ImageAttachment::close);
         createDepthImages();
         createFrameBuffers();
+        invalidateRecordings();
     }
 
-    public void submit(Queue queue) {
+    /**
+     * @param acquireCmd optional command buffer acquiring newly uploaded resources, executed before the frame
+     */
+    public void submit(Queue queue, CommandBuffer acquireCmd) {
         try (var stack = MemoryStack.stackPush()) {
-            VkUtils.copyMatrix(projMatrixUniform, scene.getProjection());
+            frameUploads.flush();
             var idx = swapchain.currentFrame;
             var commandBuffer = cmdBuffers[idx];
             var currentFence = fences[idx];
             var syncSemaphores = swapchain.syncSemaphores[idx];
-            queue.submit(stack.pointers(commandBuffer.vk()),
+            var pCommandBuffers = acquireCmd != null ? stack.pointers(acquireCmd.vk(), commandBuffer.vk()) : stack.pointers(commandBuffer.vk());
+            queue.submit(pCommandBuffers,
                     stack.longs(syncSemaphores.imgAcquisitionSemaphore().vk()),
                     stack.ints(VK10.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT),
                     stack.longs(syncSemaphores.renderCompleteSemaphore().vk()), currentFence);
@@ -261,10 +681,20 @@ public class RendererImpl implements Closeable {
 
     @Override
     public void close() {
-        projMatrixUniform.close();
+        var frames = recordedFrames + reusedFrames;
+        LOGGER.info("Recorded {} frames, reused {} recorded frames ({}%)", recordedFrames, reusedFrames, frames > 0 ? reusedFrames * 100 / frames : 0);
+        if (shaderWatcher != null) shaderWatcher.close();
+        var pendingSwap = pendingPipeline.getAndSet(null);
+        if (pendingSwap != null) pendingSwap.close();
+        if (recorder != null) recorder.close();
+        if (gpuCuller != null) gpuCuller.close();
+        frameUploads.close();
         textureSampler.close();
-        descriptorPool.close();
-        Arrays.stream(descriptorSetLayouts).forEach(DescriptorSetLayout::close);
+        LOGGER.info("Descriptor allocator: {}", descriptorAllocator.stats());
+        descriptorAllocator.close();
+        if (bindlessTextures != null) bindlessTextures.close();
+        uniformDescriptorSetLayout.close();
+        if (textureDescriptorSetLayout != null) textureDescriptorSetLayout.close();
         pipeline.close();
         Arrays.stream(depthAttachments).forEach(ImageAttachment::close);
         shader.close();
@@ -273,4 +703,56 @@ public class RendererImpl implements Closeable {
         Arrays.stream(cmdBuffers).forEach(CommandBuffer::close);
         Arrays.stream(fences).forEach(Fence::close);
     }
+
+    private record PipelineSwap(
+            ShaderProgram shader,
+            Pipeline pipeline
+    ) implements Closeable {
+        @Override
+        public void close() {
+            pipeline.close();
+            shader.close();
+        }
+    }
+
+    /**
+     * Instance transforms living at a fixed address of the frame ring buffer. Rewritten every frame the recorded
+     * command buffer is reused.
+     */
+    private record InstanceWrite(
+            long address,
+            GpuModel model,
+            List<RenderEntity> entities
+    ) {
+        public void write() {
+            var transform = new Matrix4f();
+            for (var i = 0; i < entities.size(); i++)
+                model.vertexTransform(entities.get(i).translation, transform).getToAddress(address + (long) i * InstancedVertexBufferStructure.INSTANCE_SIZE);
+        }
+    }
+
+    /**
+     * Tracks the type the arena's index buffer is bound with in one command buffer, so it is only rebound when draws
+     * switch between 16 and 32 bit meshes.
+     */
+    private final class IndexBinding {
+        private final VkCommandBuffer cmdHandle;
+        private int indexType = -1;
+
+        private IndexBinding(VkCommandBuffer cmdHandle) {
+            this.cmdHandle = cmdHandle;
+        }
+
+        public void bind(int indexType) {
+            if (this.indexType == indexType) return;
+            VK10.vkCmdBindIndexBuffer(cmdHandle, meshArena.indexBuffer.buffer, 0, indexType);
+            this.indexType = indexType;
+        }
+    }
+
+    record ModelDraw(
+            GpuModel model,
+            int lod,
+            List<RenderEntity> entities
+    ) {}
 }
@@ -0,0 +1,41 @@
+package me.hydos.vkinteropexperiments.graph.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File handling shared by the on-disk caches.
+ */
+public class CacheFiles {
+
+    private CacheFiles() {}
+
+    /**
+     * Writes the remaining bytes of every buffer to a temporary file next to {@code file} and moves it over
+     * {@code file}, so concurrent readers and crashes mid write never see a truncated file. The temporary file is
+     * deleted when anything fails.
+     */
+    public static void writeAtomically(Path file, ByteBuffer... buffers) throws IOException {
+        var parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        var tmpFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (var channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+                for (var buffer : buffers) while (buffer.hasRemaining()) channel.write(buffer);
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(tmpFile);
+            } catch (IOException deleteFailure) {
+                e.addSuppressed(deleteFailure);
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package me.hydos.vkinteropexperiments.graph.cache;
+
+import me.hydos.vkinteropexperiments.scene.MeshOptimizer;
+import me.hydos.vkinteropexperiments.scene.MeshSimplifier;
+import me.hydos.vkinteropexperiments.scene.ModelData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * {@link MeshOptimizer} and {@link MeshSimplifier} results stored under a hash of the mesh they were computed for, so
+ * each mesh is only ever optimised once. Only the vertex remap and index buffers are stored, vertex data still comes
+ * from the model file.
+ */
+public class OptimizedMeshCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OptimizedMeshCache.class);
+    private static final Path CACHE_DIR = Path.of("cache/meshes");
+    private static final int CACHE_MAGIC = 0x54504F4D; // "MOPT"
+    // Bump whenever the optimizer output changes
+    private static final int CACHE_VERSION = 2;
+    private static final int HEADER_SIZE = 6 * Integer.BYTES;
+
+    private OptimizedMeshCache() {}
+
+    public static String key(ModelData.MeshData mesh) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            update(digest, mesh.positions());
+            update(digest, mesh.uvs());
+            update(digest, mesh.normals());
+            var indices = ByteBuffer.allocate(Integer.BYTES + mesh.indices().length * Integer.BYTES).putInt(mesh.indices().length);
+            for (var index : mesh.indices()) indices.putInt(index);
+            digest.update(indices.flip());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, float[] values) {
+        var length = values == null ? 0 : values.length;
+        // Length prefixed so moving values between attributes changes the hash
+        var bytes = ByteBuffer.allocate(Integer.BYTES + length * Float.BYTES).putInt(length);
+        for (var i = 0; i < length; i++) bytes.putFloat(values[i]);
+        digest.update(bytes.flip());
+    }
+
+    /**
+     * @return the cached order or null when {@code mesh} has not been optimised yet
+     */
+    public static MeshOptimizer.Order load(String key, ModelData.MeshData mesh) {
+        var file = CACHE_DIR.resolve(key + ".mesh");
+        if (!Files.exists(file)) return null;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE || size % Integer.BYTES != 0) return null;
+            var data = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            var position = 0L;
+            while (data.hasRemaining()) {
+                var read = channel.read(data, position);
+                if (read < 0) return null;
+                position += read;
+            }
+            var ints = data.flip().asIntBuffer();
+
+            var vertexCount = mesh.positions().length / 3;
+            if (ints.get() != CACHE_MAGIC || ints.get() != CACHE_VERSION || ints.get() != vertexCount) return null;
+            var remapLength = ints.get();
+            var indexCount = ints.get();
+            var lodCount = ints.get();
+            if (remapLength < 0 || remapLength > vertexCount || indexCount != mesh.indices().length || lodCount < 0) return null;
+            if (ints.remaining() < remapLength + indexCount) return null;
+            var remap = new int[remapLength];
+            var indices = new int[indexCount];
+            ints.get(remap).get(indices);
+
+            var lods = new ArrayList<int[]>();
+            for (var i = 0; i < lodCount; i++) {
+                if (!ints.hasRemaining()) return null;
+                var length = ints.get();
+                if (length < 0 || ints.remaining() < length) return null;
+                var lod = new int[length];
+                ints.get(lod);
+                lods.add(lod);
+            }
+            if (ints.hasRemaining()) return null;
+
+            // A damaged file must not index outside the mesh
+            for (var vertex : remap) if (vertex < 0 || vertex >= vertexCount) return null;
+            if (!inRange(indices, remapLength)) return null;
+            for (var lod : lods) if (!inRange(lod, remapLength)) return null;
+            return new MeshOptimizer.Order(remap, indices, List.copyOf(lods));
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read optimized mesh {}", file, e);
+            return null;
+        }
+    }
+
+    private static boolean inRange(int[] indices, int vertexCount) {
+        for (var index : indices) if (index < 0 || index >= vertexCount) return false;
+        return true;
+    }
+
+    public static void save(String key, ModelData.MeshData mesh, MeshOptimizer.Order order) {
+        var file = CACHE_DIR.resolve(key + ".mesh");
+        var remap = order.remap();
+        var indices = order.indices();
+        var size = HEADER_SIZE + (remap.length + indices.length) * Integer.BYTES;
+        for (var lod : order.lods()) size += Integer.BYTES + lod.length * Integer.BYTES;
+        var data = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        var ints = data.asIntBuffer()
+                .put(CACHE_MAGIC)
+                .put(CACHE_VERSION)
+                .put(mesh.positions().length / 3)
+                .put(remap.length)
+                .put(indices.length)
+                .put(order.lods().size())
+                .put(remap)
+                .put(indices);
+        for (var lod : order.lods()) ints.put(lod.length).put(lod);
+
+        try {
+            // Moved into place once complete, so concurrent loaders never read a half written file
+            CacheFiles.writeAtomically(file, data);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to cache optimized mesh {}", file, e);
+        }
+    }
+}
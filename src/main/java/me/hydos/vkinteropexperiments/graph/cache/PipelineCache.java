@@ -3,35 +3,140 @@ package me.hydos.vkinteropexperiments.graph.cache;
 import me.hydos.vkinteropexperiments.graph.VkObjectHolder;
 import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkPipelineCacheCreateInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
 
+/**
+ * A VkPipelineCache persisted to disk. The file is only used when its header matches the current device and driver,
+ * otherwise the cache starts empty and the file is replaced on the next save.
+ */
 public class PipelineCache implements Closeable, VkObjectHolder<Long> {
     private static final Logger LOGGER = LoggerFactory.getLogger(PipelineCache.class);
+    private static final int HEADER_SIZE = 16 + VK10.VK_UUID_SIZE;
+    private static final long SAVE_INTERVAL_MINUTES = 5;
     public final LogicalDevice logicalDevice;
     private final long pipelineCache;
+    private final Path file;
+    private final ScheduledExecutorService saver;
+    private long savedSize;
 
-    public PipelineCache(LogicalDevice logicalDevice) {
+    public PipelineCache(LogicalDevice logicalDevice, Path file) {
         try (var stack = MemoryStack.stackPush()) {
             LOGGER.info("Creating PipelineCache");
             this.logicalDevice = logicalDevice;
+            this.file = file;
             var createInfo = VkPipelineCacheCreateInfo.calloc(stack).sType$Default();
 
+            var initialData = load();
+            if (initialData != null) createInfo.pInitialData(initialData);
+
             var pPipelineCache = stack.mallocLong(1);
             ok(VK10.vkCreatePipelineCache(logicalDevice.vk(), createInfo, null, pPipelineCache), "Failed to create PipelineCache");
             this.pipelineCache = pPipelineCache.get(0);
+            if (initialData != null) {
+                this.savedSize = initialData.remaining();
+                MemoryUtil.memFree(initialData);
+            }
+        }
+
+        this.saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "Pipeline Cache Saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saver.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private ByteBuffer load() {
+        if (!Files.exists(file)) {
+            LOGGER.info("No pipeline cache at {}", file);
+            return null;
+        }
+
+        var start = System.nanoTime();
+        try {
+            var bytes = Files.readAllBytes(file);
+            var data = MemoryUtil.memAlloc(bytes.length).put(bytes).flip();
+            if (!isCompatible(data)) {
+                LOGGER.info("Pipeline cache at {} was created by another device or driver, ignoring it", file);
+                MemoryUtil.memFree(data);
+                return null;
+            }
+
+            LOGGER.info("Loaded {} byte pipeline cache in {}ms", bytes.length, (System.nanoTime() - start) / 1_000_000);
+            return data;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read pipeline cache at {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks the VK_PIPELINE_CACHE_HEADER_VERSION_ONE header against the current physical device.
+     */
+    private boolean isCompatible(ByteBuffer data) {
+        if (data.remaining() < HEADER_SIZE) return false;
+        var header = data.duplicate().order(ByteOrder.nativeOrder());
+        var properties = logicalDevice.physicalDevice.physicalDeviceProperties;
+
+        var headerSize = header.getInt(0);
+        var headerVersion = header.getInt(4);
+        var vendorId = header.getInt(8);
+        var deviceId = header.getInt(12);
+        if (headerSize < HEADER_SIZE || headerVersion != VK10.VK_PIPELINE_CACHE_HEADER_VERSION_ONE) return false;
+        if (vendorId != properties.vendorID() || deviceId != properties.deviceID()) return false;
+
+        var uuid = properties.pipelineCacheUUID();
+        for (var i = 0; i < VK10.VK_UUID_SIZE; i++) if (header.get(16 + i) != uuid.get(i)) return false;
+        return true;
+    }
+
+    /**
+     * Writes the cache to disk if it grew since the last save. Safe to call from any thread.
+     */
+    public synchronized void save() {
+        try (var stack = MemoryStack.stackPush()) {
+            var start = System.nanoTime();
+            var pSize = stack.mallocPointer(1);
+            ok(VK10.vkGetPipelineCacheData(logicalDevice.vk(), pipelineCache, pSize, null), "Failed to get PipelineCache size");
+            var size = pSize.get(0);
+            if (size == savedSize) return;
+
+            var data = MemoryUtil.memAlloc((int) size);
+            try {
+                ok(VK10.vkGetPipelineCacheData(logicalDevice.vk(), pipelineCache, pSize, data), "Failed to get PipelineCache data");
+                var written = (int) pSize.get(0);
+                CacheFiles.writeAtomically(file, data.limit(written));
+                this.savedSize = written;
+                LOGGER.info("Saved {} byte pipeline cache in {}ms", written, (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to save pipeline cache to {}", file, e);
+            } finally {
+                MemoryUtil.memFree(data);
+            }
         }
     }
 
     @Override
     public void close() {
         LOGGER.info("Closing");
+        saver.shutdownNow();
+        save();
         VK10.vkDestroyPipelineCache(logicalDevice.vk(), pipelineCache, null);
     }
 
@@ -0,0 +1,80 @@
+package me.hydos.vkinteropexperiments.graph.cache;
+
+import me.hydos.vkinteropexperiments.graph.image.texture.PixelConverter;
+import me.hydos.vkinteropexperiments.scene.ModelData;
+import org.lwjgl.system.MemoryUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decoded, mirrored and composited material textures stored as packed RGBA8 under their texture id. Warm starts map the
+ * file instead of decoding anything, and the mapping is handed to the renderer as is.
+ */
+public class ProcessedTextureCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessedTextureCache.class);
+    private static final Path CACHE_DIR = Path.of("cache/processed");
+    private static final int CACHE_MAGIC = 0x58455450; // "PTEX"
+    private static final int CACHE_VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    private ProcessedTextureCache() {}
+
+    /**
+     * @return the mapped texture or null when it is not cached
+     */
+    public static ModelData.TextureData load(String id) {
+        var file = file(id);
+        if (!Files.exists(file)) return null;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) != HEADER_SIZE) return null;
+            if (header.getInt(0) != CACHE_MAGIC || header.getInt(4) != CACHE_VERSION) return null;
+            var width = header.getInt(8);
+            var height = header.getInt(12);
+            var size = (long) width * height * PixelConverter.BYTES_PER_TEXEL;
+            if (width <= 0 || height <= 0 || channel.size() != HEADER_SIZE + size) return null;
+
+            // The mapping outlives the channel and is released once the buffer is collected
+            var pixels = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, size);
+            return ModelData.TextureData.packed(id, width, height, pixels);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read processed texture {}", file, e);
+            return null;
+        }
+    }
+
+    public static void save(ModelData.TextureData texture) {
+        var file = file(texture.id());
+        var size = (long) texture.width() * texture.height() * PixelConverter.BYTES_PER_TEXEL;
+        var pixels = MemoryUtil.memAlloc(Math.toIntExact(size));
+        try {
+            if (texture.pixels() != null) MemoryUtil.memCopy(MemoryUtil.memAddress(texture.pixels()), MemoryUtil.memAddress(pixels), size);
+            else PixelConverter.convert(texture.image(), MemoryUtil.memAddress(pixels));
+
+            var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(CACHE_MAGIC)
+                    .putInt(CACHE_VERSION)
+                    .putInt(texture.width())
+                    .putInt(texture.height())
+                    .flip();
+            // Moved into place once complete, so concurrent loaders never map a half written file
+            CacheFiles.writeAtomically(file, header, pixels);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to cache processed texture {}", file, e);
+        } finally {
+            MemoryUtil.memFree(pixels);
+        }
+    }
+
+    private static Path file(String id) {
+        return CACHE_DIR.resolve(id.replaceAll("[^A-Za-z0-9_-]", "_") + ".rgba");
+    }
+}
@@ -1,44 +1,73 @@
 package me.hydos.vkinteropexperiments.graph.cache;
 
-import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
 import me.hydos.vkinteropexperiments.graph.image.texture.Texture;
+import me.hydos.vkinteropexperiments.memory.Allocator;
+import me.hydos.vkinteropexperiments.scene.ModelData;
 
 import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 
+/**
+ * Reference counted textures keyed by {@link ModelData.TextureData#id()}, so models sharing pixels share the GPU image.
+ * The decoded image is dropped once its pixels are staged unless CPU copies are kept for debug readback.
+ */
 public class TextureCache implements Closeable {
-    public static final BufferedImage MISSING;
-    private final Map<BufferedImage, Texture> textureMap = new HashMap<>();
-    private final List<BufferedImage> textures = new ArrayList<>();
-
-    public Texture createTexture(LogicalDevice logicalDevice, BufferedImage cpuTexture, int format, boolean transparent) {
-        return textureMap.computeIfAbsent(cpuTexture, image -> {
-            var texture = new Texture(logicalDevice, cpuTexture, format, transparent);
-            textures.add(image);
-            return texture;
-        });
+    public static final ModelData.TextureData MISSING;
+    private final Map<String, Entry> textureMap = new HashMap<>();
+    private final Texture.Options options;
+
+    public TextureCache(Texture.Options options) {
+        this.options = options;
+    }
+
+    /**
+     * Creates the texture on first use. Every call takes a reference which is given back with {@link #release}.
+     */
+    public synchronized Texture createTexture(Allocator allocator, ModelData.TextureData data, int format, boolean transparent) {
+        var entry = textureMap.computeIfAbsent(data.id(), id -> new Entry(new Texture(allocator, data, format, transparent, options)));
+        entry.references++;
+        return entry.texture;
     }
 
-    public Texture getTexture(BufferedImage cpuTexture) {
-        if (!textureMap.containsKey(cpuTexture)) throw new RuntimeException("Tried accessing non-existent texture");
-        return textureMap.get(cpuTexture);
+    public synchronized Texture getTexture(String id) {
+        if (!textureMap.containsKey(id)) throw new RuntimeException("Tried accessing non-existent texture " + id);
+        return textureMap.get(id).texture;
     }
 
-    public int getTextureId(BufferedImage cpuTexture) {
-        return textures.indexOf(cpuTexture);
+    /**
+     * @return whether that was the last reference. The texture has then left the cache, and the caller closes it once
+     * no frame in flight samples it
+     */
+    public synchronized boolean release(Texture texture) {
+        var entry = textureMap.get(texture.key);
+        if (entry == null || entry.texture != texture) throw new RuntimeException("Released unknown texture " + texture.key);
+        if (--entry.references > 0) return false;
+
+        textureMap.remove(texture.key);
+        return true;
     }
 
     @Override
-    public void close() {
-        textureMap.values().forEach(Texture::close);
+    public synchronized void close() {
+        textureMap.values().forEach(entry -> entry.texture.close());
+    }
+
+    private static class Entry {
+        private final Texture texture;
+        private int references;
+
+        private Entry(Texture texture) {
+            this.texture = texture;
+        }
     }
 
     static {
         try {
-            MISSING = ImageIO.read(Objects.requireNonNull(TextureCache.class.getResourceAsStream("/missing.png")));
+            MISSING = ModelData.TextureData.decoded("builtin:missing", ImageIO.read(Objects.requireNonNull(TextureCache.class.getResourceAsStream("/missing.png"))));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
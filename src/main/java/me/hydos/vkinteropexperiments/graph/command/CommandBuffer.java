@@ -6,6 +6,7 @@ import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkCommandBuffer;
 import org.lwjgl.vulkan.VkCommandBufferAllocateInfo;
 import org.lwjgl.vulkan.VkCommandBufferBeginInfo;
+import org.lwjgl.vulkan.VkCommandBufferInheritanceInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,11 +38,28 @@ public class CommandBuffer implements Closeable, VkObjectHolder<VkCommandBuffer>
     }
 
     public void beginRecording() {
+        beginRecording(null);
+    }
+
+    /**
+     * @param inheritance the render pass a secondary buffer continues, or null for primary buffers
+     */
+    public void beginRecording(InheritanceInfo inheritance) {
         try (var stack = MemoryStack.stackPush()) {
+            var flags = oneTimeSubmit ? VK10.VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT : 0;
             var beginInfo = VkCommandBufferBeginInfo.calloc(stack)
-                    .sType$Default()
-                    .flags(oneTimeSubmit ? VK10.VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT : 0);
-            ok(VK10.vkBeginCommandBuffer(commandBuffer, beginInfo), "Failed to begin CommandBuffer");
+                    .sType$Default();
+
+            if (inheritance != null) {
+                flags |= VK10.VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT;
+                beginInfo.pInheritanceInfo(VkCommandBufferInheritanceInfo.calloc(stack)
+                        .sType$Default()
+                        .renderPass(inheritance.renderPass())
+                        .subpass(inheritance.subpass())
+                        .framebuffer(inheritance.frameBuffer()));
+            }
+
+            ok(VK10.vkBeginCommandBuffer(commandBuffer, beginInfo.flags(flags)), "Failed to begin CommandBuffer");
         }
     }
 
@@ -63,4 +81,10 @@ public class CommandBuffer implements Closeable, VkObjectHolder<VkCommandBuffer>
     public VkCommandBuffer vk() {
         return commandBuffer;
     }
+
+    public record InheritanceInfo(
+            long renderPass,
+            int subpass,
+            long frameBuffer
+    ) {}
 }
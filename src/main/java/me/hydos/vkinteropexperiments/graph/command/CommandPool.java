@@ -16,12 +16,14 @@ import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
 public class CommandPool implements Closeable, VkObjectHolder<Long> {
     private static final Logger LOGGER = LoggerFactory.getLogger(CommandPool.class);
     public final LogicalDevice logicalDevice;
+    public final int queueFamilyIndex;
     private final long commandPool;
 
     public CommandPool(LogicalDevice logicalDevice, int queueFamilyIndex) {
         try (var stack = MemoryStack.stackPush()) {
             LOGGER.info("Creating CommandPool");
             this.logicalDevice = logicalDevice;
+            this.queueFamilyIndex = queueFamilyIndex;
             var createInfo = VkCommandPoolCreateInfo.calloc(stack)
                     .sType$Default()
                     .flags(VK10.VK_COMMAND_POOL_CREATE_RESET_COMMAND_BUFFER_BIT)
@@ -33,6 +35,13 @@ public class CommandPool implements Closeable, VkObjectHolder<Long> {
         }
     }
 
+    /**
+     * Resets every CommandBuffer allocated from this pool at once. None of them may be pending execution.
+     */
+    public void reset() {
+        ok(VK10.vkResetCommandPool(logicalDevice.vk(), commandPool, 0), "Failed to reset CommandPool");
+    }
+
     @Override
     public void close() {
         VK10.vkDestroyCommandPool(logicalDevice.vk(), commandPool, null);
@@ -0,0 +1,113 @@
+package me.hydos.vkinteropexperiments.graph.command;
+
+import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Records secondary CommandBuffers on a pool of worker threads. Every worker slot owns one CommandPool per frame in
+ * flight, so no pool is ever touched by two threads at once and a whole frame's buffers are recycled with a single
+ * pool reset.
+ */
+public class ParallelCommandRecorder implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelCommandRecorder.class);
+    public final int threadCount;
+    private final ExecutorService executor;
+    private final CommandPool[][] pools;
+    private final CommandBuffer[][] cmdBuffers;
+
+    public ParallelCommandRecorder(LogicalDevice logicalDevice, int queueFamilyIndex, int frameCount, int threadCount) {
+        LOGGER.info("Creating ParallelCommandRecorder with {} threads", threadCount);
+        this.threadCount = threadCount;
+        var threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threadCount, r -> {
+            var thread = new Thread(r, "Command Recorder " + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.pools = new CommandPool[frameCount][threadCount];
+        this.cmdBuffers = new CommandBuffer[frameCount][threadCount];
+        for (var frame = 0; frame < frameCount; frame++) {
+            for (var slot = 0; slot < threadCount; slot++) {
+                pools[frame][slot] = new CommandPool(logicalDevice, queueFamilyIndex);
+                cmdBuffers[frame][slot] = new CommandBuffer(pools[frame][slot], false, false);
+            }
+        }
+    }
+
+    /**
+     * Records one secondary buffer per chunk in parallel and waits for all of them. The returned buffers are in chunk
+     * order so they can be executed in the same order the chunks were given. The caller must have waited on the
+     * frame's fence. The buffers stay valid until the next call for the same frame, so they can be executed again.
+     */
+    public <T> List<CommandBuffer> record(int frameIdx, CommandBuffer.InheritanceInfo inheritance, List<List<T>> chunks, BiConsumer<CommandBuffer, List<T>> recorder) {
+        if (chunks.size() > threadCount) throw new RuntimeException("Cannot record " + chunks.size() + " chunks with " + threadCount + " threads");
+
+        var futures = new ArrayList<CompletableFuture<CommandBuffer>>(chunks.size());
+        for (var slot = 0; slot < chunks.size(); slot++) {
+            var pool = pools[frameIdx][slot];
+            var cmdBuffer = cmdBuffers[frameIdx][slot];
+            var chunk = chunks.get(slot);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                pool.reset();
+                cmdBuffer.beginRecording(inheritance);
+                recorder.accept(cmdBuffer, chunk);
+                cmdBuffer.endRecording();
+                return cmdBuffer;
+            }, executor));
+        }
+
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    /**
+     * Splits the items into at most {@link #threadCount} contiguous chunks of roughly equal weight. Keeping chunks
+     * contiguous preserves the draw order of the input.
+     */
+    public <T> List<List<T>> split(List<T> items, ToLongFunction<T> weight) {
+        var totalWeight = 0L;
+        for (var item : items) totalWeight += weight.applyAsLong(item);
+
+        var chunks = new ArrayList<List<T>>();
+        var chunkCount = Math.min(threadCount, items.size());
+        if (chunkCount == 0) return chunks;
+
+        var targetWeight = Math.max(1, (totalWeight + chunkCount - 1) / chunkCount);
+        var current = new ArrayList<T>();
+        var currentWeight = 0L;
+        for (var i = 0; i < items.size(); i++) {
+            var item = items.get(i);
+            current.add(item);
+            currentWeight += weight.applyAsLong(item);
+
+            var remainingItems = items.size() - i - 1;
+            var remainingChunks = chunkCount - chunks.size() - 1;
+            if (remainingChunks > 0 && (currentWeight >= targetWeight || remainingItems == remainingChunks)) {
+                chunks.add(current);
+                current = new ArrayList<>();
+                currentWeight = 0;
+            }
+        }
+        if (!current.isEmpty()) chunks.add(current);
+        return chunks;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        Arrays.stream(cmdBuffers).flatMap(Arrays::stream).forEach(CommandBuffer::close);
+        Arrays.stream(pools).flatMap(Arrays::stream).forEach(CommandPool::close);
+    }
+}
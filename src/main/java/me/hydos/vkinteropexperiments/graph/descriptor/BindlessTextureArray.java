@@ -0,0 +1,103 @@
+package me.hydos.vkinteropexperiments.graph.descriptor;
+
+import me.hydos.vkinteropexperiments.graph.VkObjectHolder;
+import me.hydos.vkinteropexperiments.graph.image.texture.Texture;
+import me.hydos.vkinteropexperiments.graph.image.texture.TextureSampler;
+import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK12;
+import org.lwjgl.vulkan.VkDescriptorImageInfo;
+import org.lwjgl.vulkan.VkDescriptorSetAllocateInfo;
+import org.lwjgl.vulkan.VkWriteDescriptorSet;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.List;
+
+import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
+
+/**
+ * One descriptor set holding every texture in a single sampler array. Shaders pick a texture by slot, so it is bound
+ * once per command buffer instead of once per material. Slots can be filled while the set is in use by frames in
+ * flight as long as those frames don't read the slot being written, so a texture that changes gets a new slot.
+ */
+public class BindlessTextureArray implements Closeable, VkObjectHolder<Long> {
+    public final DescriptorSetLayout.BindlessSamplerDescriptorSetLayout layout;
+    public final int capacity;
+    private final LogicalDevice logicalDevice;
+    private final TextureSampler sampler;
+    private final DescriptorPool pool;
+    private final long descriptorSet;
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private int nextSlot;
+
+    public BindlessTextureArray(LogicalDevice logicalDevice, TextureSampler sampler, int binding, int capacity) {
+        this.logicalDevice = logicalDevice;
+        this.sampler = sampler;
+        this.capacity = capacity;
+        this.layout = new DescriptorSetLayout.BindlessSamplerDescriptorSetLayout(logicalDevice, binding, capacity, VK10.VK_SHADER_STAGE_FRAGMENT_BIT);
+        this.pool = new DescriptorPool(logicalDevice, List.of(new DescriptorPool.DescriptorTypeCount(capacity, VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)), VK12.VK_DESCRIPTOR_POOL_CREATE_UPDATE_AFTER_BIND_BIT);
+
+        try (var stack = MemoryStack.stackPush()) {
+            var allocInfo = VkDescriptorSetAllocateInfo.calloc(stack)
+                    .sType$Default()
+                    .descriptorPool(pool.vk())
+                    .pSetLayouts(stack.longs(layout.vk()));
+
+            var pDescriptorSet = stack.mallocLong(1);
+            ok(VK10.vkAllocateDescriptorSets(logicalDevice.vk(), allocInfo, pDescriptorSet), "Failed to create bindless descriptor set");
+            this.descriptorSet = pDescriptorSet.get(0);
+        }
+    }
+
+    public int allocateSlot() {
+        if (!freeSlots.isEmpty()) return freeSlots.pop();
+        if (nextSlot == capacity) throw new RuntimeException("Bindless texture array is full (capacity " + capacity + ")");
+        return nextSlot++;
+    }
+
+    /**
+     * Only call once no frame in flight can read the slot.
+     */
+    public void freeSlot(int slot) {
+        freeSlots.push(slot);
+    }
+
+    /**
+     * Points {@code slot} at the texture. The texture must already be in {@code SHADER_READ_ONLY_OPTIMAL} when a frame
+     * reading the slot executes.
+     */
+    public void set(int slot, Texture texture) {
+        if (slot < 0 || slot >= capacity) throw new RuntimeException("Texture slot " + slot + " is outside the bindless array (capacity " + capacity + ")");
+        try (var stack = MemoryStack.stackPush()) {
+            var imageInfo = VkDescriptorImageInfo.calloc(1, stack)
+                    .imageLayout(VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
+                    .imageView(texture.view().vk())
+                    .sampler(sampler.vk());
+
+            var write = VkWriteDescriptorSet.calloc(1, stack);
+            write.get(0)
+                    .sType$Default()
+                    .dstSet(descriptorSet)
+                    .dstBinding(layout.binding)
+                    .dstArrayElement(slot)
+                    .descriptorType(VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                    .descriptorCount(1)
+                    .pImageInfo(imageInfo);
+
+            VK10.vkUpdateDescriptorSets(logicalDevice.vk(), write, null);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+        layout.close();
+    }
+
+    @Override
+    public Long vk() {
+        return descriptorSet;
+    }
+}
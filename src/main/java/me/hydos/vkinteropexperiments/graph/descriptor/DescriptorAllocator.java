@@ -0,0 +1,155 @@
+package me.hydos.vkinteropexperiments.graph.descriptor;
+
+import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK11;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static me.hydos.vkinteropexperiments.graph.VkUtils.translateVulkanResult;
+
+/**
+ * Hands out descriptor sets from a chain of equally sized pools, adding a pool whenever the current one runs out.
+ * Freed sets are kept per layout and handed back out before touching a pool again, so callers must rewrite every
+ * binding of a set they get.
+ * <p>
+ * Sets that only live for one frame come from that frame's transient pools instead, which are reset wholesale by
+ * {@link #resetFrame} once the frame's fence has signalled.
+ */
+public class DescriptorAllocator implements Closeable {
+    public final LogicalDevice logicalDevice;
+    private final List<DescriptorPool.DescriptorTypeCount> poolSizes;
+    private final int setsPerPool;
+    private final List<DescriptorPool> pools = new ArrayList<>();
+    private final Map<Long, ArrayDeque<Long>> freeSets = new HashMap<>();
+    private final List<DescriptorPool>[] framePools;
+    private final int[] activeFramePool;
+    private long allocations;
+    private long recycled;
+    private long lastReportAllocations;
+    private long lastReportTime = System.nanoTime();
+
+    /**
+     * @param poolSizes   descriptors of each type in every pool
+     * @param setsPerPool the maximum sets of every pool
+     * @param frameCount  frames with their own transient pools
+     */
+    public DescriptorAllocator(LogicalDevice logicalDevice, List<DescriptorPool.DescriptorTypeCount> poolSizes, int setsPerPool, int frameCount) {
+        this.logicalDevice = logicalDevice;
+        this.poolSizes = List.copyOf(poolSizes);
+        this.setsPerPool = setsPerPool;
+        //noinspection unchecked
+        this.framePools = new List[frameCount];
+        for (var i = 0; i < frameCount; i++) framePools[i] = new ArrayList<>();
+        this.activeFramePool = new int[frameCount];
+    }
+
+    /**
+     * Allocates a long lived set. Give it back with {@link #free} once no frame in flight uses it.
+     */
+    public synchronized long allocate(DescriptorSetLayout layout) {
+        allocations++;
+        var recycledSets = freeSets.get(layout.vk());
+        if (recycledSets != null && !recycledSets.isEmpty()) {
+            recycled++;
+            return recycledSets.pop();
+        }
+
+        if (pools.isEmpty()) pools.add(createPool());
+        var set = tryAllocate(pools.get(pools.size() - 1), layout);
+        if (set != VK10.VK_NULL_HANDLE) return set;
+
+        var pool = createPool();
+        pools.add(pool);
+        return allocateOrThrow(pool, layout);
+    }
+
+    /**
+     * Keeps the set for the next {@link #allocate} of the same layout.
+     */
+    public synchronized void free(DescriptorSetLayout layout, long descriptorSet) {
+        freeSets.computeIfAbsent(layout.vk(), key -> new ArrayDeque<>()).push(descriptorSet);
+    }
+
+    /**
+     * Allocates a set that is only valid until the next {@link #resetFrame} of the same frame.
+     */
+    public synchronized long allocateTransient(int frameIdx, DescriptorSetLayout layout) {
+        allocations++;
+        var frame = framePools[frameIdx];
+        while (activeFramePool[frameIdx] < frame.size()) {
+            var set = tryAllocate(frame.get(activeFramePool[frameIdx]), layout);
+            if (set != VK10.VK_NULL_HANDLE) return set;
+            activeFramePool[frameIdx]++;
+        }
+
+        var pool = createPool();
+        frame.add(pool);
+        return allocateOrThrow(pool, layout);
+    }
+
+    /**
+     * Frees every transient set of the frame. The frame's fence must have signalled.
+     */
+    public synchronized void resetFrame(int frameIdx) {
+        framePools[frameIdx].forEach(DescriptorPool::reset);
+        activeFramePool[frameIdx] = 0;
+    }
+
+    public synchronized Stats stats() {
+        var now = System.nanoTime();
+        var elapsedSeconds = (now - lastReportTime) / 1_000_000_000.0;
+        var rate = elapsedSeconds > 0 ? (allocations - lastReportAllocations) / elapsedSeconds : 0;
+        lastReportTime = now;
+        lastReportAllocations = allocations;
+
+        var poolCount = pools.size();
+        for (var frame : framePools) poolCount += frame.size();
+        return new Stats(poolCount, allocations, recycled, rate);
+    }
+
+    private DescriptorPool createPool() {
+        return new DescriptorPool(logicalDevice, poolSizes, setsPerPool, 0);
+    }
+
+    /**
+     * @return the new set, or {@code VK_NULL_HANDLE} when the pool is full
+     */
+    private static long tryAllocate(DescriptorPool pool, DescriptorSetLayout layout) {
+        try (var stack = MemoryStack.stackPush()) {
+            var pDescriptorSet = stack.mallocLong(1);
+            var result = pool.tryAllocate(layout.vk(), pDescriptorSet);
+            if (result == VK10.VK_SUCCESS) return pDescriptorSet.get(0);
+            if (result == VK11.VK_ERROR_OUT_OF_POOL_MEMORY || result == VK10.VK_ERROR_FRAGMENTED_POOL) return VK10.VK_NULL_HANDLE;
+            throw new RuntimeException("Failed to allocate descriptor set. Error Code " + translateVulkanResult(result));
+        }
+    }
+
+    private static long allocateOrThrow(DescriptorPool pool, DescriptorSetLayout layout) {
+        var set = tryAllocate(pool, layout);
+        if (set == VK10.VK_NULL_HANDLE) throw new RuntimeException("Layout does not fit in an empty descriptor pool");
+        return set;
+    }
+
+    @Override
+    public synchronized void close() {
+        pools.forEach(DescriptorPool::close);
+        for (var frame : framePools) frame.forEach(DescriptorPool::close);
+    }
+
+    /**
+     * @param allocationRate allocations per second since the previous {@link #stats()} call
+     */
+    public record Stats(
+            int poolCount,
+            long allocations,
+            long recycled,
+            double allocationRate
+    ) {}
+}
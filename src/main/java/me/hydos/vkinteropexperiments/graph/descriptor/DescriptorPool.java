@@ -6,8 +6,10 @@ import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkDescriptorPoolCreateInfo;
 import org.lwjgl.vulkan.VkDescriptorPoolSize;
+import org.lwjgl.vulkan.VkDescriptorSetAllocateInfo;
 
 import java.io.Closeable;
+import java.nio.LongBuffer;
 import java.util.List;
 
 import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
@@ -18,14 +20,23 @@ public class DescriptorPool implements Closeable, VkObjectHolder<Long> {
     private final long pool;
 
     public DescriptorPool(LogicalDevice logicalDevice, List<DescriptorTypeCount> descriptorTypeCounts) {
+        this(logicalDevice, descriptorTypeCounts, 0);
+    }
+
+    /**
+     * @param flags extra creation flags, {@code VK_DESCRIPTOR_POOL_CREATE_FREE_DESCRIPTOR_SET_BIT} is always set
+     */
+    public DescriptorPool(LogicalDevice logicalDevice, List<DescriptorTypeCount> descriptorTypeCounts, int flags) {
+        this(logicalDevice, descriptorTypeCounts, descriptorTypeCounts.stream().mapToInt(DescriptorTypeCount::count).sum(), flags);
+    }
+
+    public DescriptorPool(LogicalDevice logicalDevice, List<DescriptorTypeCount> descriptorTypeCounts, int maxSets, int flags) {
         this.logicalDevice = logicalDevice;
         try (var stack = MemoryStack.stackPush()) {
-            var maxSets = 0;
             var numTypes = descriptorTypeCounts.size();
             var typeCounts = VkDescriptorPoolSize.calloc(numTypes, stack);
 
             for (var i = 0; i < numTypes; i++) {
-                maxSets += descriptorTypeCounts.get(i).count();
                 typeCounts.get(i)
                         .type(descriptorTypeCounts.get(i).descriptorType())
                         .descriptorCount(descriptorTypeCounts.get(i).count());
@@ -33,7 +44,7 @@ public class DescriptorPool implements Closeable, VkObjectHolder<Long> {
 
             var descriptorPoolInfo = VkDescriptorPoolCreateInfo.calloc(stack)
                     .sType$Default()
-                    .flags(VK10.VK_DESCRIPTOR_POOL_CREATE_FREE_DESCRIPTOR_SET_BIT)
+                    .flags(VK10.VK_DESCRIPTOR_POOL_CREATE_FREE_DESCRIPTOR_SET_BIT | flags)
                     .pPoolSizes(typeCounts)
                     .maxSets(maxSets);
 
@@ -43,6 +54,28 @@ public class DescriptorPool implements Closeable, VkObjectHolder<Long> {
         }
     }
 
+    /**
+     * Allocates a set without throwing so callers can react to the pool running out.
+     *
+     * @return the VkResult of the allocation
+     */
+    public int tryAllocate(long descriptorSetLayout, LongBuffer pDescriptorSet) {
+        try (var stack = MemoryStack.stackPush()) {
+            var allocInfo = VkDescriptorSetAllocateInfo.calloc(stack)
+                    .sType$Default()
+                    .descriptorPool(pool)
+                    .pSetLayouts(stack.longs(descriptorSetLayout));
+            return VK10.vkAllocateDescriptorSets(logicalDevice.vk(), allocInfo, pDescriptorSet);
+        }
+    }
+
+    /**
+     * Returns every set allocated from this pool back to it.
+     */
+    public void reset() {
+        ok(VK10.vkResetDescriptorPool(logicalDevice.vk(), pool, 0), "Failed to reset descriptor pool");
+    }
+
     public void freeDescriptorSet(long descriptorSet) {
         try (var stack = MemoryStack.stackPush()) {
             var pDescSets = stack.mallocLong(1);
@@ -5,10 +5,9 @@ import me.hydos.vkinteropexperiments.memory.VkBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkDescriptorBufferInfo;
-import org.lwjgl.vulkan.VkDescriptorSetAllocateInfo;
 import org.lwjgl.vulkan.VkWriteDescriptorSet;
 
-import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
+import java.util.List;
 
 public class DescriptorSet implements VkObjectHolder<Long> {
 
@@ -20,20 +19,10 @@ public class DescriptorSet implements VkObjectHolder<Long> {
     }
 
     public static class SimpleDescriptorSet extends DescriptorSet {
-        public SimpleDescriptorSet(DescriptorPool descriptorPool, DescriptorSetLayout descriptorSetLayout, VkBuffer buffer, int binding, int type, long size) {
+        public SimpleDescriptorSet(DescriptorAllocator descriptorAllocator, DescriptorSetLayout descriptorSetLayout, VkBuffer buffer, int binding, int type, long size) {
             try (var stack = MemoryStack.stackPush()) {
-                var logicalDevice = descriptorPool.logicalDevice.vk();
-                var pDescriptorSetLayout = stack.mallocLong(1);
-                pDescriptorSetLayout.put(0, descriptorSetLayout.vk());
-                var allocInfo = VkDescriptorSetAllocateInfo.calloc(stack)
-                        .sType$Default()
-                        .descriptorPool(descriptorPool.vk())
-                        .pSetLayouts(pDescriptorSetLayout);
-
-                var pDescriptorSet = stack.mallocLong(1);
-                ok(VK10.vkAllocateDescriptorSets(logicalDevice, allocInfo, pDescriptorSet), "Failed to create descriptor set");
-
-                this.descriptorSet = pDescriptorSet.get(0);
+                var logicalDevice = descriptorAllocator.logicalDevice.vk();
+                this.descriptorSet = descriptorAllocator.allocate(descriptorSetLayout);
 
                 var bufferInfo = VkDescriptorBufferInfo.calloc(1, stack)
                         .buffer(buffer.buffer)
@@ -56,8 +45,55 @@ public class DescriptorSet implements VkObjectHolder<Long> {
     }
 
     public static class UniformDescriptorSet extends SimpleDescriptorSet {
-        public UniformDescriptorSet(DescriptorPool descriptorPool, DescriptorSetLayout descriptorSetLayout, VkBuffer buffer, int binding) {
-            super(descriptorPool, descriptorSetLayout, buffer, binding, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, buffer.requestedSize);
+        public UniformDescriptorSet(DescriptorAllocator descriptorAllocator, DescriptorSetLayout descriptorSetLayout, VkBuffer buffer, int binding) {
+            super(descriptorAllocator, descriptorSetLayout, buffer, binding, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, buffer.requestedSize);
+        }
+    }
+
+    /**
+     * Points at a window of {@code range} bytes. The start of the window is given as a dynamic offset when binding.
+     */
+    public static class DynamicUniformDescriptorSet extends SimpleDescriptorSet {
+        public DynamicUniformDescriptorSet(DescriptorAllocator descriptorAllocator, DescriptorSetLayout descriptorSetLayout, VkBuffer buffer, int binding, long range) {
+            super(descriptorAllocator, descriptorSetLayout, buffer, binding, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC, range);
         }
     }
+
+    /**
+     * One range per binding of a {@link DescriptorSetLayout.StorageBufferDescriptorSetLayout}. The set is transient,
+     * so it only lives until the frame is recorded again.
+     */
+    public static class StorageBufferDescriptorSet extends DescriptorSet {
+        public StorageBufferDescriptorSet(DescriptorAllocator descriptorAllocator, int frameIdx, DescriptorSetLayout.StorageBufferDescriptorSetLayout descriptorSetLayout, List<BufferRange> ranges) {
+            if (ranges.size() != descriptorSetLayout.bindingCount) throw new RuntimeException("Expected " + descriptorSetLayout.bindingCount + " buffer ranges, got " + ranges.size());
+            try (var stack = MemoryStack.stackPush()) {
+                this.descriptorSet = descriptorAllocator.allocateTransient(frameIdx, descriptorSetLayout);
+
+                var writes = VkWriteDescriptorSet.calloc(ranges.size(), stack);
+                for (var i = 0; i < ranges.size(); i++) {
+                    var range = ranges.get(i);
+                    var bufferInfo = VkDescriptorBufferInfo.calloc(1, stack)
+                            .buffer(range.buffer())
+                            .offset(range.offset())
+                            .range(range.size());
+
+                    writes.get(i)
+                            .sType$Default()
+                            .dstSet(descriptorSet)
+                            .dstBinding(i)
+                            .descriptorType(VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER)
+                            .descriptorCount(1)
+                            .pBufferInfo(bufferInfo);
+                }
+
+                VK10.vkUpdateDescriptorSets(descriptorAllocator.logicalDevice.vk(), writes, null);
+            }
+        }
+    }
+
+    public record BufferRange(
+            long buffer,
+            long offset,
+            long size
+    ) {}
 }
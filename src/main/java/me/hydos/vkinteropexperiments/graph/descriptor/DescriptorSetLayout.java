@@ -4,6 +4,8 @@ import me.hydos.vkinteropexperiments.graph.VkObjectHolder;
 import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK12;
+import org.lwjgl.vulkan.VkDescriptorSetLayoutBindingFlagsCreateInfo;
 import org.lwjgl.vulkan.VkDescriptorSetLayoutBinding;
 import org.lwjgl.vulkan.VkDescriptorSetLayoutCreateInfo;
 
@@ -58,9 +60,80 @@ public abstract class DescriptorSetLayout implements Closeable, VkObjectHolder<L
         }
     }
 
+    /**
+     * A sampler array of {@code count} slots that may be left empty and written while bound in pending command
+     * buffers that don't read them. Sets must come from a pool created with {@code VK_DESCRIPTOR_POOL_CREATE_UPDATE_AFTER_BIND_BIT}.
+     */
+    public static class BindlessSamplerDescriptorSetLayout extends DescriptorSetLayout {
+        public final int binding;
+
+        public BindlessSamplerDescriptorSetLayout(LogicalDevice device, int binding, int count, int stage) {
+            super(device);
+            this.binding = binding;
+            try (var stack = MemoryStack.stackPush()) {
+                var layoutBindings = VkDescriptorSetLayoutBinding.calloc(1, stack);
+                layoutBindings.get(0)
+                        .binding(binding)
+                        .descriptorType(VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                        .descriptorCount(count)
+                        .stageFlags(stage);
+
+                var bindingFlags = VkDescriptorSetLayoutBindingFlagsCreateInfo.calloc(stack)
+                        .sType$Default()
+                        .pBindingFlags(stack.ints(VK12.VK_DESCRIPTOR_BINDING_PARTIALLY_BOUND_BIT | VK12.VK_DESCRIPTOR_BINDING_UPDATE_AFTER_BIND_BIT | VK12.VK_DESCRIPTOR_BINDING_UPDATE_UNUSED_WHILE_PENDING_BIT));
+
+                var layoutInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack)
+                        .sType$Default()
+                        .pNext(bindingFlags)
+                        .flags(VK12.VK_DESCRIPTOR_SET_LAYOUT_CREATE_UPDATE_AFTER_BIND_POOL_BIT)
+                        .pBindings(layoutBindings);
+
+                var pSetLayout = stack.mallocLong(1);
+                ok(VK10.vkCreateDescriptorSetLayout(device.vk(), layoutInfo, null, pSetLayout), "Failed to create bindless descriptor set layout");
+                this.layout = pSetLayout.get(0);
+            }
+        }
+    }
+
+    /**
+     * Storage buffers at bindings 0 to {@code bindingCount - 1}.
+     */
+    public static class StorageBufferDescriptorSetLayout extends DescriptorSetLayout {
+        public final int bindingCount;
+
+        public StorageBufferDescriptorSetLayout(LogicalDevice device, int bindingCount, int stage) {
+            super(device);
+            this.bindingCount = bindingCount;
+            try (var stack = MemoryStack.stackPush()) {
+                var layoutBindings = VkDescriptorSetLayoutBinding.calloc(bindingCount, stack);
+                for (var i = 0; i < bindingCount; i++) {
+                    layoutBindings.get(i)
+                            .binding(i)
+                            .descriptorType(VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER)
+                            .descriptorCount(1)
+                            .stageFlags(stage);
+                }
+
+                var layoutInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack)
+                        .sType$Default()
+                        .pBindings(layoutBindings);
+
+                var pSetLayout = stack.mallocLong(1);
+                ok(VK10.vkCreateDescriptorSetLayout(device.vk(), layoutInfo, null, pSetLayout), "Failed to create storage buffer descriptor set layout");
+                this.layout = pSetLayout.get(0);
+            }
+        }
+    }
+
     public static class UniformDescriptorSetLayout extends SimpleDescriptorSetLayout {
         public UniformDescriptorSetLayout(LogicalDevice device, int binding, int stage) {
             super(device, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, binding, stage);
         }
     }
+
+    public static class DynamicUniformDescriptorSetLayout extends SimpleDescriptorSetLayout {
+        public DynamicUniformDescriptorSetLayout(LogicalDevice device, int binding, int stage) {
+            super(device, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC, binding, stage);
+        }
+    }
 }
\ No newline at end of file
@@ -1,29 +1,24 @@
 package me.hydos.vkinteropexperiments.graph.image;
 
 import me.hydos.vkinteropexperiments.graph.VkObjectHolder;
-import me.hydos.vkinteropexperiments.graph.VkUtils;
-import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import me.hydos.vkinteropexperiments.memory.Allocator;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkImageCreateInfo;
-import org.lwjgl.vulkan.VkMemoryAllocateInfo;
-import org.lwjgl.vulkan.VkMemoryRequirements;
 
 import java.io.Closeable;
 
-import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
-
 public class Image implements Closeable, VkObjectHolder<Long> {
 
-    private final LogicalDevice logicalDevice;
+    private final Allocator allocator;
     public final int format;
     public final int mipLevels;
     private final long image;
-    public final long memory;
+    public final long allocation;
 
-    private Image(LogicalDevice logicalDevice, Builder builder) {
+    private Image(Allocator allocator, Builder builder) {
         try (var stack = MemoryStack.stackPush()) {
-            this.logicalDevice = logicalDevice;
+            this.allocator = allocator;
             this.format = builder.format;
             this.mipLevels = builder.mipLevels;
 
@@ -44,29 +39,15 @@ public class Image implements Closeable, VkObjectHolder<Long> {
                     .tiling(VK10.VK_IMAGE_TILING_OPTIMAL)
                     .usage(builder.usage);
 
-            var pp = stack.mallocLong(1);
-            ok(VK10.vkCreateImage(logicalDevice.vk(), imageCreateInfo, null, pp), "Failed to create image");
-            this.image = pp.get(0);
-
-            var memReqs = VkMemoryRequirements.calloc(stack);
-            VK10.vkGetImageMemoryRequirements(logicalDevice.vk(), image, memReqs);
-
-            var memAlloc = VkMemoryAllocateInfo.calloc(stack)
-                    .sType$Default()
-                    .allocationSize(memReqs.size())
-                    .memoryTypeIndex(VkUtils.memoryTypeFromProperties(logicalDevice.physicalDevice, memReqs.memoryTypeBits(), 0));
-
-            ok(VK10.vkAllocateMemory(logicalDevice.vk(), memAlloc, null, pp), "Failed to allocate memory");
-            this.memory = pp.get(0);
-
-            ok(VK10.vkBindImageMemory(logicalDevice.vk(), image, memory, 0), "Failed to bind image memory");
+            var allocation = allocator.createImage(imageCreateInfo, Allocator.MemoryUsage.GPU_ONLY);
+            this.image = allocation.handle();
+            this.allocation = allocation.allocation();
         }
     }
 
     @Override
     public void close() {
-        VK10.vkDestroyImage(logicalDevice.vk(), image, null);
-        VK10.vkFreeMemory(logicalDevice.vk(), memory, null);
+        allocator.destroyImage(image, allocation);
     }
 
     @Override
@@ -125,8 +106,8 @@ public class Image implements Closeable, VkObjectHolder<Long> {
             return this;
         }
 
-        public Image build(LogicalDevice logicalDevice) {
-            return new Image(logicalDevice, this);
+        public Image build(Allocator allocator) {
+            return new Image(allocator, this);
         }
     }
 }
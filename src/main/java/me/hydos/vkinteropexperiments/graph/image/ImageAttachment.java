@@ -1,7 +1,7 @@
 package me.hydos.vkinteropexperiments.graph.image;
 
 import me.hydos.vkinteropexperiments.graph.VkObjectHolder;
-import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import me.hydos.vkinteropexperiments.memory.Allocator;
 import org.lwjgl.vulkan.VK10;
 
 import java.io.Closeable;
@@ -12,11 +12,11 @@ public class ImageAttachment implements Closeable, VkObjectHolder<Image> {
     public final ImageView view;
     public boolean depthAttachment;
 
-    public ImageAttachment(LogicalDevice logicalDevice, int width, int height, int format, int usage) {
+    public ImageAttachment(Allocator allocator, int width, int height, int format, int usage) {
         this.image = new Image.Builder().width(width).height(height)
                 .usage(usage | VK10.VK_IMAGE_USAGE_SAMPLED_BIT)
                 .format(format)
-                .build(logicalDevice);
+                .build(allocator);
 
         var aspectMask = 0;
         if ((usage & VK10.VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT) > 0) {
@@ -28,7 +28,7 @@ public class ImageAttachment implements Closeable, VkObjectHolder<Image> {
             this.depthAttachment = true;
         }
 
-        this.view = new ImageView(logicalDevice, image.vk(), new ImageViewData.Builder()
+        this.view = new ImageView(allocator.logicalDevice, image.vk(), new ImageViewData.Builder()
                 .format(image.format)
                 .aspectMask(aspectMask)
                 .build()
@@ -0,0 +1,223 @@
+package me.hydos.vkinteropexperiments.graph.image.texture;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Encodes RGBA8 levels into BC1 (opaque) or BC3 (with alpha) blocks. Colour endpoints are fitted along the principal
+ * axis of each block's colours, which is far cheaper than an exhaustive search and close enough for model albedo.
+ */
+public final class BlockCompressor {
+    public static final int BLOCK_SIZE = 4;
+    private static final int TEXELS = BLOCK_SIZE * BLOCK_SIZE;
+    private static final int POWER_ITERATIONS = 4;
+
+    private BlockCompressor() {}
+
+    public static int bytesPerBlock(boolean alpha) {
+        return alpha ? 16 : 8;
+    }
+
+    public static int levelBytes(int width, int height, boolean alpha) {
+        return blocks(width) * blocks(height) * bytesPerBlock(alpha);
+    }
+
+    /**
+     * Encodes one level, spreading rows of blocks over the common pool.
+     *
+     * @param alpha write BC3 blocks instead of BC1
+     */
+    public static void encode(ByteBuffer rgba, int width, int height, boolean alpha, long dst) {
+        var blocksX = blocks(width);
+        var blockBytes = bytesPerBlock(alpha);
+        var rgbaAddress = MemoryUtil.memAddress(rgba);
+        IntStream.range(0, blocks(height)).parallel().forEach(blockY -> {
+            var texels = new int[TEXELS];
+            for (var blockX = 0; blockX < blocksX; blockX++) {
+                gatherBlock(rgbaAddress, width, height, blockX, blockY, texels);
+                var out = dst + ((long) blockY * blocksX + blockX) * blockBytes;
+                if (alpha) {
+                    encodeAlpha(texels, out);
+                    encodeColour(texels, out + 8, false);
+                } else encodeColour(texels, out, true);
+            }
+        });
+    }
+
+    /**
+     * @return whether any texel is not fully opaque
+     */
+    public static boolean hasAlpha(ByteBuffer rgba, int width, int height) {
+        var address = MemoryUtil.memAddress(rgba);
+        for (long i = 0, count = (long) width * height; i < count; i++) {
+            if (MemoryUtil.memGetByte(address + i * PixelConverter.BYTES_PER_TEXEL + 3) != (byte) 0xFF) return true;
+        }
+        return false;
+    }
+
+    private static int blocks(int size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * Reads a 4x4 block as 0xAABBGGRR ints. Blocks hanging over the edge repeat the last row or column.
+     */
+    private static void gatherBlock(long rgba, int width, int height, int blockX, int blockY, int[] texels) {
+        for (var y = 0; y < BLOCK_SIZE; y++) {
+            var srcY = Math.min(blockY * BLOCK_SIZE + y, height - 1);
+            for (var x = 0; x < BLOCK_SIZE; x++) {
+                var srcX = Math.min(blockX * BLOCK_SIZE + x, width - 1);
+                var offset = ((long) srcY * width + srcX) * PixelConverter.BYTES_PER_TEXEL;
+                texels[y * BLOCK_SIZE + x] = (MemoryUtil.memGetByte(rgba + offset) & 0xFF)
+                        | (MemoryUtil.memGetByte(rgba + offset + 1) & 0xFF) << 8
+                        | (MemoryUtil.memGetByte(rgba + offset + 2) & 0xFF) << 16
+                        | (MemoryUtil.memGetByte(rgba + offset + 3) & 0xFF) << 24;
+            }
+        }
+    }
+
+    /**
+     * Writes an 8 byte BC1 colour block. BC3 colour blocks always decode in four colour mode, so {@code bc1} decides
+     * whether the endpoints must be ordered to select it.
+     */
+    private static void encodeColour(int[] texels, long out, boolean bc1) {
+        // Mean and covariance of the block's colours
+        float meanR = 0, meanG = 0, meanB = 0;
+        for (var texel : texels) {
+            meanR += texel & 0xFF;
+            meanG += (texel >> 8) & 0xFF;
+            meanB += (texel >> 16) & 0xFF;
+        }
+        meanR /= TEXELS;
+        meanG /= TEXELS;
+        meanB /= TEXELS;
+
+        float rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+        for (var texel : texels) {
+            var r = (texel & 0xFF) - meanR;
+            var g = ((texel >> 8) & 0xFF) - meanG;
+            var b = ((texel >> 16) & 0xFF) - meanB;
+            rr += r * r;
+            rg += r * g;
+            rb += r * b;
+            gg += g * g;
+            gb += g * b;
+            bb += b * b;
+        }
+
+        // Power iteration for the principal axis, starting from the luminance direction
+        float axisR = 0.299f, axisG = 0.587f, axisB = 0.114f;
+        for (var i = 0; i < POWER_ITERATIONS; i++) {
+            var r = rr * axisR + rg * axisG + rb * axisB;
+            var g = rg * axisR + gg * axisG + gb * axisB;
+            var b = rb * axisR + gb * axisG + bb * axisB;
+            var length = (float) Math.sqrt(r * r + g * g + b * b);
+            if (length < 1e-6f) break;
+            axisR = r / length;
+            axisG = g / length;
+            axisB = b / length;
+        }
+
+        var minProjection = Float.MAX_VALUE;
+        var maxProjection = -Float.MAX_VALUE;
+        for (var texel : texels) {
+            var projection = ((texel & 0xFF) - meanR) * axisR + (((texel >> 8) & 0xFF) - meanG) * axisG + (((texel >> 16) & 0xFF) - meanB) * axisB;
+            minProjection = Math.min(minProjection, projection);
+            maxProjection = Math.max(maxProjection, projection);
+        }
+
+        var colour0 = to565(meanR + axisR * maxProjection, meanG + axisG * maxProjection, meanB + axisB * maxProjection);
+        var colour1 = to565(meanR + axisR * minProjection, meanG + axisG * minProjection, meanB + axisB * minProjection);
+        if (bc1 && colour0 < colour1) {
+            var swap = colour0;
+            colour0 = colour1;
+            colour1 = swap;
+        }
+
+        var indices = 0;
+        if (colour0 != colour1) {
+            var palette = new int[4];
+            palette[0] = from565(colour0);
+            palette[1] = from565(colour1);
+            palette[2] = lerp(palette[0], palette[1], 1, 3);
+            palette[3] = lerp(palette[0], palette[1], 2, 3);
+            for (var i = 0; i < TEXELS; i++) indices |= nearest(palette, texels[i]) << (i * 2);
+        }
+
+        MemoryUtil.memPutShort(out, (short) colour0);
+        MemoryUtil.memPutShort(out + 2, (short) colour1);
+        MemoryUtil.memPutInt(out + 4, indices);
+    }
+
+    /**
+     * Writes an 8 byte BC3 alpha block using the eight value mode between the block's alpha extremes.
+     */
+    private static void encodeAlpha(int[] texels, long out) {
+        var min = 0xFF;
+        var max = 0;
+        for (var texel : texels) {
+            var alpha = texel >>> 24;
+            min = Math.min(min, alpha);
+            max = Math.max(max, alpha);
+        }
+
+        var indices = 0L;
+        if (max != min) {
+            for (var i = 0; i < TEXELS; i++) {
+                // Position between max (0) and min (7), then remapped to the block's code order
+                var step = Math.round((max - (texels[i] >>> 24)) * 7f / (max - min));
+                var code = step == 0 ? 0 : step == 7 ? 1 : step + 1;
+                indices |= (long) code << (i * 3);
+            }
+        }
+
+        MemoryUtil.memPutByte(out, (byte) max);
+        MemoryUtil.memPutByte(out + 1, (byte) min);
+        for (var i = 0; i < 6; i++) MemoryUtil.memPutByte(out + 2 + i, (byte) (indices >>> (i * 8)));
+    }
+
+    private static int nearest(int[] palette, int texel) {
+        var best = 0;
+        var bestDistance = Integer.MAX_VALUE;
+        for (var i = 0; i < palette.length; i++) {
+            var r = (texel & 0xFF) - (palette[i] & 0xFF);
+            var g = ((texel >> 8) & 0xFF) - ((palette[i] >> 8) & 0xFF);
+            var b = ((texel >> 16) & 0xFF) - ((palette[i] >> 16) & 0xFF);
+            var distance = r * r + g * g + b * b;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int to565(float r, float g, float b) {
+        var r5 = Math.round(Math.max(0, Math.min(255, r)) * 31 / 255f);
+        var g6 = Math.round(Math.max(0, Math.min(255, g)) * 63 / 255f);
+        var b5 = Math.round(Math.max(0, Math.min(255, b)) * 31 / 255f);
+        return (r5 << 11) | (g6 << 5) | b5;
+    }
+
+    /**
+     * @return the colour as 0x00BBGGRR, expanded the way decoders do
+     */
+    private static int from565(int colour) {
+        var r = (colour >> 11) & 0x1F;
+        var g = (colour >> 5) & 0x3F;
+        var b = colour & 0x1F;
+        return ((r << 3) | (r >> 2)) | ((g << 2) | (g >> 4)) << 8 | ((b << 3) | (b >> 2)) << 16;
+    }
+
+    private static int lerp(int from, int to, int numerator, int denominator) {
+        var result = 0;
+        for (var shift = 0; shift < 24; shift += 8) {
+            var a = (from >> shift) & 0xFF;
+            var b = (to >> shift) & 0xFF;
+            result |= ((a * (denominator - numerator) + b * numerator) / denominator) << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+package me.hydos.vkinteropexperiments.graph.image.texture;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Builds RGBA8 mip levels on the CPU with a 2x2 box filter. sRGB colour channels are averaged in linear space so
+ * smaller levels keep their brightness, alpha is always averaged as is. Large levels are split into rows filtered in
+ * parallel.
+ */
+public final class MipGenerator {
+    private static final int BYTES_PER_TEXEL = PixelConverter.BYTES_PER_TEXEL;
+    // Destination levels with at least this many texels are filtered on the common pool
+    private static final int PARALLEL_THRESHOLD = 256 * 256;
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+    private static final int LINEAR_LUT_SIZE = 1 << 12;
+    private static final byte[] LINEAR_TO_SRGB = new byte[LINEAR_LUT_SIZE + 1];
+
+    static {
+        for (var i = 0; i < SRGB_TO_LINEAR.length; i++) {
+            var srgb = i / 255.0;
+            SRGB_TO_LINEAR[i] = (float) (srgb <= 0.04045 ? srgb / 12.92 : Math.pow((srgb + 0.055) / 1.055, 2.4));
+        }
+        for (var i = 0; i <= LINEAR_LUT_SIZE; i++) {
+            var linear = (double) i / LINEAR_LUT_SIZE;
+            var srgb = linear <= 0.0031308 ? linear * 12.92 : 1.055 * Math.pow(linear, 1 / 2.4) - 0.055;
+            LINEAR_TO_SRGB[i] = (byte) Math.round(srgb * 255);
+        }
+    }
+
+    private MipGenerator() {}
+
+    /**
+     * @return the byte offset of every level plus the chain's end
+     */
+    public static int[] levelOffsets(int width, int height, int levelCount) {
+        var offsets = new int[levelCount + 1];
+        for (var i = 0; i < levelCount; i++) offsets[i + 1] = offsets[i] + Math.max(1, width >> i) * Math.max(1, height >> i) * BYTES_PER_TEXEL;
+        return offsets;
+    }
+
+    /**
+     * Grows {@code rgba}, a {@code width} by {@code height} level 0, into the whole chain laid out at
+     * {@code levelOffsets}. {@code rgba} belongs to the chain afterwards and must not be used or freed.
+     */
+    public static ByteBuffer buildChain(ByteBuffer rgba, int width, int height, int[] levelOffsets, boolean srgb) {
+        var chain = MemoryUtil.memRealloc(rgba, levelOffsets[levelOffsets.length - 1]);
+        var address = MemoryUtil.memAddress(chain);
+        for (var i = 1; i < levelOffsets.length - 1; i++) {
+            halve(address + levelOffsets[i - 1], Math.max(1, width >> (i - 1)), Math.max(1, height >> (i - 1)), address + levelOffsets[i], srgb);
+        }
+        return chain.clear();
+    }
+
+    /**
+     * @return a new buffer holding the next smaller level of {@code src}
+     */
+    public static ByteBuffer halve(ByteBuffer src, int srcWidth, int srcHeight, boolean srgb) {
+        var dst = MemoryUtil.memAlloc(Math.max(1, srcWidth >> 1) * Math.max(1, srcHeight >> 1) * BYTES_PER_TEXEL);
+        halve(MemoryUtil.memAddress(src), srcWidth, srcHeight, MemoryUtil.memAddress(dst), srgb);
+        return dst;
+    }
+
+    /**
+     * Averages every 2x2 block of texels. Odd edges reuse their last row or column.
+     */
+    private static void halve(long src, int srcWidth, int srcHeight, long dst, boolean srgb) {
+        var dstWidth = Math.max(1, srcWidth >> 1);
+        var dstHeight = Math.max(1, srcHeight >> 1);
+        var rows = IntStream.range(0, dstHeight);
+        if (dstWidth * dstHeight >= PARALLEL_THRESHOLD) rows = rows.parallel();
+        rows.forEach(y -> {
+            var row0 = src + (long) Math.min(y * 2, srcHeight - 1) * srcWidth * BYTES_PER_TEXEL;
+            var row1 = src + (long) Math.min(y * 2 + 1, srcHeight - 1) * srcWidth * BYTES_PER_TEXEL;
+            var out = dst + (long) y * dstWidth * BYTES_PER_TEXEL;
+            for (var x = 0; x < dstWidth; x++) {
+                var col0 = (long) Math.min(x * 2, srcWidth - 1) * BYTES_PER_TEXEL;
+                var col1 = (long) Math.min(x * 2 + 1, srcWidth - 1) * BYTES_PER_TEXEL;
+                for (var channel = 0; channel < BYTES_PER_TEXEL; channel++) {
+                    var a = MemoryUtil.memGetByte(row0 + col0 + channel) & 0xFF;
+                    var b = MemoryUtil.memGetByte(row0 + col1 + channel) & 0xFF;
+                    var c = MemoryUtil.memGetByte(row1 + col0 + channel) & 0xFF;
+                    var d = MemoryUtil.memGetByte(row1 + col1 + channel) & 0xFF;
+                    var value = srgb && channel < 3 ? averageSrgb(a, b, c, d) : (a + b + c + d + 2) >> 2;
+                    MemoryUtil.memPutByte(out + (long) x * BYTES_PER_TEXEL + channel, (byte) value);
+                }
+            }
+        });
+    }
+
+    private static int averageSrgb(int a, int b, int c, int d) {
+        var linear = (SRGB_TO_LINEAR[a] + SRGB_TO_LINEAR[b] + SRGB_TO_LINEAR[c] + SRGB_TO_LINEAR[d]) * 0.25f;
+        return LINEAR_TO_SRGB[(int) (linear * LINEAR_LUT_SIZE + 0.5f)] & 0xFF;
+    }
+}
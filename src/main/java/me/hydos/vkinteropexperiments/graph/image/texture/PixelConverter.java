@@ -0,0 +1,212 @@
+package me.hydos.vkinteropexperiments.graph.image.texture;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.ByteOrder;
+import java.util.stream.IntStream;
+
+/**
+ * Converts {@link BufferedImage}s to tightly packed RGBA8 straight into native memory, usually a mapped staging buffer.
+ * Int, byte and float rasters are read in place instead of through {@link BufferedImage#getData()} or
+ * {@link BufferedImage#getRGB}, and large images are split into row bands converted in parallel.
+ */
+public final class PixelConverter {
+    public static final int BYTES_PER_TEXEL = 4;
+    // Images with at least this many texels are converted on the common pool
+    private static final int PARALLEL_THRESHOLD = 512 * 512;
+    private static final int ROWS_PER_TASK = 64;
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    private static final int GAMMA_LUT_SIZE = 1 << 14;
+    // Linear [0, 1] to the gamma 2.2 encoded byte
+    private static final byte[] GAMMA_LUT = new byte[GAMMA_LUT_SIZE + 1];
+
+    static {
+        for (var i = 0; i <= GAMMA_LUT_SIZE; i++) GAMMA_LUT[i] = (byte) Math.round(Math.pow((double) i / GAMMA_LUT_SIZE, 1.0 / 2.2) * 255);
+    }
+
+    private PixelConverter() {}
+
+    public static long byteSize(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * BYTES_PER_TEXEL;
+    }
+
+    /**
+     * Writes the image as RGBA8 rows to {@code address}, which must hold {@link #byteSize} bytes.
+     */
+    public static void convert(BufferedImage image, long address) {
+        var width = image.getWidth();
+        var height = image.getHeight();
+        var rows = rowConverter(image);
+        if ((long) width * height < PARALLEL_THRESHOLD) {
+            rows.convert(0, height, address);
+            return;
+        }
+
+        var tasks = (height + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        IntStream.range(0, tasks).parallel().forEach(task -> {
+            var startRow = task * ROWS_PER_TASK;
+            var endRow = Math.min(startRow + ROWS_PER_TASK, height);
+            rows.convert(startRow, endRow, address + (long) startRow * width * BYTES_PER_TEXEL);
+        });
+    }
+
+    private static RowConverter rowConverter(BufferedImage image) {
+        var raster = image.getRaster();
+        var dataBuffer = raster.getDataBuffer();
+        var sampleModel = raster.getSampleModel();
+        var type = image.getType();
+
+        if (dataBuffer instanceof DataBufferInt ints && sampleModel instanceof SinglePixelPackedSampleModel packed
+                && (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)) {
+            return intRows(raster, ints.getData(), ints.getOffset(), packed, type == BufferedImage.TYPE_INT_ARGB);
+        }
+        if (dataBuffer instanceof DataBufferByte bytes && sampleModel instanceof ComponentSampleModel components && isSingleBank(components)
+                && !image.isAlphaPremultiplied() && (type == BufferedImage.TYPE_4BYTE_ABGR || type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_BYTE_GRAY)) {
+            return byteRows(raster, bytes.getData(), bytes.getOffset(), components);
+        }
+        if (dataBuffer instanceof DataBufferFloat floats && sampleModel instanceof ComponentSampleModel components && isSingleBank(components)
+                && !image.isAlphaPremultiplied()) {
+            return floatRows(raster, floats.getData(), floats.getOffset(), components);
+        }
+        return genericRows(image);
+    }
+
+    private static boolean isSingleBank(ComponentSampleModel sampleModel) {
+        for (var bank : sampleModel.getBankIndices()) if (bank != 0) return false;
+        return true;
+    }
+
+    /**
+     * Packed 0xAARRGGBB ints. Swapping red and blue gives the RGBA byte order as a little endian int.
+     */
+    private static RowConverter intRows(Raster raster, int[] data, int dataOffset, SinglePixelPackedSampleModel sampleModel, boolean hasAlpha) {
+        var width = raster.getWidth();
+        var translateX = raster.getSampleModelTranslateX();
+        var translateY = raster.getSampleModelTranslateY();
+        var alpha = hasAlpha ? 0 : 0xFF000000;
+        return (startRow, endRow, address) -> {
+            var row = new int[width];
+            var out = MemoryUtil.memIntBuffer(address, (endRow - startRow) * width);
+            for (var y = startRow; y < endRow; y++) {
+                var src = dataOffset + sampleModel.getOffset(-translateX, y - translateY);
+                for (var x = 0; x < width; x++) {
+                    var argb = data[src + x] | alpha;
+                    row[x] = toNative((argb & 0xFF00FF00) | ((argb >> 16) & 0xFF) | ((argb & 0xFF) << 16));
+                }
+                out.put(row);
+            }
+        };
+    }
+
+    /**
+     * Interleaved bytes with 1, 3 or 4 bands in R, G, B, A band order, as the standard byte image types use.
+     */
+    private static RowConverter byteRows(Raster raster, byte[] data, int dataOffset, ComponentSampleModel sampleModel) {
+        var width = raster.getWidth();
+        var translateX = raster.getSampleModelTranslateX();
+        var translateY = raster.getSampleModelTranslateY();
+        var pixelStride = sampleModel.getPixelStride();
+        var scanlineStride = sampleModel.getScanlineStride();
+        var bandOffsets = sampleModel.getBandOffsets();
+        var bands = bandOffsets.length;
+        var r = bandOffsets[0];
+        var g = bandOffsets[bands >= 3 ? 1 : 0];
+        var b = bandOffsets[bands >= 3 ? 2 : 0];
+        var a = bands == 4 ? bandOffsets[3] : -1;
+        return (startRow, endRow, address) -> {
+            var row = new int[width];
+            var out = MemoryUtil.memIntBuffer(address, (endRow - startRow) * width);
+            for (var y = startRow; y < endRow; y++) {
+                var src = dataOffset + (y - translateY) * scanlineStride - translateX * pixelStride;
+                for (var x = 0; x < width; x++, src += pixelStride) {
+                    var alpha = a < 0 ? 0xFF : data[src + a] & 0xFF;
+                    row[x] = toNative((alpha << 24) | ((data[src + b] & 0xFF) << 16) | ((data[src + g] & 0xFF) << 8) | (data[src + r] & 0xFF));
+                }
+                out.put(row);
+            }
+        };
+    }
+
+    /**
+     * Linear float bands, gamma encoded through a lookup table. Alpha stays linear.
+     */
+    private static RowConverter floatRows(Raster raster, float[] data, int dataOffset, ComponentSampleModel sampleModel) {
+        var width = raster.getWidth();
+        var translateX = raster.getSampleModelTranslateX();
+        var translateY = raster.getSampleModelTranslateY();
+        var pixelStride = sampleModel.getPixelStride();
+        var scanlineStride = sampleModel.getScanlineStride();
+        var bandOffsets = sampleModel.getBandOffsets();
+        var bands = bandOffsets.length;
+        var r = bandOffsets[0];
+        var g = bandOffsets[bands >= 3 ? 1 : 0];
+        var b = bandOffsets[bands >= 3 ? 2 : 0];
+        var a = bands == 4 || bands == 2 ? bandOffsets[bands - 1] : -1;
+        return (startRow, endRow, address) -> {
+            var row = new int[width];
+            var out = MemoryUtil.memIntBuffer(address, (endRow - startRow) * width);
+            for (var y = startRow; y < endRow; y++) {
+                var src = dataOffset + (y - translateY) * scanlineStride - translateX * pixelStride;
+                for (var x = 0; x < width; x++, src += pixelStride) {
+                    var alpha = a < 0 ? 0xFF : unorm(data[src + a]);
+                    row[x] = toNative((alpha << 24) | (gamma(data[src + b]) << 16) | (gamma(data[src + g]) << 8) | gamma(data[src + r]));
+                }
+                out.put(row);
+            }
+        };
+    }
+
+    /**
+     * Anything else goes through {@link BufferedImage#getRGB}, one row at a time.
+     */
+    private static RowConverter genericRows(BufferedImage image) {
+        var width = image.getWidth();
+        return (startRow, endRow, address) -> {
+            var row = new int[width];
+            var out = MemoryUtil.memIntBuffer(address, (endRow - startRow) * width);
+            for (var y = startRow; y < endRow; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                for (var x = 0; x < width; x++) {
+                    var argb = row[x];
+                    row[x] = toNative((argb & 0xFF00FF00) | ((argb >> 16) & 0xFF) | ((argb & 0xFF) << 16));
+                }
+                out.put(row);
+            }
+        };
+    }
+
+    /**
+     * @param rgba R in the low byte through A in the high byte
+     * @return the int whose native byte order is R, G, B, A
+     */
+    private static int toNative(int rgba) {
+        return LITTLE_ENDIAN ? rgba : Integer.reverseBytes(rgba);
+    }
+
+    private static int gamma(float linear) {
+        if (!(linear > 0)) return 0;
+        if (linear >= 1) return 0xFF;
+        return GAMMA_LUT[(int) (linear * GAMMA_LUT_SIZE + 0.5f)] & 0xFF;
+    }
+
+    private static int unorm(float value) {
+        if (!(value > 0)) return 0;
+        if (value >= 1) return 0xFF;
+        return (int) (value * 255 + 0.5f);
+    }
+
+    @FunctionalInterface
+    private interface RowConverter {
+        /**
+         * Converts rows {@code startRow} until {@code endRow}, writing the first one at {@code address}.
+         */
+        void convert(int startRow, int endRow, long address);
+    }
+}
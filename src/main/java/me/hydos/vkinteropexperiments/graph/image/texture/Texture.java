@@ -4,131 +4,313 @@ import me.hydos.vkinteropexperiments.graph.command.CommandBuffer;
 import me.hydos.vkinteropexperiments.graph.image.Image;
 import me.hydos.vkinteropexperiments.graph.image.ImageView;
 import me.hydos.vkinteropexperiments.graph.image.ImageViewData;
-import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import me.hydos.vkinteropexperiments.graph.upload.QueueOwnershipTransfer;
+import me.hydos.vkinteropexperiments.memory.Allocator;
 import me.hydos.vkinteropexperiments.memory.VkBuffer;
+import me.hydos.vkinteropexperiments.scene.ModelData;
 import net.minecraft.util.Mth;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferFloat;
-import java.awt.image.DataBufferInt;
 import java.io.Closeable;
 import java.nio.ByteBuffer;
 
+/**
+ * A sampled image made from decoded CPU pixels. The pixels are copied into staging memory on creation, so the decoded
+ * image is only kept when asked for debug readback. The GPU copy is a {@link Residency} holding a suffix of the full
+ * mip chain. Streamable textures start at a small level and keep their level 0 pixels so the {@link
+ * me.hydos.vkinteropexperiments.graph.upload.TextureStreamer} can swap in a residency with more or fewer levels.
+ * <p>
+ * Mip levels are normally built on the CPU by the {@link MipGenerator}, or block compressed by a
+ * {@link TextureCompressor}, and the whole chain is uploaded with one copy. Otherwise the smaller levels are blitted on
+ * the graphics queue.
+ */
 public class Texture implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Texture.class);
+    // Streamable textures start at the first level no larger than this
+    public static final int STREAM_START_SIZE = 128;
+    private static final int BYTES_PER_TEXEL = PixelConverter.BYTES_PER_TEXEL;
 
-    public final Image image;
-    public final ImageView view;
     public final int width;
     public final int height;
     public final int mipLevels;
+    public final int format;
+    // Identifies the pixels, see ModelData.TextureData#id
+    public final String key;
+    // Null unless kept for debug readback and the texture came from a decoded image
     public final BufferedImage cpuTexture;
     public final boolean transparent;
+    public final boolean compressed;
+    // Lowest detail level this texture is ever evicted to
+    public final int streamStartLevel;
+    private final Allocator allocator;
+    // The prebuilt chain or just level 0 as packed RGBA, only kept for streamable textures
+    private final ByteBuffer source;
+    // Byte offset of every prebuilt level plus the chain's end. Null when levels are blitted
+    private final int[] levelOffsets;
+    private volatile Residency residency;
     private VkBuffer stagingBuf;
-    private boolean recordedTransition;
+    private volatile boolean recordedUpload;
+    private boolean recordedAcquire;
 
-    public Texture(LogicalDevice logicalDevice, BufferedImage image, int format, boolean transparent) {
-        var imgBuffer = image.getData().getDataBuffer();
-        var rgbaBuffer = (ByteBuffer) null;
-        this.width = image.getWidth();
-        this.height = image.getHeight();
+    public Texture(Allocator allocator, ModelData.TextureData data, int format, boolean transparent, Options options) {
+        this.allocator = allocator;
+        this.width = data.width();
+        this.height = data.height();
         this.mipLevels = (int) ((double) Mth.log2(Math.min(width, height)) + 1);
-        this.cpuTexture = image;
+        this.key = data.id();
+        this.cpuTexture = options.keepCpuCopy() ? data.image() : null;
         this.transparent = transparent;
 
-        if (imgBuffer instanceof DataBufferFloat intBuffer) {
-            var rawData = intBuffer.getData();
-            rgbaBuffer = MemoryUtil.memAlloc(rawData.length * 4);
-
-            for (var hdrChannel : rawData) {
-                var pixel = hdrToRgb(hdrChannel);
-                rgbaBuffer.put((byte) ((pixel >> 16) & 0xFF));
-                rgbaBuffer.put((byte) ((pixel >> 8) & 0xFF));
-                rgbaBuffer.put((byte) (pixel & 0xFF));
-                rgbaBuffer.put((byte) ((pixel >> 24) & 0xFF));
+        var startLevel = 0;
+        if (options.streamable()) while (startLevel < mipLevels - 1 && Math.max(width >> startLevel, height >> startLevel) > STREAM_START_SIZE) startLevel++;
+        this.streamStartLevel = startLevel;
+
+        var srgb = format == VK10.VK_FORMAT_R8G8B8A8_SRGB;
+        var rgba = (ByteBuffer) null;
+        var chain = (ByteBuffer) null;
+        var chainFormat = format;
+        var offsets = (int[]) null;
+        if (options.compressor() != null && srgb) {
+            rgba = toRgba(data);
+            var compressedChain = options.compressor().compress(key, rgba, width, height, mipLevels);
+            if (compressedChain != null) {
+                chain = compressedChain.data();
+                chainFormat = compressedChain.format();
+                offsets = compressedChain.levelOffsets();
             }
+        }
+        if (chain == null && options.cpuMipmaps()) {
+            var start = System.nanoTime();
+            offsets = MipGenerator.levelOffsets(width, height, mipLevels);
+            chain = MipGenerator.buildChain(rgba != null ? rgba : toRgba(data), width, height, offsets, srgb);
+            rgba = null;
+            LOGGER.debug("Built {} levels of a {}x{} texture in {}us", mipLevels, width, height, (System.nanoTime() - start) / 1000);
+        }
+        this.compressed = chainFormat != format;
+        this.format = chainFormat;
+        this.levelOffsets = offsets;
+
+        if (chain != null) {
+            if (rgba != null) MemoryUtil.memFree(rgba);
+            this.source = startLevel > 0 ? chain : null;
+            this.stagingBuf = stageChain(chain, startLevel);
+            if (source == null) MemoryUtil.memFree(chain);
+        } else if (startLevel > 0) {
+            this.source = rgba != null ? rgba : toRgba(data);
+            this.stagingBuf = stageLevel(startLevel);
+        } else if (rgba != null) {
+            this.source = null;
+            this.stagingBuf = createStagingBuffer(allocator, rgba);
+            MemoryUtil.memFree(rgba);
+        } else {
+            // Nothing to keep around, so the pixels go straight into the staging buffer
+            this.source = null;
+            this.stagingBuf = new VkBuffer(allocator, rgbaBytes(), VK10.VK_BUFFER_USAGE_TRANSFER_SRC_BIT, Allocator.MemoryUsage.STAGING);
+            writeRgba(data, stagingBuf.map());
+            stagingBuf.unMap();
+        }
 
-            rgbaBuffer.flip();
-        } else if (imgBuffer instanceof DataBufferInt floatBuffer) {
-            var rawData = floatBuffer.getData();
-            rgbaBuffer = MemoryUtil.memAlloc(rawData.length * 4);
+        this.residency = createResidency(startLevel);
+    }
 
-            for (var pixel : rawData) {
-                rgbaBuffer.put((byte) ((pixel >> 16) & 0xFF));
-                rgbaBuffer.put((byte) ((pixel >> 8) & 0xFF));
-                rgbaBuffer.put((byte) (pixel & 0xFF));
-                rgbaBuffer.put((byte) ((pixel >> 24) & 0xFF));
-            }
+    private long rgbaBytes() {
+        return (long) width * height * BYTES_PER_TEXEL;
+    }
 
-            rgbaBuffer.flip();
-        } else throw new RuntimeException("Unknown Data Type: " + imgBuffer.getClass().getName());
+    private ByteBuffer toRgba(ModelData.TextureData data) {
+        var rgba = MemoryUtil.memAlloc(Math.toIntExact(rgbaBytes()));
+        writeRgba(data, MemoryUtil.memAddress(rgba));
+        return rgba;
+    }
 
-        createStagingBuffer(logicalDevice, rgbaBuffer);
+    private void writeRgba(ModelData.TextureData data, long address) {
+        if (data.pixels() != null) MemoryUtil.memCopy(MemoryUtil.memAddress(data.pixels()), address, rgbaBytes());
+        else PixelConverter.convert(data.image(), address);
+    }
 
-        this.image = new Image.Builder()
-                .width(image.getWidth())
-                .height(image.getHeight())
-                .usage(VK10.VK_IMAGE_USAGE_TRANSFER_DST_BIT | VK10.VK_IMAGE_USAGE_SAMPLED_BIT)
+    public ImageView view() {
+        return residency.view();
+    }
+
+    /**
+     * @return the most detailed mip level currently on the GPU
+     */
+    public int residentLevel() {
+        return residency.baseLevel();
+    }
+
+    public long residentBytes() {
+        return residency.bytes();
+    }
+
+    public boolean isStreamable() {
+        return source != null;
+    }
+
+    /**
+     * @return the VRAM a residency starting at {@code baseLevel} needs
+     */
+    public long bytesAt(int baseLevel) {
+        if (levelOffsets != null) return levelOffsets[mipLevels] - levelOffsets[baseLevel];
+        return chainBytes(Math.max(1, width >> baseLevel), Math.max(1, height >> baseLevel), mipLevels - baseLevel);
+    }
+
+    /**
+     * Allocates an image holding levels {@code baseLevel} to the smallest level. Its contents are undefined.
+     */
+    public Residency createResidency(int baseLevel) {
+        var levelWidth = Math.max(1, width >> baseLevel);
+        var levelHeight = Math.max(1, height >> baseLevel);
+        var levelCount = mipLevels - baseLevel;
+        var image = new Image.Builder()
+                .width(levelWidth)
+                .height(levelHeight)
+                .usage(VK10.VK_IMAGE_USAGE_TRANSFER_SRC_BIT | VK10.VK_IMAGE_USAGE_TRANSFER_DST_BIT | VK10.VK_IMAGE_USAGE_SAMPLED_BIT)
                 .format(format)
-                .mipLevels(mipLevels)
-                .build(logicalDevice);
+                .mipLevels(levelCount)
+                .build(allocator);
 
-        this.view = new ImageView(logicalDevice, this.image.vk(), new ImageViewData.Builder()
-                .format(this.image.format)
+        var view = new ImageView(allocator.logicalDevice, image.vk(), new ImageViewData.Builder()
+                .format(image.format)
                 .aspectMask(VK10.VK_IMAGE_ASPECT_COLOR_BIT)
-                .mipLevels(mipLevels)
+                .mipLevels(levelCount)
                 .build()
         );
+        return new Residency(image, view, baseLevel, levelWidth, levelHeight, levelCount, bytesAt(baseLevel));
+    }
 
-        MemoryUtil.memFree(rgbaBuffer);
+    /**
+     * Writes levels {@code level} onwards into a new staging buffer. Without a prebuilt chain only that level is
+     * staged, box filtered from the source pixels. Safe to call from any thread.
+     */
+    public VkBuffer stageLevel(int level) {
+        if (source == null) throw new RuntimeException("Texture is not streamable");
+        if (levelOffsets != null) return stageChain(source, level);
+        var pixels = source;
+        var levelWidth = width;
+        var levelHeight = height;
+        for (var i = 0; i < level; i++) {
+            var halved = MipGenerator.halve(pixels, levelWidth, levelHeight, format == VK10.VK_FORMAT_R8G8B8A8_SRGB);
+            if (pixels != source) MemoryUtil.memFree(pixels);
+            pixels = halved;
+            levelWidth = Math.max(1, levelWidth >> 1);
+            levelHeight = Math.max(1, levelHeight >> 1);
+        }
+
+        var staging = createStagingBuffer(allocator, pixels);
+        if (pixels != source) MemoryUtil.memFree(pixels);
+        return staging;
+    }
+
+    private VkBuffer stageChain(ByteBuffer chain, int level) {
+        return createStagingBuffer(allocator, chain.slice(levelOffsets[level], levelOffsets[mipLevels] - levelOffsets[level]));
+    }
+
+    /**
+     * Copies the staging buffer into the image on the transfer queue and releases it to the graphics queue. Missing mip
+     * levels are blitted by {@link #recordAcquire} as blits need a graphics queue.
+     */
+    public void recordUpload(CommandBuffer cmdBuffer, QueueOwnershipTransfer ownership) {
+        if (stagingBuf != null && !recordedUpload) {
+            try (var stack = MemoryStack.stackPush()) {
+                this.recordedUpload = true;
+                var target = residency;
+                recordImageTransition(stack, cmdBuffer, target, VK10.VK_IMAGE_LAYOUT_UNDEFINED, VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
+                recordCopyBuffer(stack, cmdBuffer, target, stagingBuf);
+                ownership.recordImageRelease(cmdBuffer, target.image().vk(), target.levelCount(), VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
+            }
+        }
     }
 
-    public void recordTransition(CommandBuffer cmdBuffer) {
-        if (stagingBuf != null && !recordedTransition) {
+    /**
+     * Acquires the image on the graphics queue and generates its mip chain, leaving every level shader readable.
+     */
+    public void recordAcquire(CommandBuffer cmdBuffer, QueueOwnershipTransfer ownership) {
+        if (recordedUpload && !recordedAcquire) {
             try (var stack = MemoryStack.stackPush()) {
-                this.recordedTransition = true;
-                recordImageTransition(stack, cmdBuffer, VK10.VK_IMAGE_LAYOUT_UNDEFINED, VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
-                recordCopyBuffer(stack, cmdBuffer, stagingBuf);
-                recordImageTransition(stack, cmdBuffer, VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
-                recordGenerateMipMaps(stack, cmdBuffer);
+                this.recordedAcquire = true;
+                var target = residency;
+                ownership.recordImageAcquire(cmdBuffer, target.image().vk(), target.levelCount(), VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, VK10.VK_ACCESS_TRANSFER_READ_BIT | VK10.VK_ACCESS_TRANSFER_WRITE_BIT, VK10.VK_PIPELINE_STAGE_TRANSFER_BIT);
+                recordFinishLevels(stack, cmdBuffer, target);
             }
         }
     }
 
-    private void recordCopyBuffer(MemoryStack stack, CommandBuffer cmd, VkBuffer bufferData) {
-        var region = VkBufferImageCopy.calloc(1, stack)
-                .bufferOffset(0)
-                .bufferRowLength(0)
-                .bufferImageHeight(0)
-                .imageSubresource(it ->
-                        it.aspectMask(VK10.VK_IMAGE_ASPECT_COLOR_BIT)
-                                .mipLevel(0)
-                                .baseArrayLayer(0)
-                                .layerCount(1)
-                )
-                .imageOffset(it -> it.x(0).y(0).z(0))
-                .imageExtent(it -> it
-                        .width(width)
-                        .height(height)
-                        .depth(1));
+    /**
+     * Records the upload of a streamed residency on the graphics queue: the staged levels are copied in and any
+     * missing smaller levels are generated.
+     */
+    public void recordResidencyUpload(CommandBuffer cmdBuffer, Residency target, VkBuffer staging) {
+        try (var stack = MemoryStack.stackPush()) {
+            recordImageTransition(stack, cmdBuffer, target, VK10.VK_IMAGE_LAYOUT_UNDEFINED, VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
+            recordCopyBuffer(stack, cmdBuffer, target, staging);
+            recordFinishLevels(stack, cmdBuffer, target);
+        }
+    }
+
+    /**
+     * Makes {@code newResidency} the one sampled from. The caller must retire the returned residency.
+     */
+    public Residency swapResidency(Residency newResidency) {
+        var old = residency;
+        this.residency = newResidency;
+        return old;
+    }
+
+    /**
+     * Copies every staged level: the whole residency for prebuilt chains, only the base level otherwise.
+     */
+    private void recordCopyBuffer(MemoryStack stack, CommandBuffer cmd, Residency target, VkBuffer bufferData) {
+        var levelCount = levelOffsets != null ? target.levelCount() : 1;
+        var regions = VkBufferImageCopy.calloc(levelCount, stack);
+        for (var i = 0; i < levelCount; i++) {
+            var level = i;
+            var bufferOffset = levelOffsets != null ? levelOffsets[target.baseLevel() + i] - levelOffsets[target.baseLevel()] : 0;
+            regions.get(i)
+                    .bufferOffset(bufferOffset)
+                    .bufferRowLength(0)
+                    .bufferImageHeight(0)
+                    .imageSubresource(it ->
+                            it.aspectMask(VK10.VK_IMAGE_ASPECT_COLOR_BIT)
+                                    .mipLevel(level)
+                                    .baseArrayLayer(0)
+                                    .layerCount(1)
+                    )
+                    .imageOffset(it -> it.x(0).y(0).z(0))
+                    .imageExtent(it -> it
+                            .width(Math.max(1, target.width() >> level))
+                            .height(Math.max(1, target.height() >> level))
+                            .depth(1));
+        }
+
+        VK10.vkCmdCopyBufferToImage(cmd.vk(), bufferData.buffer, target.image().vk(), VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, regions);
+    }
 
-        VK10.vkCmdCopyBufferToImage(cmd.vk(), bufferData.buffer, image.vk(), VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, region);
+    /**
+     * Leaves every level shader readable, generating the smaller levels first unless they were copied in.
+     */
+    private void recordFinishLevels(MemoryStack stack, CommandBuffer cmd, Residency target) {
+        if (levelOffsets != null) recordImageTransition(stack, cmd, target, VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+        else recordGenerateMipMaps(stack, cmd, target);
     }
 
-    private void recordImageTransition(MemoryStack stack, CommandBuffer cmd, int oldLayout, int newLayout) {
+    private void recordImageTransition(MemoryStack stack, CommandBuffer cmd, Residency target, int oldLayout, int newLayout) {
         var barrier = VkImageMemoryBarrier.calloc(1, stack)
                 .sType$Default()
                 .oldLayout(oldLayout)
                 .newLayout(newLayout)
                 .srcQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED)
                 .dstQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED)
-                .image(image.vk())
+                .image(target.image().vk())
                 .subresourceRange(it -> it
                         .aspectMask(VK10.VK_IMAGE_ASPECT_COLOR_BIT)
                         .baseMipLevel(0)
-                        .levelCount(mipLevels)
+                        .levelCount(target.levelCount())
                         .baseArrayLayer(0)
                         .layerCount(1));
 
@@ -156,7 +338,7 @@ public class Texture implements Closeable {
         VK10.vkCmdPipelineBarrier(cmd.vk(), srcStage, dstStage, 0, null, null, barrier);
     }
 
-    private void recordGenerateMipMaps(MemoryStack stack, CommandBuffer cmd) {
+    private void recordGenerateMipMaps(MemoryStack stack, CommandBuffer cmd, Residency target) {
         var subResourceRange = VkImageSubresourceRange.calloc(stack)
                 .aspectMask(VK10.VK_IMAGE_ASPECT_COLOR_BIT)
                 .baseArrayLayer(0)
@@ -165,15 +347,15 @@ public class Texture implements Closeable {
 
         var barrier = VkImageMemoryBarrier.calloc(1, stack)
                 .sType(VK10.VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER)
-                .image(image.vk())
+                .image(target.image().vk())
                 .srcQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED)
                 .dstQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED)
                 .subresourceRange(subResourceRange);
 
-        int mipWidth = width;
-        int mipHeight = height;
+        int mipWidth = target.width();
+        int mipHeight = target.height();
 
-        for (var i = 1; i < mipLevels; i++) {
+        for (var i = 1; i < target.levelCount(); i++) {
             subResourceRange.baseMipLevel(i - 1);
             barrier.subresourceRange(subResourceRange)
                     .oldLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
@@ -205,8 +387,8 @@ public class Texture implements Closeable {
                             .layerCount(1));
 
             VK10.vkCmdBlitImage(cmd.vk(),
-                    image.vk(), VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL,
-                    image.vk(), VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL,
+                    target.image().vk(), VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL,
+                    target.image().vk(), VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL,
                     blit, VK10.VK_FILTER_LINEAR);
 
             barrier.oldLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL)
@@ -219,7 +401,7 @@ public class Texture implements Closeable {
             if (mipHeight > 1) mipHeight /= 2;
         }
 
-        barrier.subresourceRange(it -> it.baseMipLevel(mipLevels - 1))
+        barrier.subresourceRange(it -> it.baseMipLevel(target.levelCount() - 1))
                 .oldLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL)
                 .newLayout(VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL)
                 .srcAccessMask(VK10.VK_ACCESS_TRANSFER_WRITE_BIT)
@@ -228,27 +410,63 @@ public class Texture implements Closeable {
         VK10.vkCmdPipelineBarrier(cmd.vk(), VK10.VK_PIPELINE_STAGE_TRANSFER_BIT, VK10.VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT, 0, null, null, barrier);
     }
 
-    private void createStagingBuffer(LogicalDevice device, ByteBuffer data) {
+    private static VkBuffer createStagingBuffer(Allocator allocator, ByteBuffer data) {
         var size = data.remaining();
-        this.stagingBuf = new VkBuffer(device, size, VK10.VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
-        var mappedMemory = stagingBuf.map();
-        var buffer = MemoryUtil.memByteBuffer(mappedMemory, (int) stagingBuf.requestedSize);
-        buffer.put(data);
-        data.flip();
+        var stagingBuf = new VkBuffer(allocator, size, VK10.VK_BUFFER_USAGE_TRANSFER_SRC_BIT, Allocator.MemoryUsage.STAGING);
+        // Copies by address so the shared source buffer's position is never touched
+        MemoryUtil.memCopy(MemoryUtil.memAddress(data), stagingBuf.map(), size);
         stagingBuf.unMap();
+        return stagingBuf;
     }
 
-    private static int hdrToRgb(float hdr) {
-        return (int) Math.min(Math.max(Math.pow(hdr, 1.0 / 2.2) * 255, 0), 255);
+    private static long chainBytes(int width, int height, int levelCount) {
+        var bytes = 0L;
+        for (var i = 0; i < levelCount; i++) bytes += (long) Math.max(1, width >> i) * Math.max(1, height >> i) * BYTES_PER_TEXEL;
+        return bytes;
     }
 
-    public void closeStagingBuffer() {
+    public synchronized void closeStagingBuffer() {
         if (stagingBuf != null) stagingBuf.close();
+        this.stagingBuf = null;
     }
 
     @Override
     public void close() {
-        view.close();
-        image.close();
+        residency.close();
+        if (source != null) MemoryUtil.memFree(source);
+    }
+
+    /**
+     * @param streamable  create large textures at a low mip level for the texture streamer to raise
+     * @param keepCpuCopy keep the decoded image in {@link #cpuTexture}
+     * @param cpuMipmaps  build mip levels on the CPU instead of blitting them on the GPU
+     * @param compressor  block compresses sRGB textures when not null
+     */
+    public record Options(
+            boolean streamable,
+            boolean keepCpuCopy,
+            boolean cpuMipmaps,
+            TextureCompressor compressor
+    ) {}
+
+    /**
+     * Levels {@code baseLevel} onwards of a texture's mip chain, with level {@code baseLevel} at {@code width} by
+     * {@code height}.
+     */
+    public record Residency(
+            Image image,
+            ImageView view,
+            int baseLevel,
+            int width,
+            int height,
+            int levelCount,
+            long bytes
+    ) implements Closeable {
+
+        @Override
+        public void close() {
+            view.close();
+            image.close();
+        }
     }
 }
@@ -0,0 +1,145 @@
+package me.hydos.vkinteropexperiments.graph.image.texture;
+
+import me.hydos.vkinteropexperiments.graph.cache.CacheFiles;
+import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VK10;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Builds block compressed mip chains for sRGB textures and caches them on disk under the texture's content key, so each
+ * source image is only ever encoded once.
+ */
+public class TextureCompressor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TextureCompressor.class);
+    private static final Path CACHE_DIR = Path.of("cache/textures");
+    private static final int CACHE_MAGIC = 0x58544342; // "BCTX"
+    // Bump whenever the encoder output changes
+    private static final int CACHE_VERSION = 2;
+    private static final int HEADER_SIZE = 6 * Integer.BYTES;
+    private final boolean bc1;
+    private final boolean bc3;
+
+    private TextureCompressor(boolean bc1, boolean bc3) {
+        this.bc1 = bc1;
+        this.bc3 = bc3;
+    }
+
+    /**
+     * @return null when the device cannot sample either compressed format
+     */
+    public static TextureCompressor create(LogicalDevice logicalDevice) {
+        if (!logicalDevice.textureCompressionBC) return null;
+        var physicalDevice = logicalDevice.physicalDevice;
+        var bc1 = physicalDevice.supportsSampledFormat(VK10.VK_FORMAT_BC1_RGB_SRGB_BLOCK);
+        var bc3 = physicalDevice.supportsSampledFormat(VK10.VK_FORMAT_BC3_SRGB_BLOCK);
+        if (!bc1 && !bc3) return null;
+        LOGGER.info("Compressing textures (BC1: {}, BC3: {})", bc1, bc3);
+        return new TextureCompressor(bc1, bc3);
+    }
+
+    /**
+     * Loads the cached chain for {@code key} or encodes {@code rgba}, a {@code width} by {@code height} level 0.
+     *
+     * @return null when the needed format is unsupported
+     */
+    public Chain compress(String key, ByteBuffer rgba, int width, int height, int levelCount) {
+        var alpha = BlockCompressor.hasAlpha(rgba, width, height);
+        if (alpha ? !bc3 : !bc1) return null;
+        var format = alpha ? VK10.VK_FORMAT_BC3_SRGB_BLOCK : VK10.VK_FORMAT_BC1_RGB_SRGB_BLOCK;
+        var levelOffsets = levelOffsets(width, height, levelCount, alpha);
+        var file = CACHE_DIR.resolve(key.replaceAll("[^A-Za-z0-9_-]", "_") + ".bctx");
+
+        var cached = load(file, format, width, height, levelOffsets);
+        if (cached != null) return new Chain(format, cached, levelOffsets);
+
+        var start = System.nanoTime();
+        var data = MemoryUtil.memAlloc(levelOffsets[levelCount]);
+        var level = rgba;
+        var levelWidth = width;
+        var levelHeight = height;
+        for (var i = 0; i < levelCount; i++) {
+            if (i > 0) {
+                var halved = MipGenerator.halve(level, levelWidth, levelHeight, true);
+                if (level != rgba) MemoryUtil.memFree(level);
+                level = halved;
+                levelWidth = Math.max(1, levelWidth >> 1);
+                levelHeight = Math.max(1, levelHeight >> 1);
+            }
+            BlockCompressor.encode(level, levelWidth, levelHeight, alpha, MemoryUtil.memAddress(data) + levelOffsets[i]);
+        }
+        if (level != rgba) MemoryUtil.memFree(level);
+        LOGGER.debug("Encoded a {}x{} texture in {}ms", width, height, (System.nanoTime() - start) / 1_000_000);
+
+        save(file, format, width, height, levelCount, data);
+        return new Chain(format, data, levelOffsets);
+    }
+
+    private static int[] levelOffsets(int width, int height, int levelCount, boolean alpha) {
+        var offsets = new int[levelCount + 1];
+        for (var i = 0; i < levelCount; i++) offsets[i + 1] = offsets[i] + BlockCompressor.levelBytes(Math.max(1, width >> i), Math.max(1, height >> i), alpha);
+        return offsets;
+    }
+
+    private static ByteBuffer load(Path file, int format, int width, int height, int[] levelOffsets) {
+        if (!Files.exists(file)) return null;
+        var levelCount = levelOffsets.length - 1;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) != HEADER_SIZE) return null;
+            if (header.getInt(0) != CACHE_MAGIC || header.getInt(4) != CACHE_VERSION || header.getInt(8) != format
+                    || header.getInt(12) != width || header.getInt(16) != height || header.getInt(20) != levelCount) return null;
+            if (channel.size() != HEADER_SIZE + levelOffsets[levelCount]) return null;
+
+            var data = MemoryUtil.memAlloc(levelOffsets[levelCount]);
+            var position = (long) HEADER_SIZE;
+            while (data.hasRemaining()) {
+                var read = channel.read(data, position);
+                if (read < 0) {
+                    MemoryUtil.memFree(data);
+                    return null;
+                }
+                position += read;
+            }
+            return data.flip();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read cached texture {}", file, e);
+            return null;
+        }
+    }
+
+    private static void save(Path file, int format, int width, int height, int levelCount, ByteBuffer data) {
+        var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(CACHE_MAGIC)
+                .putInt(CACHE_VERSION)
+                .putInt(format)
+                .putInt(width)
+                .putInt(height)
+                .putInt(levelCount)
+                .flip();
+        try {
+            CacheFiles.writeAtomically(file, header, data.duplicate());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to cache texture {}", file, e);
+        }
+    }
+
+    /**
+     * A compressed mip chain. Level {@code i} spans {@code levelOffsets[i]} until {@code levelOffsets[i + 1]} of
+     * {@code data}, which the receiver must free.
+     */
+    public record Chain(
+            int format,
+            ByteBuffer data,
+            int[] levelOffsets
+    ) {}
+}
@@ -7,6 +7,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
 import static org.lwjgl.vulkan.VK10.*;
@@ -15,20 +17,73 @@ public class LogicalDevice implements Closeable, VkObjectHolder<VkDevice> {
     private static final Logger LOGGER = LoggerFactory.getLogger(LogicalDevice.class);
     public final PhysicalDevice physicalDevice;
     private final VkDevice vkDevice;
+    private final Map<Long, Object> queueLocks = new ConcurrentHashMap<>();
     public boolean samplerAnisotropy;
+    public boolean multiDrawIndirect;
+    public boolean drawIndirectFirstInstance;
+    // BC1 to BC7 block compressed formats
+    public boolean textureCompressionBC;
+    // Runtime sized, partially bound sampler arrays that can be updated while bound
+    public boolean descriptorIndexing;
+    // Most combined image samplers an update after bind set may hold for one stage, 0 without descriptor indexing
+    public int maxBindlessTextures;
+    // vkCmdDrawIndexedIndirectCount, draw counts read from a buffer
+    public boolean drawIndirectCount;
+    // VK_EXT_memory_budget, lets VMA report the real per-heap budget and usage of the whole process
+    public boolean memoryBudget;
 
     public LogicalDevice(PhysicalDevice physicalDevice) {
         LOGGER.info("Creating LogicalDevice derived from" + physicalDevice.getName());
 
         this.physicalDevice = physicalDevice;
         try (var stack = MemoryStack.stackPush()) {
-            var requiredExtensions = stack.mallocPointer(1);
+            this.memoryBudget = physicalDevice.supportsExtension(EXTMemoryBudget.VK_EXT_MEMORY_BUDGET_EXTENSION_NAME);
+            var requiredExtensions = stack.mallocPointer(memoryBudget ? 2 : 1);
             requiredExtensions.put(0, stack.ASCII(KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME));
+            if (memoryBudget) requiredExtensions.put(1, stack.ASCII(EXTMemoryBudget.VK_EXT_MEMORY_BUDGET_EXTENSION_NAME));
 
             var features = VkPhysicalDeviceFeatures.calloc(stack);
             var supportedFeatures = this.physicalDevice.physicalDeviceFeatures;
             this.samplerAnisotropy = supportedFeatures.samplerAnisotropy();
             if (samplerAnisotropy) features.samplerAnisotropy(true);
+            this.multiDrawIndirect = supportedFeatures.multiDrawIndirect();
+            if (multiDrawIndirect) features.multiDrawIndirect(true);
+            this.drawIndirectFirstInstance = supportedFeatures.drawIndirectFirstInstance();
+            if (drawIndirectFirstInstance) features.drawIndirectFirstInstance(true);
+            this.textureCompressionBC = supportedFeatures.textureCompressionBC();
+            if (textureCompressionBC) features.textureCompressionBC(true);
+
+            var vulkan12Features = (VkPhysicalDeviceVulkan12Features) null;
+            if (physicalDevice.physicalDeviceProperties.apiVersion() >= VK12.VK_API_VERSION_1_2) {
+                var supported12Features = VkPhysicalDeviceVulkan12Features.calloc(stack).sType$Default();
+                VK11.vkGetPhysicalDeviceFeatures2(physicalDevice.vk(), VkPhysicalDeviceFeatures2.calloc(stack)
+                        .sType$Default()
+                        .pNext(supported12Features));
+
+                vulkan12Features = VkPhysicalDeviceVulkan12Features.calloc(stack).sType$Default();
+                this.descriptorIndexing = supported12Features.runtimeDescriptorArray()
+                        && supported12Features.descriptorBindingPartiallyBound()
+                        && supported12Features.descriptorBindingSampledImageUpdateAfterBind()
+                        && supported12Features.descriptorBindingUpdateUnusedWhilePending();
+                if (descriptorIndexing) vulkan12Features
+                        .runtimeDescriptorArray(true)
+                        .descriptorBindingPartiallyBound(true)
+                        .descriptorBindingSampledImageUpdateAfterBind(true)
+                        .descriptorBindingUpdateUnusedWhilePending(true);
+                if (descriptorIndexing) {
+                    var properties12 = VkPhysicalDeviceVulkan12Properties.calloc(stack).sType$Default();
+                    VK11.vkGetPhysicalDeviceProperties2(physicalDevice.vk(), VkPhysicalDeviceProperties2.calloc(stack)
+                            .sType$Default()
+                            .pNext(properties12));
+                    // A combined image sampler counts as both a sampler and a sampled image
+                    this.maxBindlessTextures = Math.min(
+                            Math.min(properties12.maxDescriptorSetUpdateAfterBindSamplers(), properties12.maxDescriptorSetUpdateAfterBindSampledImages()),
+                            Math.min(properties12.maxPerStageDescriptorUpdateAfterBindSamplers(), properties12.maxPerStageDescriptorUpdateAfterBindSampledImages())
+                    );
+                }
+                this.drawIndirectCount = supported12Features.drawIndirectCount();
+                if (drawIndirectCount) vulkan12Features.drawIndirectCount(true);
+            }
 
             var queuePropsBuff = physicalDevice.queueFamilyProps;
             int numQueuesFamilies = queuePropsBuff.capacity();
@@ -47,6 +102,8 @@ public class LogicalDevice implements Closeable, VkObjectHolder<VkDevice> {
                     .pEnabledFeatures(features)
                     .pQueueCreateInfos(queueCreationInfo);
 
+            if (vulkan12Features != null) deviceCreateInfo.pNext(vulkan12Features);
+
             var pDevice = stack.mallocPointer(1);
             ok(vkCreateDevice(physicalDevice.vk(), deviceCreateInfo, null, pDevice), "Failed to create LogicalDevice");
             this.vkDevice = new VkDevice(pDevice.get(0), physicalDevice.vk(), deviceCreateInfo);
@@ -67,4 +124,12 @@ public class LogicalDevice implements Closeable, VkObjectHolder<VkDevice> {
     public void waitIdle() {
         vkDeviceWaitIdle(vkDevice);
     }
+
+    /**
+     * VkQueues must be externally synchronized. Several {@link Queue} objects can wrap the same VkQueue, so they share
+     * a lock per handle.
+     */
+    public Object queueLock(long queue) {
+        return queueLocks.computeIfAbsent(queue, handle -> new Object());
+    }
 }
\ No newline at end of file
@@ -66,17 +66,27 @@ public class PhysicalDevice implements Closeable, VkObjectHolder<VkPhysicalDevic
     }
 
     private boolean hasKHRSwapChainExtension() {
-        var result = false;
-        var extensionCount = deviceExtensions != null ? deviceExtensions.capacity() : 0;
+        return supportsExtension(KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME);
+    }
+
+    /**
+     * @return whether optimally tiled images of {@code format} can be sampled and copied into
+     */
+    public boolean supportsSampledFormat(int format) {
+        try (var stack = MemoryStack.stackPush()) {
+            var properties = VkFormatProperties.calloc(stack);
+            vkGetPhysicalDeviceFormatProperties(physicalDevice, format, properties);
+            var required = VK_FORMAT_FEATURE_SAMPLED_IMAGE_BIT | VK_FORMAT_FEATURE_SAMPLED_IMAGE_FILTER_LINEAR_BIT;
+            return (properties.optimalTilingFeatures() & required) == required;
+        }
+    }
 
+    public boolean supportsExtension(String name) {
+        var extensionCount = deviceExtensions != null ? deviceExtensions.capacity() : 0;
         for (var i = 0; i < extensionCount; i++) {
-            var extensionName = deviceExtensions.get(i).extensionNameString();
-            if (KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME.equals(extensionName)) {
-                result = true;
-                break;
-            }
+            if (name.equals(deviceExtensions.get(i).extensionNameString())) return true;
         }
-        return result;
+        return false;
     }
 
     @Override
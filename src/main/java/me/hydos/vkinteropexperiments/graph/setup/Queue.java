@@ -22,6 +22,7 @@ public class Queue implements VkObjectHolder<VkQueue> {
     private static final Logger LOGGER = LoggerFactory.getLogger(Queue.class);
     private final VkQueue queue;
     public final int queueFamilyIndex;
+    public final Object lock;
 
     public Queue(LogicalDevice device, int queueFamilyIndex, int queueIndex) {
         try (var stack = MemoryStack.stackPush()) {
@@ -30,6 +31,7 @@ public class Queue implements VkObjectHolder<VkQueue> {
             var pQueue = stack.mallocPointer(1);
             vkGetDeviceQueue(device.vk(), queueFamilyIndex, queueIndex, pQueue);
             this.queue = new VkQueue(pQueue.get(0), device.vk());
+            this.lock = device.queueLock(pQueue.get(0));
         }
     }
 
@@ -46,12 +48,16 @@ public class Queue implements VkObjectHolder<VkQueue> {
             } else submitInfo.waitSemaphoreCount(0);
 
             var fenceHandle = fence != null ? fence.vk() : VK10.VK_NULL_HANDLE;
-            ok(VK10.vkQueueSubmit(queue, submitInfo, fenceHandle), "Failed to submit command to queue");
+            synchronized (lock) {
+                ok(VK10.vkQueueSubmit(queue, submitInfo, fenceHandle), "Failed to submit command to queue");
+            }
         }
     }
 
     public void waitIdle() {
-        VK10.vkQueueWaitIdle(queue);
+        synchronized (lock) {
+            VK10.vkQueueWaitIdle(queue);
+        }
     }
 
     @Override
@@ -86,6 +92,41 @@ public class Queue implements VkObjectHolder<VkQueue> {
         }
     }
 
+    /**
+     * Prefers a transfer-only family so uploads run on the copy engine next to rendering. Falls back to a compute
+     * family, then to a second queue of the graphics family, then to the graphics queue itself.
+     */
+    public static class Transfer extends Queue {
+
+        public Transfer(LogicalDevice device, Queue.Graphics graphicsQueue) {
+            this(device, getTransferQueueFamilyIndex(device, graphicsQueue), graphicsQueue);
+        }
+
+        private Transfer(LogicalDevice device, int queueFamilyIndex, Queue.Graphics graphicsQueue) {
+            super(device, queueFamilyIndex, getTransferQueueIndex(device, queueFamilyIndex, graphicsQueue));
+            LOGGER.info("Using queue family {} for transfers (graphics uses {})", queueFamilyIndex, graphicsQueue.queueFamilyIndex);
+        }
+
+        private static int getTransferQueueFamilyIndex(LogicalDevice device, Queue.Graphics graphicsQueue) {
+            var queuePropsBuff = device.physicalDevice.queueFamilyProps;
+            var computeFamily = -1;
+
+            for (var i = 0; i < queuePropsBuff.capacity(); i++) {
+                var flags = queuePropsBuff.get(i).queueFlags();
+                if ((flags & VK10.VK_QUEUE_TRANSFER_BIT) == 0 || (flags & VK10.VK_QUEUE_GRAPHICS_BIT) != 0) continue;
+                if ((flags & VK10.VK_QUEUE_COMPUTE_BIT) == 0) return i;
+                if (computeFamily < 0) computeFamily = i;
+            }
+
+            return computeFamily >= 0 ? computeFamily : graphicsQueue.queueFamilyIndex;
+        }
+
+        private static int getTransferQueueIndex(LogicalDevice device, int queueFamilyIndex, Queue.Graphics graphicsQueue) {
+            if (queueFamilyIndex != graphicsQueue.queueFamilyIndex) return 0;
+            return device.physicalDevice.queueFamilyProps.get(queueFamilyIndex).queueCount() > 1 ? 1 : 0;
+        }
+    }
+
     public static class Present extends Queue {
 
         public Present(LogicalDevice device, Surface surface, int queueIndex) {
@@ -1,9 +1,19 @@
 package me.hydos.vkinteropexperiments.graph.shader;
 
+import me.hydos.vkinteropexperiments.graph.cache.CacheFiles;
+import org.lwjgl.Version;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.util.shaderc.Shaderc;
+import org.lwjgl.util.shaderc.ShadercIncludeResolve;
+import org.lwjgl.util.shaderc.ShadercIncludeResult;
+import org.lwjgl.util.shaderc.ShadercIncludeResultRelease;
 import org.lwjgl.vulkan.VK10;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -12,56 +22,130 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Formatter;
 
+/**
+ * Compiles GLSL to SPIR-V through one shared shaderc compiler, which is safe to use from several threads. Compiled
+ * shaders are cached under a hash of the preprocessed source (so includes are part of the key), the stage, the compile
+ * options and the LWJGL build shaderc ships with, so editing a shader or one of its includes can never serve stale
+ * bytecode.
+ */
 public class ShaderCompiler {
-    private static final MessageDigest HASH_ALG;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShaderCompiler.class);
     private static final Path COMPILED_SHADER_DIR = Paths.get("shaders/cached");
-    private static final Path SRC_SHADER_DIR = Paths.get("shaders/src");
+    public static final Path SRC_SHADER_DIR = Paths.get("shaders/src");
+    // Describes everything createOptions() sets. Change it whenever the options change
+    private static final String OPTIONS_KEY = "env=vulkan1.0;includes=shaders/src";
+    private static final long COMPILER;
+    private static final String COMPILER_VERSION;
+    private static final ShadercIncludeResolve INCLUDE_RESOLVER;
+    private static final ShadercIncludeResultRelease INCLUDE_RELEASER;
 
     public static byte[] compile(String path, int type) {
-        var compiledFileName = toHexString(HASH_ALG.digest(path.getBytes(StandardCharsets.UTF_8))) + ".spirv";
-        var compiledPath = COMPILED_SHADER_DIR.resolve(compiledFileName);
-
         try {
+            var src = Files.readString(SRC_SHADER_DIR.resolve(path), StandardCharsets.UTF_8);
+            var kind = toShadercKind(type);
+            var preprocessed = preprocess(path, src, kind);
+            var compiledPath = COMPILED_SHADER_DIR.resolve(cacheKey(preprocessed, type) + ".spirv");
+
             if (Files.exists(compiledPath)) return Files.readAllBytes(compiledPath);
-            else {
-                var compiledShader = compileShader(path, Files.readString(SRC_SHADER_DIR.resolve(path), StandardCharsets.UTF_8), type);
-                Files.write(compiledPath, compiledShader);
-                return compiledShader;
-            }
+
+            var start = System.nanoTime();
+            var compiledShader = compileShader(path, src, kind);
+            CacheFiles.writeAtomically(compiledPath, ByteBuffer.wrap(compiledShader));
+            LOGGER.info("Compiled {} in {}ms", path, (System.nanoTime() - start) / 1_000_000);
+            return compiledShader;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static byte[] compileShader(String name, String src, int type) {
-        var compiler = Shaderc.shaderc_compiler_initialize();
+    private static String cacheKey(String preprocessedSrc, int type) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update((COMPILER_VERSION + '\0' + type + '\0' + OPTIONS_KEY + '\0').getBytes(StandardCharsets.UTF_8));
+            digest.update(preprocessedSrc.getBytes(StandardCharsets.UTF_8));
+            return toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String preprocess(String name, String src, int kind) {
+        var options = createOptions();
+        var result = Shaderc.shaderc_compile_into_preprocessed_text(COMPILER, src, kind, name, "main", options);
+        try {
+            checkResult(name, result);
+            return MemoryUtil.memUTF8(Shaderc.shaderc_result_get_bytes(result));
+        } finally {
+            Shaderc.shaderc_result_release(result);
+            Shaderc.shaderc_compile_options_release(options);
+        }
+    }
+
+    private static byte[] compileShader(String name, String src, int kind) {
+        var options = createOptions();
+        var result = Shaderc.shaderc_compile_into_spv(COMPILER, src, kind, name, "main", options);
+        try {
+            checkResult(name, result);
+            var buffer = Shaderc.shaderc_result_get_bytes(result);
+            var compiledShader = new byte[buffer.remaining()];
+            buffer.get(compiledShader);
+            return compiledShader;
+        } finally {
+            Shaderc.shaderc_result_release(result);
+            Shaderc.shaderc_compile_options_release(options);
+        }
+    }
+
+    private static long createOptions() {
         var options = Shaderc.shaderc_compile_options_initialize();
-        var shaderCType = switch (type){
+        Shaderc.shaderc_compile_options_set_target_env(options, Shaderc.shaderc_target_env_vulkan, Shaderc.shaderc_env_version_vulkan_1_0);
+        Shaderc.shaderc_compile_options_set_include_callbacks(options, INCLUDE_RESOLVER, INCLUDE_RELEASER, MemoryUtil.NULL);
+        return options;
+    }
+
+    private static void checkResult(String name, long result) {
+        if (Shaderc.shaderc_result_get_compilation_status(result) != Shaderc.shaderc_compilation_status_success)
+            throw new RuntimeException(name + " compilation failed: " + Shaderc.shaderc_result_get_error_message(result));
+    }
+
+    private static int toShadercKind(int type) {
+        return switch (type) {
             case VK10.VK_SHADER_STAGE_VERTEX_BIT -> Shaderc.shaderc_vertex_shader;
             case VK10.VK_SHADER_STAGE_FRAGMENT_BIT -> Shaderc.shaderc_fragment_shader;
             case VK10.VK_SHADER_STAGE_COMPUTE_BIT -> Shaderc.shaderc_compute_shader;
             case VK10.VK_SHADER_STAGE_GEOMETRY_BIT -> Shaderc.shaderc_geometry_shader;
             default -> throw new IllegalStateException("Unexpected value: " + type);
         };
+    }
 
-        var result = Shaderc.shaderc_compile_into_spv(
-                compiler,
-                src,
-                shaderCType,
-                src,
-                "main",
-                options
-        );
+    /**
+     * Resolves #include "file" relative to the including file and #include &lt;file&gt; relative to shaders/src.
+     */
+    private static long resolveInclude(long userData, long requestedSource, int type, long requestingSource, long includeDepth) {
+        var requested = MemoryUtil.memUTF8(requestedSource);
+        var requesting = MemoryUtil.memUTF8(requestingSource);
+        var result = ShadercIncludeResult.calloc();
 
-        if (Shaderc.shaderc_result_get_compilation_status(result) != Shaderc.shaderc_compilation_status_success)
-            throw new RuntimeException(name + " compilation failed: " + Shaderc.shaderc_result_get_error_message(result));
+        var base = type == Shaderc.shaderc_include_type_relative ? SRC_SHADER_DIR.resolve(requesting).getParent() : SRC_SHADER_DIR;
+        var includePath = (base != null ? base : SRC_SHADER_DIR).resolve(requested).normalize();
+        try {
+            var content = Files.readString(includePath, StandardCharsets.UTF_8);
+            result.source_name(MemoryUtil.memUTF8(SRC_SHADER_DIR.relativize(includePath).toString().replace('\\', '/'), false))
+                    .content(MemoryUtil.memUTF8(content, false));
+        } catch (IOException e) {
+            // An empty source name tells shaderc the include failed, content carries the error message
+            result.source_name(MemoryUtil.memUTF8("", false))
+                    .content(MemoryUtil.memUTF8("Failed to read " + includePath + ": " + e.getMessage(), false));
+        }
+
+        return result.address();
+    }
 
-        var buffer = Shaderc.shaderc_result_get_bytes(result);
-        var compiledShader = new byte[buffer.remaining()];
-        buffer.get(compiledShader);
-        Shaderc.shaderc_compile_options_release(options);
-        Shaderc.shaderc_compiler_release(compiler);
-        return compiledShader;
+    private static void releaseInclude(long userData, long includeResult) {
+        var result = ShadercIncludeResult.create(includeResult);
+        MemoryUtil.memFree(result.source_name());
+        MemoryUtil.memFree(result.content());
+        result.free();
     }
 
     private static String toHexString(byte... bytes) {
@@ -74,9 +158,20 @@ public class ShaderCompiler {
         try {
             Files.createDirectories(COMPILED_SHADER_DIR);
             Files.createDirectories(SRC_SHADER_DIR);
-            HASH_ALG = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException | IOException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+
+        COMPILER = Shaderc.shaderc_compiler_initialize();
+        INCLUDE_RESOLVER = ShadercIncludeResolve.create(ShaderCompiler::resolveInclude);
+        INCLUDE_RELEASER = ShadercIncludeResultRelease.create(ShaderCompiler::releaseInclude);
+        try (var stack = MemoryStack.stackPush()) {
+            var pVersion = stack.mallocInt(1);
+            var pRevision = stack.mallocInt(1);
+            Shaderc.shaderc_get_spv_version(pVersion, pRevision);
+            // shaderc only reports the SPIR-V version it targets. The library itself ships with LWJGL, so its version
+            // changes whenever the compiler does
+            COMPILER_VERSION = Version.getVersion() + ";spirv=" + pVersion.get(0) + "." + pRevision.get(0);
+        }
     }
 }
@@ -8,6 +8,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
 
@@ -20,12 +23,18 @@ public class ShaderProgram implements Closeable {
         this.logicalDevice = logicalDevice;
         var moduleCount = shaderModuleData != null ? shaderModuleData.length : 0;
         shaderModules = new ShaderModule[moduleCount];
+        if (moduleCount == 0) return;
 
+        // Stages compile independently, so they can compile in parallel
+        var compiledModules = Arrays.stream(shaderModuleData)
+                .map(module -> CompletableFuture.supplyAsync(() -> ShaderCompiler.compile(module.path(), module.shaderStage())))
+                .toList();
+
+        // Wait for every stage before creating modules so a compile error doesn't leak the modules already created
+        var moduleContents = compiledModules.stream().map(CompletableFuture::join).toList();
         for (var i = 0; i < moduleCount; i++) {
-            var module = shaderModuleData[i];
-            var moduleContents = ShaderCompiler.compile(module.path(), module.shaderStage);
-            var moduleHandle = createShaderModule(moduleContents);
-            shaderModules[i] = new ShaderModule(module.shaderStage(), moduleHandle);
+            var moduleHandle = createShaderModule(moduleContents.get(i));
+            shaderModules[i] = new ShaderModule(shaderModuleData[i].shaderStage(), moduleHandle);
         }
     }
 
@@ -48,6 +57,22 @@ public class ShaderProgram implements Closeable {
         }
     }
 
+    /**
+     * Whether any of the changed files can change these modules. Files that aren't a stage's source may be included by
+     * any stage, so they affect every module.
+     */
+    public static boolean affectedBy(ShaderModuleData[] modules, Set<String> changedFiles) {
+        for (var file : changedFiles) {
+            if (!isStageSource(file)) return true;
+            for (var module : modules) if (module.path().equals(file)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isStageSource(String file) {
+        return file.endsWith(".v.glsl") || file.endsWith(".f.glsl") || file.endsWith(".c.glsl");
+    }
+
     public record ShaderModule(
             int shaderStage,
             long handle
@@ -0,0 +1,81 @@
+package me.hydos.vkinteropexperiments.graph.shader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a shader source directory and reports changed files from its own thread. Bursts of events, like an editor
+ * saving through a temporary file, are collapsed into one callback.
+ */
+public class ShaderWatcher implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShaderWatcher.class);
+    private static final long DEBOUNCE_MILLIS = 150;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    public ShaderWatcher(Path directory, Consumer<Set<String>> onChange) {
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to watch " + directory, e);
+        }
+
+        this.thread = new Thread(() -> run(onChange), "Shader Watcher");
+        thread.setDaemon(true);
+        thread.start();
+        LOGGER.info("Watching {} for shader changes", directory);
+    }
+
+    private void run(Consumer<Set<String>> onChange) {
+        try {
+            while (true) {
+                var changed = new HashSet<String>();
+                var key = watchService.take();
+                do {
+                    for (var event : key.pollEvents()) {
+                        if (event.context() instanceof Path path && isShaderFile(path)) changed.add(path.toString());
+                    }
+                    key.reset();
+                } while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+
+                if (changed.isEmpty()) continue;
+                LOGGER.info("Shaders changed: {}", changed);
+                try {
+                    onChange.accept(changed);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Shader change handler failed", e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private static boolean isShaderFile(Path path) {
+        var name = path.getFileName().toString();
+        return !name.startsWith(".") && !name.endsWith("~") && !name.endsWith(".tmp");
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close shader watcher", e);
+        }
+    }
+}
@@ -96,7 +96,10 @@ public class SurfaceSwapchain implements Swapchain {
                     .pSwapchains(stack.longs(swapchain))
                     .pImageIndices(stack.ints(currentFrame));
 
-            var result = KHRSwapchain.vkQueuePresentKHR(queue.vk(), present);
+            int result;
+            synchronized (queue.lock) {
+                result = KHRSwapchain.vkQueuePresentKHR(queue.vk(), present);
+            }
             switch (result) {
                 case KHRSwapchain.VK_ERROR_OUT_OF_DATE_KHR -> resize = true;
                 case KHRSwapchain.VK_SUBOPTIMAL_KHR -> {} // Not optimal but swapchain can still be used
@@ -0,0 +1,72 @@
+package me.hydos.vkinteropexperiments.graph.sync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Defers closing GPU resources until no frame in flight can still use them. A resource is closed once every frame
+ * slot's fence has been waited on after it was retired, which replaces device wide waitIdle calls.
+ */
+public class FrameRetirementQueue implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrameRetirementQueue.class);
+    private final int frameCount;
+    private final List<Retired> retired = new ArrayList<>();
+
+    public FrameRetirementQueue(int frameCount) {
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * Must be called after the last submission that may use the resource.
+     */
+    public synchronized void retire(Closeable resource) {
+        retired.add(new Retired(resource, new boolean[frameCount]));
+    }
+
+    /**
+     * Call right after the fence of a frame slot has been waited on.
+     */
+    public synchronized void frameCompleted(int frameIdx) {
+        var iterator = retired.iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            entry.completedFrames[frameIdx] = true;
+            if (entry.isSafe()) {
+                iterator.remove();
+                close(entry.resource);
+            }
+        }
+    }
+
+    /**
+     * Closes everything still pending. The device must be idle.
+     */
+    @Override
+    public synchronized void close() {
+        retired.forEach(entry -> close(entry.resource));
+        retired.clear();
+    }
+
+    private static void close(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close retired resource", e);
+        }
+    }
+
+    private record Retired(
+            Closeable resource,
+            boolean[] completedFrames
+    ) {
+        public boolean isSafe() {
+            for (var completed : completedFrames) if (!completed) return false;
+            return true;
+        }
+    }
+}
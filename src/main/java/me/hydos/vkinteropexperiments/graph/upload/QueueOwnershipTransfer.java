@@ -0,0 +1,91 @@
+package me.hydos.vkinteropexperiments.graph.upload;
+
+import me.hydos.vkinteropexperiments.graph.command.CommandBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VkBufferMemoryBarrier;
+import org.lwjgl.vulkan.VkImageMemoryBarrier;
+
+/**
+ * Release/acquire barrier pairs that move exclusively owned resources from the transfer queue family to the graphics
+ * queue family. When both families are the same the release is skipped and the acquire degrades to a plain barrier
+ * making the transfer writes visible.
+ */
+public record QueueOwnershipTransfer(
+        int srcQueueFamily,
+        int dstQueueFamily
+) {
+
+    public boolean required() {
+        return srcQueueFamily != dstQueueFamily;
+    }
+
+    public void recordBufferRelease(CommandBuffer cmd, long buffer, long offset, long size) {
+        if (!required()) return;
+        try (var stack = MemoryStack.stackPush()) {
+            var barrier = bufferBarrier(stack, buffer, offset, size)
+                    .srcAccessMask(VK10.VK_ACCESS_TRANSFER_WRITE_BIT)
+                    .dstAccessMask(0);
+            VK10.vkCmdPipelineBarrier(cmd.vk(), VK10.VK_PIPELINE_STAGE_TRANSFER_BIT, VK10.VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT, 0, null, barrier, null);
+        }
+    }
+
+    public void recordBufferAcquire(CommandBuffer cmd, long buffer, long offset, long size, int dstAccessMask, int dstStage) {
+        try (var stack = MemoryStack.stackPush()) {
+            var barrier = bufferBarrier(stack, buffer, offset, size)
+                    .srcAccessMask(required() ? 0 : VK10.VK_ACCESS_TRANSFER_WRITE_BIT)
+                    .dstAccessMask(dstAccessMask);
+            var srcStage = required() ? VK10.VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT : VK10.VK_PIPELINE_STAGE_TRANSFER_BIT;
+            VK10.vkCmdPipelineBarrier(cmd.vk(), srcStage, dstStage, 0, null, barrier, null);
+        }
+    }
+
+    /**
+     * Releases every mip level of an image, keeping it in {@code layout}.
+     */
+    public void recordImageRelease(CommandBuffer cmd, long image, int mipLevels, int layout) {
+        if (!required()) return;
+        try (var stack = MemoryStack.stackPush()) {
+            var barrier = imageBarrier(stack, image, mipLevels, layout)
+                    .srcAccessMask(VK10.VK_ACCESS_TRANSFER_WRITE_BIT)
+                    .dstAccessMask(0);
+            VK10.vkCmdPipelineBarrier(cmd.vk(), VK10.VK_PIPELINE_STAGE_TRANSFER_BIT, VK10.VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT, 0, null, null, barrier);
+        }
+    }
+
+    public void recordImageAcquire(CommandBuffer cmd, long image, int mipLevels, int layout, int dstAccessMask, int dstStage) {
+        try (var stack = MemoryStack.stackPush()) {
+            var barrier = imageBarrier(stack, image, mipLevels, layout)
+                    .srcAccessMask(required() ? 0 : VK10.VK_ACCESS_TRANSFER_WRITE_BIT)
+                    .dstAccessMask(dstAccessMask);
+            var srcStage = required() ? VK10.VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT : VK10.VK_PIPELINE_STAGE_TRANSFER_BIT;
+            VK10.vkCmdPipelineBarrier(cmd.vk(), srcStage, dstStage, 0, null, null, barrier);
+        }
+    }
+
+    private VkBufferMemoryBarrier.Buffer bufferBarrier(MemoryStack stack, long buffer, long offset, long size) {
+        return VkBufferMemoryBarrier.calloc(1, stack)
+                .sType$Default()
+                .srcQueueFamilyIndex(required() ? srcQueueFamily : VK10.VK_QUEUE_FAMILY_IGNORED)
+                .dstQueueFamilyIndex(required() ? dstQueueFamily : VK10.VK_QUEUE_FAMILY_IGNORED)
+                .buffer(buffer)
+                .offset(offset)
+                .size(size);
+    }
+
+    private VkImageMemoryBarrier.Buffer imageBarrier(MemoryStack stack, long image, int mipLevels, int layout) {
+        return VkImageMemoryBarrier.calloc(1, stack)
+                .sType$Default()
+                .oldLayout(layout)
+                .newLayout(layout)
+                .srcQueueFamilyIndex(required() ? srcQueueFamily : VK10.VK_QUEUE_FAMILY_IGNORED)
+                .dstQueueFamilyIndex(required() ? dstQueueFamily : VK10.VK_QUEUE_FAMILY_IGNORED)
+                .image(image)
+                .subresourceRange(it -> it
+                        .aspectMask(VK10.VK_IMAGE_ASPECT_COLOR_BIT)
+                        .baseMipLevel(0)
+                        .levelCount(mipLevels)
+                        .baseArrayLayer(0)
+                        .layerCount(1));
+    }
+}
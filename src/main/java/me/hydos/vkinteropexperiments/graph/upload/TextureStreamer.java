@@ -0,0 +1,286 @@
+package me.hydos.vkinteropexperiments.graph.upload;
+
+import me.hydos.vkinteropexperiments.graph.LodSelector;
+import me.hydos.vkinteropexperiments.graph.command.CommandBuffer;
+import me.hydos.vkinteropexperiments.graph.image.texture.Texture;
+import me.hydos.vkinteropexperiments.graph.sync.FrameRetirementQueue;
+import me.hydos.vkinteropexperiments.graph.vertex.GpuModel;
+import me.hydos.vkinteropexperiments.memory.Allocator;
+import me.hydos.vkinteropexperiments.memory.VkBuffer;
+import me.hydos.vkinteropexperiments.scene.Scene;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves streamable textures between mip levels based on how large the entities using them appear on screen, keeping
+ * the textures' VRAM under a budget. Textures start at their {@link Texture#streamStartLevel} and are raised one level
+ * at a time. When the budget is exhausted the textures needing the least detail are lowered first.
+ * <p>
+ * Levels are box filtered from the texture's source pixels on a worker thread. The render thread then records the new
+ * residency's upload in front of its frame and retires the old one.
+ */
+public class TextureStreamer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TextureStreamer.class);
+    private static final int UPDATE_INTERVAL_FRAMES = 10;
+    private static final int MAX_PENDING_REQUESTS = 8;
+    private static final int MAX_APPLIED_PER_FRAME = 4;
+    // Room left for everything that isn't a texture when the driver reports a budget
+    private static final long BUDGET_HEADROOM = 256L * 1024 * 1024;
+    private final Allocator allocator;
+    private final FrameRetirementQueue retirements;
+    private final long configuredBudget;
+    private final Map<Texture, State> states = new IdentityHashMap<>();
+    // Unloaded textures retired once the level being staged for them arrives
+    private final Set<Texture> releasing = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ConcurrentLinkedQueue<Staged> staged = new ConcurrentLinkedQueue<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "Texture Streamer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Matrix4f projection = new Matrix4f();
+    private final Vector3f scratch = new Vector3f();
+    private int pendingRequests;
+    private long frame;
+    private long raised;
+    private long lowered;
+
+    /**
+     * @param budget the most VRAM streamable textures may use, further limited by the driver reported budget
+     */
+    public TextureStreamer(Allocator allocator, FrameRetirementQueue retirements, long budget) {
+        this.allocator = allocator;
+        this.retirements = retirements;
+        this.configuredBudget = budget;
+    }
+
+    /**
+     * Works out the level every visible texture needs and requests level changes. Render thread only.
+     */
+    public void update(List<GpuModel> models, Scene scene, int viewportHeight) {
+        if (frame++ % UPDATE_INTERVAL_FRAMES != 0) return;
+
+        var seen = new HashMap<Texture, Float>();
+        projection.set(scene.getProjection());
+        var projectionScale = Math.abs(projection.m11()) * viewportHeight;
+        for (var model : models) {
+            var entities = scene.getEntitiesByModelId(model.name);
+            var pixels = 0f;
+            if (entities != null) for (var entity : entities) pixels = Math.max(pixels, LodSelector.projectedDiameter(entity, model.bounds, projectionScale, scratch));
+
+            for (var material : model.materials) {
+                var texture = material.texture();
+                if (!texture.isStreamable()) continue;
+                seen.merge(texture, pixels, Math::max);
+            }
+        }
+
+        // Pending states stay until their level arrives, so released textures know to wait for it
+        states.entrySet().removeIf(entry -> !entry.getValue().pending && !seen.containsKey(entry.getKey()));
+        for (var entry : seen.entrySet()) {
+            var texture = entry.getKey();
+            var state = states.computeIfAbsent(texture, key -> new State(key.residentLevel()));
+            state.wantedLevel = wantedLevel(texture, entry.getValue());
+        }
+
+        requestChanges();
+    }
+
+    /**
+     * @return the level whose size is closest to one texel per covered pixel
+     */
+    private static int wantedLevel(Texture texture, float pixels) {
+        if (pixels <= 0) return texture.streamStartLevel;
+        var texels = Math.max(texture.width, texture.height);
+        var level = (int) Math.floor(Math.log(texels / pixels) / Math.log(2));
+        return Math.max(0, Math.min(level, texture.streamStartLevel));
+    }
+
+    private void requestChanges() {
+        var budget = effectiveBudget();
+        var committed = 0L;
+        for (var entry : states.entrySet()) committed += entry.getKey().bytesAt(entry.getValue().committedLevel);
+
+        // Over budget: first drop the detail textures no longer need, least needed first
+        var byNeed = new ArrayList<>(states.entrySet());
+        byNeed.sort(Comparator.comparingInt(entry -> -entry.getValue().wantedLevel));
+        for (var entry : byNeed) {
+            if (committed <= budget || pendingRequests >= MAX_PENDING_REQUESTS) break;
+            var state = entry.getValue();
+            if (state.pending || state.committedLevel >= state.wantedLevel) continue;
+            committed -= request(entry.getKey(), state, state.wantedLevel);
+        }
+
+        // Raise the textures furthest from what they need, one level per request
+        var candidates = new ArrayList<Map.Entry<Texture, State>>();
+        for (var entry : states.entrySet()) {
+            var state = entry.getValue();
+            if (!state.pending && state.committedLevel > state.wantedLevel) candidates.add(entry);
+        }
+        candidates.sort(Comparator.comparingInt(entry -> entry.getValue().wantedLevel - entry.getValue().committedLevel));
+
+        for (var entry : candidates) {
+            if (pendingRequests >= MAX_PENDING_REQUESTS) break;
+            var texture = entry.getKey();
+            var state = entry.getValue();
+            var target = state.committedLevel - 1;
+            var extra = texture.bytesAt(target) - texture.bytesAt(state.committedLevel);
+            if (committed + extra > budget) committed -= evictFor(committed + extra - budget, state);
+            if (committed + extra > budget) break;
+            committed -= request(texture, state, target);
+        }
+    }
+
+    /**
+     * Lowers textures that need less detail than {@code beneficiary} until {@code bytes} are freed.
+     *
+     * @return the bytes freed
+     */
+    private long evictFor(long bytes, State beneficiary) {
+        var victims = new ArrayList<Map.Entry<Texture, State>>();
+        for (var entry : states.entrySet()) {
+            var state = entry.getValue();
+            if (state != beneficiary && !state.pending && state.wantedLevel > beneficiary.wantedLevel && state.committedLevel < entry.getKey().streamStartLevel)
+                victims.add(entry);
+        }
+        victims.sort(Comparator.comparingInt(entry -> -entry.getValue().wantedLevel));
+
+        var freed = 0L;
+        for (var entry : victims) {
+            if (freed >= bytes || pendingRequests >= MAX_PENDING_REQUESTS) break;
+            var state = entry.getValue();
+            freed += request(entry.getKey(), state, Math.max(state.wantedLevel, state.committedLevel + 1));
+        }
+        return freed;
+    }
+
+    /**
+     * Stages {@code level} on the worker thread.
+     *
+     * @return the bytes freed, negative when the new level is larger
+     */
+    private long request(Texture texture, State state, int level) {
+        var delta = texture.bytesAt(state.committedLevel) - texture.bytesAt(level);
+        state.committedLevel = level;
+        state.pending = true;
+        pendingRequests++;
+        executor.execute(() -> {
+            try {
+                staged.add(new Staged(texture, level, texture.stageLevel(level)));
+            } catch (Throwable t) {
+                LOGGER.error("Failed to stage level {} of a {}x{} texture", level, texture.width, texture.height, t);
+                staged.add(new Staged(texture, texture.residentLevel(), null));
+            }
+        });
+        return delta;
+    }
+
+    private long effectiveBudget() {
+        var budget = allocator.deviceLocalBudget();
+        var textureBytes = 0L;
+        for (var texture : states.keySet()) textureBytes += texture.residentBytes();
+        var available = textureBytes + budget.budget() - budget.usage() - BUDGET_HEADROOM;
+        return Math.max(0, Math.min(configuredBudget, available));
+    }
+
+    /**
+     * Records the uploads of staged levels and swaps them in. The command buffer must run on the graphics queue
+     * before any frame sampling the returned textures.
+     *
+     * @return textures whose view changed. Their descriptors must be updated
+     */
+    public List<Texture> recordStaged(CommandBuffer cmd) {
+        var changed = new ArrayList<Texture>();
+        Staged next;
+        while (changed.size() < MAX_APPLIED_PER_FRAME && (next = staged.poll()) != null) {
+            pendingRequests--;
+            if (releasing.remove(next.texture())) {
+                if (next.staging() != null) next.staging().close();
+                retirements.retire(next.texture());
+                continue;
+            }
+            var state = states.get(next.texture());
+            if (state != null) state.pending = false;
+            if (next.staging() == null) {
+                if (state != null) state.committedLevel = next.level();
+                continue;
+            }
+
+            var texture = next.texture();
+            var residency = texture.createResidency(next.level());
+            texture.recordResidencyUpload(cmd, residency, next.staging());
+            var old = texture.swapResidency(residency);
+            if (next.level() < old.baseLevel()) raised++;
+            else lowered++;
+            retirements.retire(old);
+            retirements.retire(next.staging());
+            changed.add(texture);
+        }
+        return changed;
+    }
+
+    /**
+     * Stops streaming a texture that was unloaded and retires it. A texture with a level being staged is retired once
+     * that level arrives, since the staging thread may still be reading it.
+     */
+    public void release(Texture texture) {
+        var state = states.remove(texture);
+        if (state != null && state.pending) releasing.add(texture);
+        else retirements.retire(texture);
+    }
+
+    public boolean hasStaged() {
+        return !staged.isEmpty();
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info("Raised {} and lowered {} texture levels", raised, lowered);
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) LOGGER.warn("Timed out waiting for the texture streamer");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        staged.forEach(entry -> {
+            if (entry.staging() != null) entry.staging().close();
+        });
+        staged.clear();
+        releasing.forEach(Texture::close);
+        releasing.clear();
+    }
+
+    private static class State {
+        // Level resident once pending requests finish
+        private int committedLevel;
+        private int wantedLevel;
+        private boolean pending;
+
+        private State(int committedLevel) {
+            this.committedLevel = committedLevel;
+            this.wantedLevel = committedLevel;
+        }
+    }
+
+    private record Staged(
+            Texture texture,
+            int level,
+            VkBuffer staging
+    ) {}
+}
@@ -0,0 +1,127 @@
+package me.hydos.vkinteropexperiments.graph.upload;
+
+import me.hydos.vkinteropexperiments.graph.cache.TextureCache;
+import me.hydos.vkinteropexperiments.graph.command.CommandBuffer;
+import me.hydos.vkinteropexperiments.graph.command.CommandPool;
+import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
+import me.hydos.vkinteropexperiments.graph.setup.Queue;
+import me.hydos.vkinteropexperiments.graph.sync.Fence;
+import me.hydos.vkinteropexperiments.graph.vertex.GpuModel;
+import me.hydos.vkinteropexperiments.graph.vertex.MeshArena;
+import me.hydos.vkinteropexperiments.memory.Allocator;
+import me.hydos.vkinteropexperiments.scene.ModelData;
+import org.lwjgl.system.MemoryStack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads models on the transfer queue from a dedicated thread so loading never blocks rendering. Finished uploads
+ * wait in a queue until the render thread takes them, records their acquire barriers and submits them in front of its
+ * next frame. Only then is the model's future completed.
+ */
+public class UploadScheduler implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UploadScheduler.class);
+    public final QueueOwnershipTransfer ownership;
+    private final Allocator allocator;
+    private final MeshArena arena;
+    private final TextureCache textureCache;
+    private final Queue.Transfer transferQueue;
+    private final CommandPool cmdPool;
+    private final Fence fence;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "Upload Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentLinkedQueue<ReadyUpload> ready = new ConcurrentLinkedQueue<>();
+
+    public UploadScheduler(LogicalDevice logicalDevice, Allocator allocator, MeshArena arena, TextureCache textureCache, Queue.Transfer transferQueue, Queue.Graphics graphicsQueue) {
+        this.allocator = allocator;
+        this.arena = arena;
+        this.textureCache = textureCache;
+        this.transferQueue = transferQueue;
+        this.ownership = new QueueOwnershipTransfer(transferQueue.queueFamilyIndex, graphicsQueue.queueFamilyIndex);
+        this.cmdPool = new CommandPool(logicalDevice, transferQueue.queueFamilyIndex);
+        this.fence = new Fence(logicalDevice, false);
+    }
+
+    /**
+     * @return a future completed on the render thread once the model has been submitted for drawing
+     */
+    public CompletableFuture<GpuModel> upload(ModelData modelData) {
+        var future = new CompletableFuture<GpuModel>();
+        executor.execute(() -> {
+            try {
+                ready.add(new ReadyUpload(uploadNow(modelData), future));
+            } catch (Throwable t) {
+                LOGGER.error("Failed to upload {}", modelData.name(), t);
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private GpuModel.Upload uploadNow(ModelData modelData) {
+        var start = System.nanoTime();
+        var cmd = new CommandBuffer(cmdPool, true, true);
+        GpuModel.Upload upload;
+        try {
+            cmd.beginRecording();
+            upload = GpuModel.recordUpload(modelData, allocator, arena, textureCache, cmd, ownership);
+            cmd.endRecording();
+        } catch (RuntimeException e) {
+            cmd.close();
+            throw e;
+        }
+
+        try (var stack = MemoryStack.stackPush()) {
+            transferQueue.submit(stack.pointers(cmd.vk()), null, null, null, fence);
+            fence.waitForFence();
+            fence.reset();
+        }
+
+        cmd.close();
+        upload.closeStagingBuffers();
+        LOGGER.info("Uploaded {} in {}ms", modelData.name(), (System.nanoTime() - start) / 1_000_000);
+        return upload;
+    }
+
+    /**
+     * Removes every upload that has finished on the transfer queue. Render thread only.
+     */
+    public List<ReadyUpload> takeReady() {
+        var uploads = new ArrayList<ReadyUpload>();
+        ReadyUpload upload;
+        while ((upload = ready.poll()) != null) uploads.add(upload);
+        return uploads;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) LOGGER.warn("Timed out waiting for uploads to finish");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Uploads that never reached the renderer still own ranges of the arena
+        takeReady().forEach(upload -> upload.upload().model().close());
+        fence.close();
+        cmdPool.close();
+    }
+
+    public record ReadyUpload(
+            GpuModel.Upload upload,
+            CompletableFuture<GpuModel> future
+    ) {}
+}
@@ -2,122 +2,154 @@ package me.hydos.vkinteropexperiments.graph.vertex;
 
 import me.hydos.vkinteropexperiments.graph.cache.TextureCache;
 import me.hydos.vkinteropexperiments.graph.command.CommandBuffer;
-import me.hydos.vkinteropexperiments.graph.command.CommandPool;
-import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
-import me.hydos.vkinteropexperiments.graph.setup.Queue;
-import me.hydos.vkinteropexperiments.graph.sync.Fence;
 import me.hydos.vkinteropexperiments.graph.image.texture.Texture;
+import me.hydos.vkinteropexperiments.graph.upload.QueueOwnershipTransfer;
+import me.hydos.vkinteropexperiments.memory.Allocator;
 import me.hydos.vkinteropexperiments.memory.VkBuffer;
 import me.hydos.vkinteropexperiments.scene.ModelData;
-import org.lwjgl.system.MemoryStack;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
 import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkBufferCopy;
 
-import java.awt.image.BufferedImage;
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class GpuModel implements Closeable {
 
     public final String name;
     public final List<Material> materials = new ArrayList<>();
+    // Model space box and sphere around every vertex, used for culling and picking detail levels
+    public final Bounds bounds;
+    // Maps packed vertex positions back to model space, applied before the entity transform. Null for float vertices
+    public final Matrix4fc dequantization;
+    private final MeshArena arena;
 
-    public GpuModel(String name) {
+    public GpuModel(String name, MeshArena arena, Bounds bounds, Matrix4fc dequantization) {
         this.name = name;
+        this.arena = arena;
+        this.bounds = bounds;
+        this.dequantization = dequantization;
     }
 
-    private static TransferBuffers createIndexBuffers(LogicalDevice logicalDevice, ModelData.MeshData meshData) {
-        int[] indices = meshData.indices();
-        int numIndices = indices.length;
-        int bufferSize = numIndices * Integer.BYTES;
-
-        VkBuffer srcBuffer = new VkBuffer(logicalDevice, bufferSize, VK10.VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
-        VkBuffer dstBuffer = new VkBuffer(logicalDevice, bufferSize, VK10.VK_BUFFER_USAGE_TRANSFER_DST_BIT | VK10.VK_BUFFER_USAGE_INDEX_BUFFER_BIT, VK10.VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT);
-
-        long mappedMemory = srcBuffer.map();
-        var data = MemoryUtil.memIntBuffer(mappedMemory, (int) srcBuffer.requestedSize);
-        data.put(indices);
-        srcBuffer.unMap();
-
-        return new TransferBuffers(srcBuffer, dstBuffer);
+    /**
+     * @return {@code transform} followed by the dequantization, written to {@code dst}, or {@code transform} itself
+     * when vertices are not packed
+     */
+    public Matrix4f vertexTransform(Matrix4f transform, Matrix4f dst) {
+        return dequantization == null ? transform : transform.mul(dequantization, dst);
     }
 
-    private static TransferBuffers createVertexBuffers(LogicalDevice logicalDevice, ModelData.MeshData meshData) {
-        float[] positions = meshData.positions();
-        float[] uvs = meshData.uvs();
-        if (uvs == null || uvs.length == 0) uvs = new float[(positions.length / 3) * 2];
-
-        var elementCount = positions.length + uvs.length;
-        var bufferSize = elementCount * Float.BYTES;
-
-        var srcBuffer = new VkBuffer(logicalDevice, bufferSize, VK10.VK_BUFFER_USAGE_TRANSFER_SRC_BIT, VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
-        var dstBuffer = new VkBuffer(logicalDevice, bufferSize, VK10.VK_BUFFER_USAGE_TRANSFER_DST_BIT | VK10.VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, VK10.VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT);
-
-        var mappedMemory = srcBuffer.map();
-        var data = MemoryUtil.memFloatBuffer(mappedMemory, (int) srcBuffer.requestedSize);
-
-        int rows = positions.length / 3;
-        for (var row = 0; row < rows; row++) {
-            var startPos = row * 3;
-            var startTextCoord = row * 2;
-            data.put(positions[startPos]);
-            data.put(positions[startPos + 1]);
-            data.put(positions[startPos + 2]);
-            data.put(uvs[startTextCoord]);
-            data.put(uvs[startTextCoord + 1]);
-        }
+    /**
+     * Meshes without vertices or indices draw nothing, and would only produce zero sized copies and barriers.
+     */
+    private static boolean isEmpty(ModelData.MeshData meshData) {
+        return meshData.positions().length < 3 || meshData.indices().length == 0;
+    }
 
-        srcBuffer.unMap();
-        return new TransferBuffers(srcBuffer, dstBuffer);
+    /**
+     * @return the index count of the full mesh and all its detail levels, which are stored back to back
+     */
+    private static int totalIndexCount(ModelData.MeshData meshData) {
+        var count = meshData.indices().length;
+        for (var lod : meshData.lods()) count += lod.length;
+        return count;
     }
 
-    private static void recordTransferCommand(CommandBuffer cmd, TransferBuffers transferBuffers) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            var copyRegion = VkBufferCopy.calloc(1, stack)
-                    .srcOffset(0)
-                    .dstOffset(0)
-                    .size(transferBuffers.srcBuffer().requestedSize);
+    private static List<int[]> levels(ModelData.MeshData meshData) {
+        var levels = new ArrayList<int[]>(meshData.lods().size() + 1);
+        levels.add(meshData.indices());
+        levels.addAll(meshData.lods());
+        return levels;
+    }
 
-            VK10.vkCmdCopyBuffer(cmd.vk(), transferBuffers.srcBuffer().buffer, transferBuffers.dstBuffer().buffer, copyRegion);
+    private static void writeIndices(long address, int[] indices, int indexType) {
+        if (indexType == VK10.VK_INDEX_TYPE_UINT32) {
+            MemoryUtil.memIntBuffer(address, indices.length).put(indices);
+            return;
         }
+        for (var i = 0; i < indices.length; i++) MemoryUtil.memPutShort(address + (long) i * Short.BYTES, (short) indices[i]);
     }
 
-    private static Material transformMaterial(BufferedImage material, LogicalDevice logicalDevice, TextureCache cache, CommandBuffer cmdBuffer, List<Texture> textures) {
-        var texture = cache.createTexture(logicalDevice, material, VK10.VK_FORMAT_R8G8B8A8_SRGB, false);
-        texture.recordTransition(cmdBuffer);
+    private static Material transformMaterial(ModelData.TextureData material, Allocator allocator, TextureCache cache, CommandBuffer cmdBuffer, QueueOwnershipTransfer ownership, List<Texture> textures) {
+        var texture = cache.createTexture(allocator, material, VK10.VK_FORMAT_R8G8B8A8_SRGB, false);
         textures.add(texture);
+        texture.recordUpload(cmdBuffer, ownership);
         return new Material(texture, new ArrayList<>());
     }
 
-    public static List<GpuModel> transformModels(List<ModelData> modelDataList, TextureCache cache, CommandPool cmdPool, Queue queue) {
-        var gpuModels = new ArrayList<GpuModel>();
-        var logicalDevice = cmdPool.logicalDevice;
-        var cmd = new CommandBuffer(cmdPool, true, true);
-        var stagingBufferList = new ArrayList<VkBuffer>();
+    /**
+     * Records the copies of a model's meshes and textures into a transfer queue command buffer, followed by the
+     * release half of the ownership transfer. The returned upload records the acquire half once the copies are done.
+     */
+    public static Upload recordUpload(ModelData modelData, Allocator allocator, MeshArena arena, TextureCache cache, CommandBuffer cmd, QueueOwnershipTransfer ownership) {
         var textures = new ArrayList<Texture>();
 
-        cmd.beginRecording();
-        for (var modelData : modelDataList) {
-            var vulkanModel = new GpuModel(modelData.name());
-            gpuModels.add(vulkanModel);
+        var stagingSize = 0L;
+        var meshCount = 0;
+        for (var meshData : modelData.meshes()) {
+            if (isEmpty(meshData)) continue;
+            meshCount++;
+            var vertexCount = meshData.positions().length / 3;
+            stagingSize += (long) vertexCount * arena.vertexStride;
+            stagingSize += (long) totalIndexCount(meshData) * MeshArena.indexSize(MeshArena.indexType(vertexCount));
+        }
 
+        // Everything goes through one staging buffer and two multi-region copies into the arena
+        var stagingBuffer = new VkBuffer(allocator, Math.max(stagingSize, 1), VK10.VK_BUFFER_USAGE_TRANSFER_SRC_BIT, Allocator.MemoryUsage.STAGING);
+        var vertexCopies = VkBufferCopy.calloc(Math.max(meshCount, 1));
+        var indexCopies = VkBufferCopy.calloc(Math.max(meshCount, 1));
+        var allocations = new ArrayList<MeshArena.Allocation>();
+        try {
+            var stagingAddress = stagingBuffer.map();
+            var stagingOffset = 0L;
+
+            var format = arena.vertexFormat;
+            var bounds = Bounds.of(modelData);
+            var center = new float[]{bounds.center().x(), bounds.center().y(), bounds.center().z()};
+            // Flat axes still need something to divide by
+            var halfExtent = new float[3];
+            for (var axis = 0; axis < 3; axis++) halfExtent[axis] = bounds.halfExtent().get(axis) > 0 ? bounds.halfExtent().get(axis) : 1;
+            var dequantization = format.isPacked() ? new Matrix4f().translation(center[0], center[1], center[2]).scale(halfExtent[0], halfExtent[1], halfExtent[2]) : null;
+            var vulkanModel = new GpuModel(modelData.name(), arena, bounds, dequantization);
             var defaultVulkanMaterial = (Material) null;
             for (var material : modelData.materials()) {
-                var vulkanMaterial = transformMaterial(material, logicalDevice, cache, cmd, textures);
+                var vulkanMaterial = transformMaterial(material, allocator, cache, cmd, ownership, textures);
                 vulkanModel.materials.add(vulkanMaterial);
             }
 
             for (var meshData : modelData.meshes()) {
-                var verticesBuffers = createVertexBuffers(logicalDevice, meshData);
-                var indicesBuffers = createIndexBuffers(logicalDevice, meshData);
-                stagingBufferList.add(verticesBuffers.srcBuffer());
-                stagingBufferList.add(indicesBuffers.srcBuffer());
-                recordTransferCommand(cmd, verticesBuffers);
-                recordTransferCommand(cmd, indicesBuffers);
-
-                var vulkanMesh = new Mesh(verticesBuffers.dstBuffer(), indicesBuffers.dstBuffer(), meshData.indices().length);
+                if (isEmpty(meshData)) continue;
+                var vertexCount = meshData.positions().length / 3;
+                var allocation = arena.allocate(vertexCount, totalIndexCount(meshData));
+                allocations.add(allocation);
+                var indexSize = MeshArena.indexSize(allocation.indexType());
+                var firstIndex = (int) (allocation.indexByteOffset() / indexSize);
+
+                VertexPacker.write(format, stagingAddress + stagingOffset, meshData, center, halfExtent);
+                vertexCopies.get().srcOffset(stagingOffset).dstOffset(allocation.vertexByteOffset()).size(allocation.vertexByteSize());
+                stagingOffset += allocation.vertexByteSize();
+
+                var lods = new ArrayList<Lod>();
+                var lodOffset = 0;
+                for (var indices : levels(meshData)) {
+                    writeIndices(stagingAddress + stagingOffset + (long) lodOffset * indexSize, indices, allocation.indexType());
+                    lods.add(new Lod(indices.length, firstIndex + lodOffset));
+                    lodOffset += indices.length;
+                }
+                indexCopies.get().srcOffset(stagingOffset).dstOffset(allocation.indexByteOffset()).size(allocation.indexByteSize());
+                stagingOffset += allocation.indexByteSize();
+
+                var vulkanMesh = new Mesh(
+                        allocation,
+                        (int) (allocation.vertexByteOffset() / arena.vertexStride),
+                        List.copyOf(lods)
+                );
                 var vulkanMaterial = (Material) null;
                 var materialIdx = meshData.materialIdx();
 
@@ -125,49 +157,150 @@ public class GpuModel implements Closeable {
                     vulkanMaterial = vulkanModel.materials.get(materialIdx);
                 else {
                     if (defaultVulkanMaterial == null)
-                        defaultVulkanMaterial = transformMaterial(TextureCache.MISSING, logicalDevice, cache, cmd, textures);
+                        defaultVulkanMaterial = transformMaterial(TextureCache.MISSING, allocator, cache, cmd, ownership, textures);
                     vulkanMaterial = defaultVulkanMaterial;
                 }
 
                 vulkanMaterial.meshes.add(vulkanMesh);
             }
+            // Added last so it can't shift the indices meshes refer to. Holds meshes without a valid material
+            if (defaultVulkanMaterial != null) vulkanModel.materials.add(defaultVulkanMaterial);
+            stagingBuffer.unMap();
+
+            if (meshCount > 0) {
+                VK10.vkCmdCopyBuffer(cmd.vk(), stagingBuffer.buffer, arena.vertexBuffer.buffer, vertexCopies.flip());
+                VK10.vkCmdCopyBuffer(cmd.vk(), stagingBuffer.buffer, arena.indexBuffer.buffer, indexCopies.flip());
+            }
+            vulkanModel.forEachMesh(mesh -> {
+                var allocation = mesh.allocation();
+                ownership.recordBufferRelease(cmd, arena.vertexBuffer.buffer, allocation.vertexByteOffset(), allocation.vertexByteSize());
+                ownership.recordBufferRelease(cmd, arena.indexBuffer.buffer, allocation.indexByteOffset(), allocation.indexByteSize());
+            });
+
+            return new Upload(vulkanModel, stagingBuffer, textures);
+        } catch (RuntimeException e) {
+            // Nothing has been submitted yet, so everything taken so far can be given back straight away
+            allocations.forEach(arena::free);
+            stagingBuffer.close();
+            for (var texture : textures) {
+                texture.closeStagingBuffer();
+                if (cache.release(texture)) texture.close();
+            }
+            throw e;
+        } finally {
+            vertexCopies.free();
+            indexCopies.free();
         }
-        cmd.endRecording();
+    }
+
+    /**
+     * @return the most detail levels any of the model's meshes has, at least 1
+     */
+    public int lodCount() {
+        var count = 1;
+        for (var material : materials) for (var mesh : material.meshes) count = Math.max(count, mesh.lods().size());
+        return count;
+    }
 
-        try (var stack = MemoryStack.stackPush()) {
-            var fence = new Fence(logicalDevice, true);
-            fence.reset();
-            queue.submit(stack.pointers(cmd.vk()), null, null, null, fence);
-            fence.waitForFence();
+    private void forEachMesh(Consumer<Mesh> consumer) {
+        materials.forEach(material -> material.meshes.forEach(consumer));
+    }
+
+    @Override
+    public void close() {
+        forEachMesh(mesh -> arena.free(mesh.allocation()));
+    }
 
-            fence.close();
-            cmd.close();
-            stagingBufferList.forEach(VkBuffer::close);
+    /**
+     * A model whose copies have been recorded on the transfer queue but which the graphics queue does not own yet.
+     */
+    public record Upload(
+            GpuModel model,
+            VkBuffer stagingBuffer,
+            List<Texture> textures
+    ) {
+        /**
+         * Call once the transfer submission has completed.
+         */
+        public void closeStagingBuffers() {
+            stagingBuffer.close();
             textures.forEach(Texture::closeStagingBuffer);
         }
 
-        return gpuModels;
+        public void recordAcquire(CommandBuffer cmd, QueueOwnershipTransfer ownership) {
+            var arena = model.arena;
+            model.forEachMesh(mesh -> {
+                var allocation = mesh.allocation();
+                ownership.recordBufferAcquire(cmd, arena.vertexBuffer.buffer, allocation.vertexByteOffset(), allocation.vertexByteSize(), VK10.VK_ACCESS_VERTEX_ATTRIBUTE_READ_BIT, VK10.VK_PIPELINE_STAGE_VERTEX_INPUT_BIT);
+                ownership.recordBufferAcquire(cmd, arena.indexBuffer.buffer, allocation.indexByteOffset(), allocation.indexByteSize(), VK10.VK_ACCESS_INDEX_READ_BIT, VK10.VK_PIPELINE_STAGE_VERTEX_INPUT_BIT);
+            });
+            textures.forEach(texture -> texture.recordAcquire(cmd, ownership));
+        }
     }
 
-    @Override
-    public void close() {
-        materials.forEach(material -> material.meshes.forEach(Mesh::close));
+    /**
+     * A range of the shared {@link MeshArena}. {@code vertexOffset} is in elements, ready to be passed to an indexed
+     * draw together with one of the detail levels.
+     *
+     * @param lods the full mesh followed by its coarser levels, all sharing the same vertices
+     */
+    public record Mesh(
+            MeshArena.Allocation allocation,
+            int vertexOffset,
+            List<Lod> lods
+    ) {
+        public int indexType() {
+            return allocation.indexType();
+        }
+
+        /**
+         * @return the requested level, or the coarsest one when the mesh has fewer
+         */
+        public Lod lod(int level) {
+            return lods.get(Math.min(level, lods.size() - 1));
+        }
     }
 
-    private record TransferBuffers(
-            VkBuffer srcBuffer,
-            VkBuffer dstBuffer
+    /**
+     * One detail level of a {@link Mesh}. {@code firstIndex} is in elements.
+     */
+    public record Lod(
+            int indexCount,
+            int firstIndex
     ) {}
 
-    public record Mesh(
-            VkBuffer verticesBuffer,
-            VkBuffer indicesBuffer,
-            int indexCount
-    ) implements Closeable {
-        @Override
-        public void close() {
-            verticesBuffer.close();
-            indicesBuffer.close();
+    /**
+     * The box around every vertex of a model and the smallest sphere around that box's centre containing them all,
+     * which is usually much tighter than a sphere around the origin.
+     */
+    public record Bounds(
+            Vector3fc center,
+            Vector3fc halfExtent,
+            float radius
+    ) {
+        public static Bounds of(ModelData modelData) {
+            var min = new Vector3f(Float.MAX_VALUE);
+            var max = new Vector3f(-Float.MAX_VALUE);
+            var vertex = new Vector3f();
+            for (var meshData : modelData.meshes()) {
+                var positions = meshData.positions();
+                for (var i = 0; i + 2 < positions.length; i += 3) {
+                    vertex.set(positions[i], positions[i + 1], positions[i + 2]);
+                    min.min(vertex);
+                    max.max(vertex);
+                }
+            }
+            if (min.x > max.x) return new Bounds(new Vector3f(), new Vector3f(), 0);
+
+            var center = new Vector3f(min).add(max).mul(0.5f);
+            var halfExtent = new Vector3f(max).sub(min).mul(0.5f);
+            var radiusSquared = 0f;
+            for (var meshData : modelData.meshes()) {
+                var positions = meshData.positions();
+                for (var i = 0; i + 2 < positions.length; i += 3)
+                    radiusSquared = Math.max(radiusSquared, center.distanceSquared(positions[i], positions[i + 1], positions[i + 2]));
+            }
+            return new Bounds(center, halfExtent, (float) Math.sqrt(radiusSquared));
         }
     }
 
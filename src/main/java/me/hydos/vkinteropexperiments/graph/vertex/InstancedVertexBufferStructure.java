@@ -0,0 +1,65 @@
+package me.hydos.vkinteropexperiments.graph.vertex;
+
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VkPipelineVertexInputStateCreateInfo;
+import org.lwjgl.vulkan.VkVertexInputAttributeDescription;
+import org.lwjgl.vulkan.VkVertexInputBindingDescription;
+
+/**
+ * Same per-vertex layout as {@link VertexBufferStructure} on binding 0, plus a per-instance model matrix on binding 1.
+ * The matrix takes one location per column (3 to 6).
+ */
+public class InstancedVertexBufferStructure implements VertexInputStateInfo {
+    public static final int INSTANCE_BINDING = 1;
+    public static final int INSTANCE_SIZE = 4 * 4 * Float.BYTES;
+    private static final int NUMBER_OF_ATTRIBUTES = VertexFormat.ATTRIBUTE_COUNT + 4;
+    private static final int VEC4_SIZE = 4 * Float.BYTES;
+    private final VkPipelineVertexInputStateCreateInfo vertexInput;
+    private final VkVertexInputAttributeDescription.Buffer vertInAttribs;
+    private final VkVertexInputBindingDescription.Buffer vertInBindings;
+
+    public InstancedVertexBufferStructure(VertexFormat format) {
+        this.vertInAttribs = VkVertexInputAttributeDescription.calloc(NUMBER_OF_ATTRIBUTES);
+        this.vertInBindings = VkVertexInputBindingDescription.calloc(2);
+        this.vertexInput = VkPipelineVertexInputStateCreateInfo.calloc();
+
+        format.describe(vertInAttribs);
+
+        // Model matrix columns
+        for (var column = 0; column < 4; column++) {
+            var i = VertexFormat.ATTRIBUTE_COUNT + column;
+            vertInAttribs.get(i)
+                    .binding(INSTANCE_BINDING)
+                    .location(i)
+                    .format(VK10.VK_FORMAT_R32G32B32A32_SFLOAT)
+                    .offset(column * VEC4_SIZE);
+        }
+
+        vertInBindings.get(0)
+                .binding(0)
+                .stride(format.stride)
+                .inputRate(VK10.VK_VERTEX_INPUT_RATE_VERTEX);
+
+        vertInBindings.get(1)
+                .binding(INSTANCE_BINDING)
+                .stride(INSTANCE_SIZE)
+                .inputRate(VK10.VK_VERTEX_INPUT_RATE_INSTANCE);
+
+        vertexInput
+                .sType$Default()
+                .pVertexBindingDescriptions(vertInBindings)
+                .pVertexAttributeDescriptions(vertInAttribs);
+    }
+
+    @Override
+    public VkPipelineVertexInputStateCreateInfo getVertexInput() {
+        return vertexInput;
+    }
+
+    @Override
+    public void close() {
+        VertexInputStateInfo.super.close();
+        vertInBindings.free();
+        vertInAttribs.free();
+    }
+}
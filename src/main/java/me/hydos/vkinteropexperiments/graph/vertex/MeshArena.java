@@ -0,0 +1,81 @@
+package me.hydos.vkinteropexperiments.graph.vertex;
+
+import me.hydos.vkinteropexperiments.memory.Allocator;
+import me.hydos.vkinteropexperiments.memory.RangeAllocator;
+import me.hydos.vkinteropexperiments.memory.VkBuffer;
+import org.lwjgl.vulkan.VK10;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+
+/**
+ * One large vertex buffer and one large index buffer shared by every mesh. Meshes only own offsets into them, so the
+ * renderer binds vertex and index data once per frame and draws with firstIndex/vertexOffset. Meshes with few enough
+ * vertices store 16 bit indices, the index buffer is rebound with the matching type when draws switch between them.
+ */
+public class MeshArena implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MeshArena.class);
+    // Meshes up to this many vertices get 16 bit indices. Primitive restart is never enabled so 0xFFFF is a valid index
+    public static final int MAX_UINT16_VERTICES = 1 << 16;
+    public final VertexFormat vertexFormat;
+    public final int vertexStride;
+    public final VkBuffer vertexBuffer;
+    public final VkBuffer indexBuffer;
+    private final RangeAllocator vertexRanges;
+    private final RangeAllocator indexRanges;
+
+    public MeshArena(Allocator allocator, VertexFormat vertexFormat, long vertexCapacity, long indexCapacity) {
+        LOGGER.info("Creating MeshArena ({} KiB {} vertices, {} KiB indices)", vertexCapacity / 1024, vertexFormat, indexCapacity / 1024);
+        this.vertexFormat = vertexFormat;
+        this.vertexStride = vertexFormat.stride;
+        this.vertexBuffer = new VkBuffer(allocator, vertexCapacity, VK10.VK_BUFFER_USAGE_TRANSFER_DST_BIT | VK10.VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, Allocator.MemoryUsage.GPU_ONLY);
+        this.indexBuffer = new VkBuffer(allocator, indexCapacity, VK10.VK_BUFFER_USAGE_TRANSFER_DST_BIT | VK10.VK_BUFFER_USAGE_INDEX_BUFFER_BIT, Allocator.MemoryUsage.GPU_ONLY);
+        this.vertexRanges = new RangeAllocator(vertexCapacity);
+        this.indexRanges = new RangeAllocator(indexCapacity);
+    }
+
+    public static int indexType(int vertexCount) {
+        return vertexCount <= MAX_UINT16_VERTICES ? VK10.VK_INDEX_TYPE_UINT16 : VK10.VK_INDEX_TYPE_UINT32;
+    }
+
+    public static int indexSize(int indexType) {
+        return indexType == VK10.VK_INDEX_TYPE_UINT16 ? Short.BYTES : Integer.BYTES;
+    }
+
+    public Allocation allocate(int vertexCount, int indexCount) {
+        var indexType = indexType(vertexCount);
+        var elementSize = indexSize(indexType);
+        var vertexSize = (long) vertexCount * vertexStride;
+        var indexSize = (long) indexCount * elementSize;
+        var vertexOffset = vertexRanges.allocate(vertexSize, vertexStride);
+        long indexOffset;
+        try {
+            indexOffset = indexRanges.allocate(indexSize, elementSize);
+        } catch (RuntimeException e) {
+            vertexRanges.free(vertexOffset, vertexSize);
+            throw e;
+        }
+        return new Allocation(vertexOffset, vertexSize, indexOffset, indexSize, indexType);
+    }
+
+    public void free(Allocation allocation) {
+        vertexRanges.free(allocation.vertexByteOffset(), allocation.vertexByteSize());
+        indexRanges.free(allocation.indexByteOffset(), allocation.indexByteSize());
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info("Closing (vertices: {}, indices: {})", vertexRanges, indexRanges);
+        vertexBuffer.close();
+        indexBuffer.close();
+    }
+
+    public record Allocation(
+            long vertexByteOffset,
+            long vertexByteSize,
+            long indexByteOffset,
+            long indexByteSize,
+            int indexType
+    ) {}
+}
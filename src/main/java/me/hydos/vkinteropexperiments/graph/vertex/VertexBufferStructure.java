@@ -5,38 +5,24 @@ import org.lwjgl.vulkan.VkPipelineVertexInputStateCreateInfo;
 import org.lwjgl.vulkan.VkVertexInputAttributeDescription;
 import org.lwjgl.vulkan.VkVertexInputBindingDescription;
 
+/**
+ * Per-vertex data on binding 0, laid out as the {@link VertexFormat} describes.
+ */
 public class VertexBufferStructure implements VertexInputStateInfo {
-    private static final int NUMBER_OF_ATTRIBUTES = 2;
-    private static final int POS_SIZE = 3 * Float.BYTES;
-    public static final int UV_SIZE = 2 * Float.BYTES;
     private final VkPipelineVertexInputStateCreateInfo vertexInput;
     private final VkVertexInputAttributeDescription.Buffer vertInAttribs;
     private final VkVertexInputBindingDescription.Buffer vertInBindings;
 
-    public VertexBufferStructure() {
-        this.vertInAttribs = VkVertexInputAttributeDescription.calloc(NUMBER_OF_ATTRIBUTES);
+    public VertexBufferStructure(VertexFormat format) {
+        this.vertInAttribs = VkVertexInputAttributeDescription.calloc(VertexFormat.ATTRIBUTE_COUNT);
         this.vertInBindings = VkVertexInputBindingDescription.calloc(1);
         this.vertexInput = VkPipelineVertexInputStateCreateInfo.calloc();
 
-        var i = 0;
-        // Position
-        vertInAttribs.get(i)
-                .binding(0)
-                .location(i)
-                .format(VK10.VK_FORMAT_R32G32B32_SFLOAT)
-                .offset(0);
-
-        // UV's
-        i++;
-        vertInAttribs.get(i)
-                .binding(0)
-                .location(i)
-                .format(VK10.VK_FORMAT_R32G32_SFLOAT)
-                .offset(POS_SIZE);
+        format.describe(vertInAttribs);
 
         vertInBindings.get(0)
                 .binding(0)
-                .stride(POS_SIZE + UV_SIZE)
+                .stride(format.stride)
                 .inputRate(VK10.VK_VERTEX_INPUT_RATE_VERTEX);
 
         vertexInput
@@ -0,0 +1,71 @@
+package me.hydos.vkinteropexperiments.graph.vertex;
+
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VkVertexInputAttributeDescription;
+
+/**
+ * How a vertex is laid out in the {@link MeshArena}. Every format has a position (location 0), a UV (location 1) and an
+ * octahedral encoded normal (location 2) on binding 0. Packed positions are stored relative to the model's bounds and
+ * expanded again by {@link GpuModel#dequantization}.
+ */
+public enum VertexFormat {
+    /**
+     * 32 bit float positions and UVs, 24 bytes.
+     */
+    FLOAT(VK10.VK_FORMAT_R32G32B32_SFLOAT, 3 * Float.BYTES, VK10.VK_FORMAT_R32G32_SFLOAT, 2 * Float.BYTES),
+    /**
+     * Half float positions and UVs, 16 bytes. UVs may leave [0, 1].
+     */
+    HALF(VK10.VK_FORMAT_R16G16B16A16_SFLOAT, 4 * Short.BYTES, VK10.VK_FORMAT_R16G16_SFLOAT, 2 * Short.BYTES),
+    /**
+     * snorm16 positions and half float UVs, 16 bytes. UVs keep the half float range so tiling UVs outside [0, 1]
+     * survive.
+     */
+    QUANTIZED(VK10.VK_FORMAT_R16G16B16A16_SNORM, 4 * Short.BYTES, VK10.VK_FORMAT_R16G16_SFLOAT, 2 * Short.BYTES);
+
+    public static final int ATTRIBUTE_COUNT = 3;
+    public static final int NORMAL_SIZE = 2 * Short.BYTES;
+    public final int positionFormat;
+    public final int positionSize;
+    public final int uvFormat;
+    public final int uvSize;
+    public final int stride;
+
+    VertexFormat(int positionFormat, int positionSize, int uvFormat, int uvSize) {
+        this.positionFormat = positionFormat;
+        this.positionSize = positionSize;
+        this.uvFormat = uvFormat;
+        this.uvSize = uvSize;
+        this.stride = positionSize + uvSize + NORMAL_SIZE;
+    }
+
+    /**
+     * Whether positions are stored relative to the model bounds.
+     */
+    public boolean isPacked() {
+        return this != FLOAT;
+    }
+
+    /**
+     * Fills the first {@link #ATTRIBUTE_COUNT} descriptions of {@code attribs} with locations 0 to 2 on binding 0.
+     */
+    void describe(VkVertexInputAttributeDescription.Buffer attribs) {
+        attribs.get(0)
+                .binding(0)
+                .location(0)
+                .format(positionFormat)
+                .offset(0);
+
+        attribs.get(1)
+                .binding(0)
+                .location(1)
+                .format(uvFormat)
+                .offset(positionSize);
+
+        attribs.get(2)
+                .binding(0)
+                .location(2)
+                .format(VK10.VK_FORMAT_R16G16_SNORM)
+                .offset(positionSize + uvSize);
+    }
+}
@@ -0,0 +1,114 @@
+package me.hydos.vkinteropexperiments.graph.vertex;
+
+import me.hydos.vkinteropexperiments.scene.ModelData;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Writes {@link ModelData.MeshData} vertices in a {@link VertexFormat}. Packed formats store positions relative to the
+ * model's bounds, so every mesh of a model shares one dequantization transform.
+ */
+public final class VertexPacker {
+
+    private VertexPacker() {}
+
+    /**
+     * @param center     centre of the model bounds, ignored by {@link VertexFormat#FLOAT}
+     * @param halfExtent half the size of the model bounds on each axis, never 0
+     */
+    public static void write(VertexFormat format, long address, ModelData.MeshData meshData, float[] center, float[] halfExtent) {
+        var positions = meshData.positions();
+        var uvs = meshData.uvs();
+        var normals = meshData.normals();
+        var vertexCount = positions.length / 3;
+        var hasUvs = uvs != null && uvs.length >= vertexCount * 2;
+        var hasNormals = normals != null && normals.length >= vertexCount * 3;
+
+        for (var i = 0; i < vertexCount; i++) {
+            var vertex = address + (long) i * format.stride;
+            var x = positions[i * 3];
+            var y = positions[i * 3 + 1];
+            var z = positions[i * 3 + 2];
+            var u = hasUvs ? uvs[i * 2] : 0;
+            var v = hasUvs ? uvs[i * 2 + 1] : 0;
+
+            switch (format) {
+                case FLOAT -> {
+                    MemoryUtil.memPutFloat(vertex, x);
+                    MemoryUtil.memPutFloat(vertex + 4, y);
+                    MemoryUtil.memPutFloat(vertex + 8, z);
+                    MemoryUtil.memPutFloat(vertex + 12, u);
+                    MemoryUtil.memPutFloat(vertex + 16, v);
+                }
+                case HALF -> {
+                    MemoryUtil.memPutShort(vertex, toHalf((x - center[0]) / halfExtent[0]));
+                    MemoryUtil.memPutShort(vertex + 2, toHalf((y - center[1]) / halfExtent[1]));
+                    MemoryUtil.memPutShort(vertex + 4, toHalf((z - center[2]) / halfExtent[2]));
+                    MemoryUtil.memPutShort(vertex + 6, toHalf(1));
+                    MemoryUtil.memPutShort(vertex + 8, toHalf(u));
+                    MemoryUtil.memPutShort(vertex + 10, toHalf(v));
+                }
+                case QUANTIZED -> {
+                    MemoryUtil.memPutShort(vertex, snorm16((x - center[0]) / halfExtent[0]));
+                    MemoryUtil.memPutShort(vertex + 2, snorm16((y - center[1]) / halfExtent[1]));
+                    MemoryUtil.memPutShort(vertex + 4, snorm16((z - center[2]) / halfExtent[2]));
+                    MemoryUtil.memPutShort(vertex + 6, Short.MAX_VALUE);
+                    MemoryUtil.memPutShort(vertex + 8, toHalf(u));
+                    MemoryUtil.memPutShort(vertex + 10, toHalf(v));
+                }
+            }
+
+            var normal = hasNormals ? octNormal(normals[i * 3], normals[i * 3 + 1], normals[i * 3 + 2]) : 0;
+            MemoryUtil.memPutInt(vertex + format.positionSize + format.uvSize, normal);
+        }
+    }
+
+    /**
+     * Encodes a unit vector on the octahedron, folding the lower half over the upper one.
+     *
+     * @return two snorm16 values, x in the low half
+     */
+    static int octNormal(float x, float y, float z) {
+        var length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (length < 1e-12f) return 0;
+        var octX = x / length;
+        var octY = y / length;
+        if (z < 0) {
+            var foldedX = (1 - Math.abs(octY)) * (octX >= 0 ? 1 : -1);
+            var foldedY = (1 - Math.abs(octX)) * (octY >= 0 ? 1 : -1);
+            octX = foldedX;
+            octY = foldedY;
+        }
+        return (snorm16(octX) & 0xFFFF) | snorm16(octY) << 16;
+    }
+
+    static short snorm16(float value) {
+        return (short) Math.round(Math.max(-1, Math.min(1, value)) * Short.MAX_VALUE);
+    }
+
+    /**
+     * Rounds to the nearest IEEE half float. Out of range values become infinity, tiny ones subnormals or zero.
+     */
+    static short toHalf(float value) {
+        var bits = Float.floatToRawIntBits(value);
+        var sign = (bits >>> 16) & 0x8000;
+        var floatExponent = (bits >>> 23) & 0xFF;
+        var mantissa = bits & 0x7FFFFF;
+        if (floatExponent == 0xFF) return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+
+        var exponent = floatExponent - 127 + 15;
+        if (exponent >= 0x1F) return (short) (sign | 0x7C00);
+        if (exponent <= 0) {
+            if (exponent < -10) return (short) sign;
+            var shift = 14 - exponent;
+            mantissa |= 0x800000;
+            var half = mantissa >> shift;
+            if (((mantissa >> (shift - 1)) & 1) != 0) half++;
+            return (short) (sign | half);
+        }
+
+        // A carry out of the mantissa correctly bumps the exponent
+        var half = sign | exponent << 10 | mantissa >> 13;
+        if ((mantissa & 0x1000) != 0) half++;
+        return (short) half;
+    }
+}
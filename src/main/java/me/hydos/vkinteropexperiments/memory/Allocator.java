@@ -1,17 +1,38 @@
 package me.hydos.vkinteropexperiments.memory;
 
+import me.hydos.vkinteropexperiments.graph.VkObjectHolder;
 import me.hydos.vkinteropexperiments.graph.setup.Instance;
 import me.hydos.vkinteropexperiments.graph.setup.LogicalDevice;
 import me.hydos.vkinteropexperiments.graph.setup.PhysicalDevice;
 import org.lwjgl.system.MemoryStack;
-import org.lwjgl.util.vma.Vma;
-import org.lwjgl.util.vma.VmaAllocatorCreateInfo;
-import org.lwjgl.util.vma.VmaVulkanFunctions;
+import org.lwjgl.util.vma.*;
+import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VK12;
+import org.lwjgl.vulkan.VkBufferCreateInfo;
+import org.lwjgl.vulkan.VkImageCreateInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
 
 import static me.hydos.vkinteropexperiments.graph.VkUtils.ok;
 
-public class Allocator {
+/**
+ * Owns the VMA allocator. Buffers and images come from VMA's default pools, which sub-allocate from large
+ * VkDeviceMemory blocks per memory type and give resources too big for a block their own dedicated allocation.
+ */
+public class Allocator implements Closeable, VkObjectHolder<Long> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Allocator.class);
+    public final LogicalDevice logicalDevice;
+    private final PhysicalDevice physicalDevice;
+    private final long vmaAllocator;
+
+    public Allocator(Instance instance, PhysicalDevice physicalDevice, LogicalDevice logicalDevice) {
+        LOGGER.info("Creating VMA Allocator");
+        this.logicalDevice = logicalDevice;
+        this.physicalDevice = physicalDevice;
+        this.vmaAllocator = createVmaAllocator(physicalDevice, logicalDevice, instance);
+    }
 
     private static long createVmaAllocator(PhysicalDevice physicalDevice, LogicalDevice logicalDevice, Instance instance) {
         try (var stack = MemoryStack.stackPush()) {
@@ -19,16 +40,167 @@ public class Allocator {
             ok(Vma.vmaCreateAllocator(
                             VmaAllocatorCreateInfo
                                     .calloc(stack)
-                                    .flags(Vma.VMA_ALLOCATOR_CREATE_BUFFER_DEVICE_ADDRESS_BIT)
                                     .physicalDevice(physicalDevice.vk())
                                     .device(logicalDevice.vk())
                                     .pVulkanFunctions(VmaVulkanFunctions.calloc(stack)
                                             .set(instance.vk(), logicalDevice.vk()))
                                     .instance(instance.vk())
+                                    .flags(logicalDevice.memoryBudget ? Vma.VMA_ALLOCATOR_CREATE_EXT_MEMORY_BUDGET_BIT : 0)
                                     .vulkanApiVersion(VK12.VK_API_VERSION_1_2),
                             pAllocator),
                     "Failed to create VMA allocator");
             return pAllocator.get(0);
         }
     }
+
+    /**
+     * Creates a buffer in the memory type VMA picks for the given usage.
+     */
+    public Allocation createBuffer(VkBufferCreateInfo createInfo, MemoryUsage memoryUsage) {
+        try (var stack = MemoryStack.stackPush()) {
+            var allocCreateInfo = memoryUsage.createInfo(stack);
+            var pBuffer = stack.mallocLong(1);
+            var pAllocation = stack.mallocPointer(1);
+            var allocInfo = VmaAllocationInfo.calloc(stack);
+            ok(Vma.vmaCreateBuffer(vmaAllocator, createInfo, allocCreateInfo, pBuffer, pAllocation, allocInfo), "Failed to create buffer");
+            return new Allocation(pBuffer.get(0), pAllocation.get(0), allocInfo.size(), allocInfo.pMappedData());
+        }
+    }
+
+    public Allocation createImage(VkImageCreateInfo createInfo, MemoryUsage memoryUsage) {
+        try (var stack = MemoryStack.stackPush()) {
+            var allocCreateInfo = memoryUsage.createInfo(stack);
+            var pImage = stack.mallocLong(1);
+            var pAllocation = stack.mallocPointer(1);
+            var allocInfo = VmaAllocationInfo.calloc(stack);
+            ok(Vma.vmaCreateImage(vmaAllocator, createInfo, allocCreateInfo, pImage, pAllocation, allocInfo), "Failed to create image");
+            return new Allocation(pImage.get(0), pAllocation.get(0), allocInfo.size(), allocInfo.pMappedData());
+        }
+    }
+
+    public void destroyBuffer(long buffer, long allocation) {
+        Vma.vmaDestroyBuffer(vmaAllocator, buffer, allocation);
+    }
+
+    public void destroyImage(long image, long allocation) {
+        Vma.vmaDestroyImage(vmaAllocator, image, allocation);
+    }
+
+    public long map(long allocation) {
+        try (var stack = MemoryStack.stackPush()) {
+            var pData = stack.mallocPointer(1);
+            ok(Vma.vmaMapMemory(vmaAllocator, allocation, pData), "Failed to map allocation");
+            return pData.get(0);
+        }
+    }
+
+    public void unMap(long allocation) {
+        Vma.vmaUnmapMemory(vmaAllocator, allocation);
+    }
+
+    /**
+     * No-op for HOST_COHERENT memory, required for everything else after the CPU writes to it.
+     */
+    public void flush(long allocation, long offset, long size) {
+        ok(Vma.vmaFlushAllocation(vmaAllocator, allocation, offset, size), "Failed to flush allocation");
+    }
+
+    /**
+     * Sums the budget and usage of every device local heap. Without VK_EXT_memory_budget VMA estimates both from its
+     * own allocations and the heap sizes.
+     */
+    public Budget deviceLocalBudget() {
+        try (var stack = MemoryStack.stackPush()) {
+            var heaps = physicalDevice.memoryProperties.memoryHeaps();
+            var heapCount = physicalDevice.memoryProperties.memoryHeapCount();
+            var budgets = VmaBudget.calloc(heapCount, stack);
+            Vma.vmaGetHeapBudgets(vmaAllocator, budgets);
+
+            var usage = 0L;
+            var budget = 0L;
+            for (var i = 0; i < heapCount; i++) {
+                if ((heaps.get(i).flags() & VK10.VK_MEMORY_HEAP_DEVICE_LOCAL_BIT) == 0) continue;
+                usage += budgets.get(i).usage();
+                budget += budgets.get(i).budget();
+            }
+            return new Budget(usage, budget);
+        }
+    }
+
+    /**
+     * Logs block and allocation totals of every memory type in use. Walks all allocations, so keep it off hot paths.
+     */
+    public void logStatistics() {
+        try (var stack = MemoryStack.stackPush()) {
+            var totals = VmaTotalStatistics.calloc(stack);
+            Vma.vmaCalculateStatistics(vmaAllocator, totals);
+            var memoryTypes = totals.memoryType();
+            for (var type = 0; type < physicalDevice.memoryProperties.memoryTypeCount(); type++) {
+                var stats = memoryTypes.get(type).statistics();
+                if (stats.blockCount() == 0) continue;
+                LOGGER.info("Memory type {}: {} blocks, {} allocations, {} KiB used of {} KiB",
+                        type,
+                        stats.blockCount(),
+                        stats.allocationCount(),
+                        stats.allocationBytes() / 1024,
+                        stats.blockBytes() / 1024);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info("Closing");
+        logStatistics();
+        Vma.vmaDestroyAllocator(vmaAllocator);
+    }
+
+    @Override
+    public Long vk() {
+        return vmaAllocator;
+    }
+
+    public record Budget(
+            long usage,
+            long budget
+    ) {}
+
+    public record Allocation(
+            long handle,
+            long allocation,
+            long size,
+            long mappedData
+    ) {}
+
+    /**
+     * How the CPU and GPU intend to access a resource. Used to pick the memory type instead of hard-coded property flags.
+     */
+    public enum MemoryUsage {
+        /**
+         * Only touched by the GPU. Vertex/index buffers, sampled images, attachments.
+         */
+        GPU_ONLY(Vma.VMA_MEMORY_USAGE_AUTO_PREFER_DEVICE, 0),
+        /**
+         * Written once by the CPU, read by the GPU through a copy.
+         */
+        STAGING(Vma.VMA_MEMORY_USAGE_AUTO_PREFER_HOST, Vma.VMA_ALLOCATION_CREATE_HOST_ACCESS_SEQUENTIAL_WRITE_BIT),
+        /**
+         * Written by the CPU every frame and read directly by the GPU. Kept persistently mapped.
+         */
+        CPU_TO_GPU(Vma.VMA_MEMORY_USAGE_AUTO, Vma.VMA_ALLOCATION_CREATE_HOST_ACCESS_SEQUENTIAL_WRITE_BIT | Vma.VMA_ALLOCATION_CREATE_MAPPED_BIT);
+
+        private final int vmaUsage;
+        private final int vmaFlags;
+
+        MemoryUsage(int vmaUsage, int vmaFlags) {
+            this.vmaUsage = vmaUsage;
+            this.vmaFlags = vmaFlags;
+        }
+
+        private VmaAllocationCreateInfo createInfo(MemoryStack stack) {
+            return VmaAllocationCreateInfo.calloc(stack)
+                    .usage(vmaUsage)
+                    .flags(vmaFlags);
+        }
+    }
 }
@@ -0,0 +1,139 @@
+package me.hydos.vkinteropexperiments.memory;
+
+import me.hydos.vkinteropexperiments.graph.sync.FrameRetirementQueue;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A persistently mapped buffer split into one region per frame in flight. Each frame bump-allocates slices out of its
+ * own region, so the CPU never writes memory a previous frame is still reading as long as {@link #beginFrame(int)} is
+ * only called after that frame's fence has signalled.
+ * <p>
+ * A frame that outgrows its region gets scratch memory instead of a failure. The recording using it must be thrown
+ * away once {@link #overflowed()} reports it, and redone after {@link #grow} made the regions large enough.
+ */
+public class FrameRingBuffer implements Closeable {
+
+    private final Allocator allocator;
+    private final int frameCount;
+    private final int usage;
+    // Both change when the buffer grows, so read them when recording rather than keeping them
+    public VkBuffer buffer;
+    public long regionSize;
+    private long baseAddress;
+    private long regionStart;
+    private long head;
+    // Bytes requested past the end of the region since the frame began, including alignment
+    private long overflowSize;
+    private final List<Long> scratchAllocations = new ArrayList<>();
+
+    public FrameRingBuffer(Allocator allocator, long regionSize, int frameCount, int usage) {
+        this.allocator = allocator;
+        this.frameCount = frameCount;
+        this.usage = usage;
+        this.regionSize = regionSize;
+        this.buffer = new VkBuffer(allocator, regionSize * frameCount, usage, Allocator.MemoryUsage.CPU_TO_GPU);
+        this.baseAddress = buffer.map();
+    }
+
+    /**
+     * Resets the region owned by the given frame. The caller must have waited on that frame's fence.
+     */
+    public synchronized void beginFrame(int frameIdx) {
+        this.regionStart = frameIdx * regionSize;
+        this.head = 0;
+        freeScratch();
+    }
+
+    /**
+     * Re-opens the given frame's region without clearing it, keeping slices written when the frame was last recorded.
+     * Used when a recorded command buffer is submitted again and only needs its data refreshed.
+     */
+    public synchronized void resumeFrame(int frameIdx, long head) {
+        this.regionStart = frameIdx * regionSize;
+        this.head = head;
+        freeScratch();
+    }
+
+    public synchronized long head() {
+        return head;
+    }
+
+    /**
+     * @return a slice of the current frame's region, or of scratch memory at offset 0 once the region is full
+     */
+    public synchronized Slice allocate(long size, long alignment) {
+        var offset = align(head, alignment);
+        if (overflowSize > 0 || offset + size > regionSize) {
+            overflowSize += size + alignment;
+            var scratch = MemoryUtil.nmemAlloc(Math.max(size, 1));
+            if (scratch == MemoryUtil.NULL) throw new OutOfMemoryError("Failed to allocate " + size + " bytes of frame upload scratch memory");
+            scratchAllocations.add(scratch);
+            return new Slice(0, scratch, size);
+        }
+        this.head = offset + size;
+
+        var bufferOffset = regionStart + offset;
+        return new Slice(bufferOffset, baseAddress + bufferOffset, size);
+    }
+
+    /**
+     * Whether the current frame ran out of space since it began. Its slices are then partly scratch memory the GPU
+     * never sees.
+     */
+    public synchronized boolean overflowed() {
+        return overflowSize > 0;
+    }
+
+    /**
+     * Replaces the buffer with one whose regions hold at least everything the current frame asked for. The old buffer
+     * is retired since frames in flight may still read it, so every recording and descriptor using it must be
+     * replaced. The current frame restarts empty.
+     */
+    public synchronized void grow(FrameRetirementQueue retirements) {
+        var newRegionSize = regionSize;
+        while (newRegionSize < head + overflowSize) newRegionSize *= 2;
+        if (newRegionSize == regionSize) newRegionSize *= 2;
+
+        retirements.retire(buffer);
+        var frameIdx = regionStart / regionSize;
+        this.regionSize = newRegionSize;
+        this.buffer = new VkBuffer(allocator, newRegionSize * frameCount, usage, Allocator.MemoryUsage.CPU_TO_GPU);
+        this.baseAddress = buffer.map();
+        this.regionStart = frameIdx * newRegionSize;
+        this.head = 0;
+        freeScratch();
+    }
+
+    private void freeScratch() {
+        scratchAllocations.forEach(MemoryUtil::nmemFree);
+        scratchAllocations.clear();
+        this.overflowSize = 0;
+    }
+
+    /**
+     * Makes the current frame's writes visible to the GPU. Only does work on non-coherent memory.
+     */
+    public synchronized void flush() {
+        buffer.allocator.flush(buffer.allocation, regionStart, head);
+    }
+
+    @Override
+    public synchronized void close() {
+        freeScratch();
+        buffer.close();
+    }
+
+    private static long align(long value, long alignment) {
+        return alignment <= 1 ? value : (value + alignment - 1) / alignment * alignment;
+    }
+
+    public record Slice(
+            long offset,
+            long address,
+            long size
+    ) {}
+}
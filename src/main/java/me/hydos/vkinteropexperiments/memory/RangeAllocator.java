@@ -0,0 +1,74 @@
+package me.hydos.vkinteropexperiments.memory;
+
+import java.util.TreeMap;
+
+/**
+ * First-fit allocator over an abstract range of bytes. Used to carve sub-ranges out of large GPU buffers. Freed
+ * ranges are merged with their neighbours so the arena does not fragment into slivers.
+ */
+public class RangeAllocator {
+
+    public final long capacity;
+    // offset -> size of each free block
+    private final TreeMap<Long, Long> freeBlocks = new TreeMap<>();
+    private long used;
+
+    public RangeAllocator(long capacity) {
+        this.capacity = capacity;
+        freeBlocks.put(0L, capacity);
+    }
+
+    /**
+     * @return the offset of the allocated range. Offsets are multiples of {@code alignment}, which does not have to
+     * be a power of two.
+     */
+    public synchronized long allocate(long size, long alignment) {
+        for (var block : freeBlocks.entrySet()) {
+            var blockStart = block.getKey();
+            var blockEnd = blockStart + block.getValue();
+            var offset = (blockStart + alignment - 1) / alignment * alignment;
+            if (offset + size > blockEnd) continue;
+
+            freeBlocks.remove(blockStart);
+            if (offset > blockStart) freeBlocks.put(blockStart, offset - blockStart);
+            if (offset + size < blockEnd) freeBlocks.put(offset + size, blockEnd - offset - size);
+            used += size;
+            return offset;
+        }
+
+        throw new RuntimeException("Out of space (requested " + size + " bytes, " + (capacity - used) + " of " + capacity + " free)");
+    }
+
+    public synchronized void free(long offset, long size) {
+        var start = offset;
+        var end = offset + size;
+
+        var before = freeBlocks.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            start = before.getKey();
+            freeBlocks.remove(before.getKey());
+        }
+
+        var after = freeBlocks.get(end);
+        if (after != null) {
+            freeBlocks.remove(end);
+            end += after;
+        }
+
+        freeBlocks.put(start, end - start);
+        used -= size;
+    }
+
+    public synchronized long used() {
+        return used;
+    }
+
+    public synchronized int freeBlockCount() {
+        return freeBlocks.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RangeAllocator{" + used + "/" + capacity + " bytes, " + freeBlocks.size() + " free blocks}";
+    }
+}
@@ -20,6 +20,8 @@ import java.util.Map;
 @Mixin(CreeperRenderer.class)
 public abstract class CreeperRendererMixin extends MobRenderer<Creeper, CreeperModel<Creeper>> {
     private static final Map<Creeper, RenderEntity> ENTITY_MAP = new HashMap<>();
+    private static final long PRUNE_INTERVAL_NANOS = 1_000_000_000L;
+    private static long lastPrune;
 
     public CreeperRendererMixin(EntityRendererProvider.Context context, CreeperModel<Creeper> entityModel, float f) {
         super(context, entityModel, f);
@@ -28,6 +30,7 @@ public abstract class CreeperRendererMixin extends MobRenderer<Creeper, CreeperM
     @Override
     public void render(@NotNull Creeper entity, float entityYaw, float partialTicks, @NotNull PoseStack modelViewStack, @NotNull MultiBufferSource buffer, int packedLight) {
         super.render(entity, entityYaw, partialTicks, modelViewStack, buffer, packedLight);
+        pruneRemovedEntities();
         modelViewStack.pushPose();
         var renderEntity = ENTITY_MAP.computeIfAbsent(entity, creeper -> VKInteropExperiments.getInstance().loadTestEntity());
         modelViewStack.mulPose(Axis.YP.rotationDegrees(-Mth.rotLerp(partialTicks, entity.yBodyRotO, entity.yBodyRot)));
@@ -35,4 +38,19 @@ public abstract class CreeperRendererMixin extends MobRenderer<Creeper, CreeperM
         renderEntity.translation.set(transform);
         modelViewStack.popPose();
     }
+
+    /**
+     * Releases the render entities of creepers that left the world so their model can be unloaded.
+     */
+    private static void pruneRemovedEntities() {
+        var now = System.nanoTime();
+        if (now - lastPrune < PRUNE_INTERVAL_NANOS) return;
+        lastPrune = now;
+
+        ENTITY_MAP.entrySet().removeIf(entry -> {
+            if (!entry.getKey().isRemoved()) return false;
+            VKInteropExperiments.getInstance().unloadTestEntity(entry.getValue());
+            return true;
+        });
+    }
 }
@@ -0,0 +1,316 @@
+package me.hydos.vkinteropexperiments.scene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Reorders meshes for the GPU: triangles for post-transform vertex cache hits, clusters of those triangles so outward
+ * facing ones draw first, then vertices in first use order for fetch locality. The first two steps follow Sander et
+ * al., "Fast Triangle Reordering for Vertex Locality and Reduced Overdraw".
+ */
+public final class MeshOptimizer {
+    // FIFO cache size assumed for ordering and statistics
+    public static final int CACHE_SIZE = 16;
+    // Clusters are split once their own ACMR gets within this factor of the whole mesh's
+    private static final float OVERDRAW_THRESHOLD = 1.05f;
+
+    private MeshOptimizer() {}
+
+    public static Order optimize(ModelData.MeshData mesh) {
+        var positions = mesh.positions();
+        var vertexCount = positions.length / 3;
+        // Only triangle lists can be reordered, anything else just gets its vertices remapped
+        if (mesh.indices().length % 3 != 0) return remapForFetch(mesh.indices(), vertexCount);
+
+        var clusterStarts = new BitSet();
+        var indices = tipsify(mesh.indices(), vertexCount, clusterStarts);
+        indices = reduceOverdraw(indices, positions, clusterStarts);
+        return remapForFetch(indices, vertexCount);
+    }
+
+    /**
+     * @return whether every attribute of {@code mesh} is either missing or has a value for every vertex. Only such
+     * meshes can have their vertices reordered
+     */
+    public static boolean canReorder(ModelData.MeshData mesh) {
+        var vertexCount = mesh.positions().length / 3;
+        return mesh.positions().length % 3 == 0
+                && covers(mesh.uvs(), 2, vertexCount)
+                && covers(mesh.normals(), 3, vertexCount);
+    }
+
+    private static boolean covers(float[] attribute, int components, int vertexCount) {
+        return attribute == null || attribute.length == 0 || attribute.length == vertexCount * components;
+    }
+
+    /**
+     * Reorders triangles for the vertex cache only, keeping the vertex numbering.
+     */
+    public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+        return tipsify(indices, vertexCount, new BitSet());
+    }
+
+    /**
+     * @return average cache misses per triangle for a FIFO cache of {@link #CACHE_SIZE} vertices, 0.5 at best and 3
+     * at worst
+     */
+    public static float acmr(int[] indices, int vertexCount) {
+        if (indices.length < 3) return 0;
+        var stamps = new int[vertexCount];
+        var time = CACHE_SIZE + 1;
+        var misses = 0;
+        for (var index : indices) {
+            if (time - stamps[index] > CACHE_SIZE) {
+                stamps[index] = time++;
+                misses++;
+            }
+        }
+        return (float) misses / (indices.length / 3);
+    }
+
+    /**
+     * Greedily fans around the vertex that will stay in the cache longest, falling back to recently used vertices and
+     * then to the next unfinished one. Marks each triangle where such a fallback happened in {@code clusterStarts}.
+     */
+    private static int[] tipsify(int[] indices, int vertexCount, BitSet clusterStarts) {
+        // Triangles around each vertex, stored as one array with per vertex offsets
+        var live = new int[vertexCount];
+        for (var index : indices) live[index]++;
+        var adjacencyOffsets = new int[vertexCount + 1];
+        var maxValence = 0;
+        for (var v = 0; v < vertexCount; v++) {
+            adjacencyOffsets[v + 1] = adjacencyOffsets[v] + live[v];
+            maxValence = Math.max(maxValence, live[v]);
+        }
+        var adjacency = new int[indices.length];
+        var fill = Arrays.copyOf(adjacencyOffsets, vertexCount);
+        for (var i = 0; i < indices.length; i++) adjacency[fill[indices[i]]++] = i / 3;
+
+        var cacheTime = new int[vertexCount];
+        var emitted = new boolean[indices.length / 3];
+        var deadEnd = new int[indices.length];
+        var deadEndSize = 0;
+        var candidates = new int[maxValence * 3];
+        var output = new int[indices.length];
+        var outputSize = 0;
+        var time = CACHE_SIZE + 1;
+        var cursor = 0;
+        var fan = -1;
+        var restart = true;
+
+        while (true) {
+            if (fan < 0) {
+                while (cursor < vertexCount && live[cursor] == 0) cursor++;
+                if (cursor == vertexCount) break;
+                fan = cursor;
+            }
+            if (restart) clusterStarts.set(outputSize / 3);
+
+            var candidateCount = 0;
+            for (var a = adjacencyOffsets[fan]; a < adjacencyOffsets[fan + 1]; a++) {
+                var triangle = adjacency[a];
+                if (emitted[triangle]) continue;
+                emitted[triangle] = true;
+                for (var corner = 0; corner < 3; corner++) {
+                    var v = indices[triangle * 3 + corner];
+                    output[outputSize++] = v;
+                    deadEnd[deadEndSize++] = v;
+                    candidates[candidateCount++] = v;
+                    live[v]--;
+                    if (time - cacheTime[v] > CACHE_SIZE) cacheTime[v] = time++;
+                }
+            }
+
+            // Prefer the oldest candidate that stays cached while its remaining triangles are emitted
+            var next = -1;
+            var bestPriority = -1;
+            for (var i = 0; i < candidateCount; i++) {
+                var v = candidates[i];
+                if (live[v] == 0) continue;
+                var priority = 0;
+                if (time - cacheTime[v] + 2 * live[v] <= CACHE_SIZE) priority = time - cacheTime[v];
+                if (priority > bestPriority) {
+                    bestPriority = priority;
+                    next = v;
+                }
+            }
+
+            restart = next < 0;
+            while (next < 0 && deadEndSize > 0) {
+                var v = deadEnd[--deadEndSize];
+                if (live[v] > 0) next = v;
+            }
+            fan = next;
+        }
+        return output;
+    }
+
+    /**
+     * Splits the cache ordered triangles into clusters and sorts those so the ones facing away from the mesh centre
+     * come first. A cluster ends at every hard boundary from {@link #tipsify}, and early once its triangles alone hit
+     * the cache almost as well as the whole mesh does.
+     */
+    private static int[] reduceOverdraw(int[] indices, float[] positions, BitSet hardStarts) {
+        var vertexCount = positions.length / 3;
+        var triangleCount = indices.length / 3;
+        var targetAcmr = acmr(indices, vertexCount) * OVERDRAW_THRESHOLD;
+
+        var clusterStarts = new ArrayList<Integer>();
+        var stamps = new int[vertexCount];
+        var time = CACHE_SIZE + 1;
+        var misses = 0;
+        var size = 0;
+        var split = true;
+        for (var triangle = 0; triangle < triangleCount; triangle++) {
+            if (split || hardStarts.get(triangle)) {
+                clusterStarts.add(triangle);
+                // Clusters may end up anywhere, so each is measured from a cold cache
+                time += CACHE_SIZE + 1;
+                misses = 0;
+                size = 0;
+            }
+            for (var corner = 0; corner < 3; corner++) {
+                var v = indices[triangle * 3 + corner];
+                if (time - stamps[v] > CACHE_SIZE) {
+                    stamps[v] = time++;
+                    misses++;
+                }
+            }
+            size++;
+            split = misses <= size * targetAcmr;
+        }
+        clusterStarts.add(triangleCount);
+        var starts = clusterStarts.stream().mapToInt(Integer::intValue).toArray();
+
+        // Area weighted centroid and normal of each cluster
+        var clusterCount = starts.length - 1;
+        var centroids = new float[clusterCount * 3];
+        var normals = new float[clusterCount * 3];
+        var meshCentroid = new float[3];
+        var meshArea = 0f;
+        for (var cluster = 0; cluster < clusterCount; cluster++) {
+            var area = 0f;
+            for (var triangle = starts[cluster]; triangle < starts[cluster + 1]; triangle++) {
+                var a = indices[triangle * 3] * 3;
+                var b = indices[triangle * 3 + 1] * 3;
+                var c = indices[triangle * 3 + 2] * 3;
+                var abX = positions[b] - positions[a];
+                var abY = positions[b + 1] - positions[a + 1];
+                var abZ = positions[b + 2] - positions[a + 2];
+                var acX = positions[c] - positions[a];
+                var acY = positions[c + 1] - positions[a + 1];
+                var acZ = positions[c + 2] - positions[a + 2];
+                var normalX = abY * acZ - abZ * acY;
+                var normalY = abZ * acX - abX * acZ;
+                var normalZ = abX * acY - abY * acX;
+                var triangleArea = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+
+                normals[cluster * 3] += normalX;
+                normals[cluster * 3 + 1] += normalY;
+                normals[cluster * 3 + 2] += normalZ;
+                for (var axis = 0; axis < 3; axis++) {
+                    centroids[cluster * 3 + axis] += (positions[a + axis] + positions[b + axis] + positions[c + axis]) / 3 * triangleArea;
+                }
+                area += triangleArea;
+            }
+
+            for (var axis = 0; axis < 3; axis++) meshCentroid[axis] += centroids[cluster * 3 + axis];
+            meshArea += area;
+            if (area > 0) for (var axis = 0; axis < 3; axis++) centroids[cluster * 3 + axis] /= area;
+        }
+        if (meshArea > 0) for (var axis = 0; axis < 3; axis++) meshCentroid[axis] /= meshArea;
+
+        var sortKeys = new float[clusterCount];
+        for (var cluster = 0; cluster < clusterCount; cluster++) {
+            var normalX = normals[cluster * 3];
+            var normalY = normals[cluster * 3 + 1];
+            var normalZ = normals[cluster * 3 + 2];
+            var length = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+            if (length == 0) continue;
+            sortKeys[cluster] = ((centroids[cluster * 3] - meshCentroid[0]) * normalX
+                    + (centroids[cluster * 3 + 1] - meshCentroid[1]) * normalY
+                    + (centroids[cluster * 3 + 2] - meshCentroid[2]) * normalZ) / length;
+        }
+
+        var order = IntStream.range(0, clusterCount).boxed()
+                .sorted(Comparator.comparingDouble(cluster -> -sortKeys[cluster]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        var output = new int[indices.length];
+        var outputSize = 0;
+        for (var cluster : order) {
+            var start = starts[cluster] * 3;
+            var end = starts[cluster + 1] * 3;
+            System.arraycopy(indices, start, output, outputSize, end - start);
+            outputSize += end - start;
+        }
+        return output;
+    }
+
+    /**
+     * Numbers vertices in the order the indices first use them. Unreferenced vertices are dropped.
+     */
+    private static Order remapForFetch(int[] indices, int vertexCount) {
+        var newIndex = new int[vertexCount];
+        Arrays.fill(newIndex, -1);
+        var remap = new int[vertexCount];
+        var newVertexCount = 0;
+        var newIndices = new int[indices.length];
+        for (var i = 0; i < indices.length; i++) {
+            var index = indices[i];
+            if (newIndex[index] < 0) {
+                newIndex[index] = newVertexCount;
+                remap[newVertexCount++] = index;
+            }
+            newIndices[i] = newIndex[index];
+        }
+        return new Order(Arrays.copyOf(remap, newVertexCount), newIndices, List.of());
+    }
+
+    /**
+     * An optimised mesh layout.
+     *
+     * @param remap   the original vertex of each new vertex
+     * @param indices triangles in draw order, referring to new vertices
+     * @param lods    coarser versions of {@code indices}, see {@link ModelData.MeshData#lods}
+     */
+    public record Order(
+            int[] remap,
+            int[] indices,
+            List<int[]> lods
+    ) {
+
+        public Order withLods(List<int[]> lods) {
+            return new Order(remap, indices, lods);
+        }
+
+        /**
+         * @throws RuntimeException when {@code mesh} fails {@link MeshOptimizer#canReorder}
+         */
+        public ModelData.MeshData apply(ModelData.MeshData mesh) {
+            if (!canReorder(mesh)) throw new RuntimeException("Mesh attributes don't cover all " + mesh.positions().length / 3 + " vertices");
+            return new ModelData.MeshData(
+                    gather(mesh.positions(), 3),
+                    gather(mesh.uvs(), 2),
+                    gather(mesh.normals(), 3),
+                    indices,
+                    lods,
+                    mesh.materialIdx()
+            );
+        }
+
+        /**
+         * Missing attributes stay missing.
+         */
+        private float[] gather(float[] attribute, int components) {
+            if (attribute == null || attribute.length == 0) return attribute;
+            var result = new float[remap.length * components];
+            for (var i = 0; i < remap.length; i++) System.arraycopy(attribute, remap[i] * components, result, i * components, components);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package me.hydos.vkinteropexperiments.scene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Builds coarser index buffers over a mesh's existing vertices by collapsing edges in order of quadric error (Garland
+ * and Heckbert). Vertices on open edges, which includes every UV and normal seam, never move, so detail levels cannot
+ * crack and all of them share the mesh's vertex data.
+ */
+public final class MeshSimplifier {
+    public static final int MAX_LODS = 3;
+    // Each level aims for this fraction of the previous level's triangles
+    private static final float LOD_RATIO = 0.5f;
+    // Levels keeping more than this fraction of the previous level's triangles aren't worth their memory
+    private static final float MIN_REDUCTION = 0.85f;
+    // Largest distance a collapse may move the surface, relative to the bounding box diagonal
+    private static final float MAX_ERROR = 0.02f;
+
+    private MeshSimplifier() {}
+
+    /**
+     * @return up to {@link #MAX_LODS} index buffers, each about half the triangles of the one before, ordered for the
+     * vertex cache. Fewer when the mesh stops simplifying within the error limit
+     */
+    public static List<int[]> generateLods(ModelData.MeshData mesh) {
+        var lods = new ArrayList<int[]>();
+        var positions = mesh.positions();
+        var vertexCount = positions.length / 3;
+        var previous = mesh.indices();
+        if (previous.length % 3 != 0) return lods;
+
+        var maxError = MAX_ERROR * diagonal(positions);
+        for (var level = 0; level < MAX_LODS; level++) {
+            var target = (int) (previous.length / 3 * LOD_RATIO) * 3;
+            var lod = simplify(positions, previous, target, maxError * maxError);
+            if (lod.length == 0 || lod.length > previous.length * MIN_REDUCTION) break;
+            lod = MeshOptimizer.optimizeVertexCache(lod, vertexCount);
+            lods.add(lod);
+            previous = lod;
+        }
+        return lods;
+    }
+
+    /**
+     * Collapses the cheapest edges in batches until {@code targetIndexCount} is reached or every remaining collapse
+     * costs more than {@code maxError}, a squared distance. Each batch only collapses edges whose surroundings no
+     * earlier collapse of the batch changed, then the triangles are rebuilt.
+     */
+    static int[] simplify(float[] positions, int[] indices, int targetIndexCount, double maxError) {
+        var vertexCount = positions.length / 3;
+        var locked = openEdgeVertices(indices, vertexCount);
+        var quadrics = quadrics(positions, indices, vertexCount);
+        var remap = new int[vertexCount];
+        var current = indices;
+
+        while (current.length > targetIndexCount) {
+            var adjacencyOffsets = new int[vertexCount + 1];
+            var adjacency = adjacency(current, vertexCount, adjacencyOffsets);
+            var candidates = collapses(positions, current, quadrics, locked, maxError);
+            if (candidates.count == 0) break;
+
+            for (var v = 0; v < vertexCount; v++) remap[v] = v;
+            var touched = new boolean[vertexCount];
+            var removable = (current.length - targetIndexCount) / 3;
+            var removed = 0;
+            for (var key : candidates.order) {
+                if (removed >= removable) break;
+                var candidate = (int) key;
+                var u = candidates.from[candidate];
+                var v = candidates.to[candidate];
+                if (touched[u] || touched[v]) continue;
+                if (flips(positions, current, adjacency, adjacencyOffsets, u, v)) continue;
+
+                remap[u] = v;
+                for (var a = adjacencyOffsets[u]; a < adjacencyOffsets[u + 1]; a++) {
+                    var triangle = adjacency[a];
+                    var containsV = false;
+                    for (var corner = 0; corner < 3; corner++) {
+                        var w = current[triangle * 3 + corner];
+                        // Neighbours of u get new triangles, so their candidates are stale until the next batch
+                        touched[w] = true;
+                        containsV |= w == v;
+                    }
+                    if (containsV) removed++;
+                }
+                for (var i = 0; i < 10; i++) quadrics[v * 10 + i] += quadrics[u * 10 + i];
+            }
+            if (removed == 0) break;
+            current = rebuild(current, remap);
+        }
+        return current;
+    }
+
+    /**
+     * @return every vertex on an edge used by anything but exactly two triangles
+     */
+    private static boolean[] openEdgeVertices(int[] indices, int vertexCount) {
+        var edgeUses = new HashMap<Long, Integer>();
+        for (var i = 0; i < indices.length; i += 3) {
+            for (var corner = 0; corner < 3; corner++) edgeUses.merge(edgeKey(indices[i + corner], indices[i + (corner + 1) % 3]), 1, Integer::sum);
+        }
+
+        var locked = new boolean[vertexCount];
+        for (var entry : edgeUses.entrySet()) {
+            if (entry.getValue() == 2) continue;
+            locked[(int) (entry.getKey() >>> 32)] = true;
+            locked[(int) (long) entry.getKey()] = true;
+        }
+        return locked;
+    }
+
+    private static long edgeKey(int a, int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    /**
+     * Sums the plane quadric of every triangle into its vertices, 10 doubles per vertex: the upper triangle of A, then
+     * b, then c, for an error of {@code p·Ap + 2b·p + c}. That is the sum of squared distances to the planes.
+     */
+    private static double[] quadrics(float[] positions, int[] indices, int vertexCount) {
+        var quadrics = new double[vertexCount * 10];
+        for (var i = 0; i < indices.length; i += 3) {
+            var a = indices[i] * 3;
+            var b = indices[i + 1] * 3;
+            var c = indices[i + 2] * 3;
+            double abX = positions[b] - positions[a], abY = positions[b + 1] - positions[a + 1], abZ = positions[b + 2] - positions[a + 2];
+            double acX = positions[c] - positions[a], acY = positions[c + 1] - positions[a + 1], acZ = positions[c + 2] - positions[a + 2];
+            var normalX = abY * acZ - abZ * acY;
+            var normalY = abZ * acX - abX * acZ;
+            var normalZ = abX * acY - abY * acX;
+            var length = Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+            if (length == 0) continue;
+
+            normalX /= length;
+            normalY /= length;
+            normalZ /= length;
+            var d = -(normalX * positions[a] + normalY * positions[a + 1] + normalZ * positions[a + 2]);
+            for (var corner = 0; corner < 3; corner++) {
+                var q = indices[i + corner] * 10;
+                quadrics[q] += normalX * normalX;
+                quadrics[q + 1] += normalX * normalY;
+                quadrics[q + 2] += normalX * normalZ;
+                quadrics[q + 3] += normalY * normalY;
+                quadrics[q + 4] += normalY * normalZ;
+                quadrics[q + 5] += normalZ * normalZ;
+                quadrics[q + 6] += normalX * d;
+                quadrics[q + 7] += normalY * d;
+                quadrics[q + 8] += normalZ * d;
+                quadrics[q + 9] += d * d;
+            }
+        }
+        return quadrics;
+    }
+
+    /**
+     * @return the error of moving to vertex {@code p} under the sum of the quadrics of {@code u} and {@code v}
+     */
+    private static double collapseError(double[] quadrics, int u, int v, float[] positions, int p) {
+        var qu = u * 10;
+        var qv = v * 10;
+        double x = positions[p * 3], y = positions[p * 3 + 1], z = positions[p * 3 + 2];
+        var error = (quadrics[qu] + quadrics[qv]) * x * x
+                + 2 * (quadrics[qu + 1] + quadrics[qv + 1]) * x * y
+                + 2 * (quadrics[qu + 2] + quadrics[qv + 2]) * x * z
+                + (quadrics[qu + 3] + quadrics[qv + 3]) * y * y
+                + 2 * (quadrics[qu + 4] + quadrics[qv + 4]) * y * z
+                + (quadrics[qu + 5] + quadrics[qv + 5]) * z * z
+                + 2 * ((quadrics[qu + 6] + quadrics[qv + 6]) * x + (quadrics[qu + 7] + quadrics[qv + 7]) * y + (quadrics[qu + 8] + quadrics[qv + 8]) * z)
+                + quadrics[qu + 9] + quadrics[qv + 9];
+        return Math.max(0, error);
+    }
+
+    /**
+     * Finds the cheaper direction of every edge that may collapse at all.
+     */
+    private static Candidates collapses(float[] positions, int[] indices, double[] quadrics, boolean[] locked, double maxError) {
+        var from = new int[indices.length];
+        var to = new int[indices.length];
+        var order = new long[indices.length];
+        var count = 0;
+        for (var i = 0; i < indices.length; i += 3) {
+            for (var corner = 0; corner < 3; corner++) {
+                var a = indices[i + corner];
+                var b = indices[i + (corner + 1) % 3];
+                // Interior edges appear once in each direction, keep one of them
+                if (a >= b) continue;
+
+                var aToB = locked[a] ? Double.MAX_VALUE : collapseError(quadrics, a, b, positions, b);
+                var bToA = locked[b] ? Double.MAX_VALUE : collapseError(quadrics, a, b, positions, a);
+                var error = Math.min(aToB, bToA);
+                if (error > maxError) continue;
+
+                from[count] = aToB <= bToA ? a : b;
+                to[count] = aToB <= bToA ? b : a;
+                // Non-negative float bits sort like the floats, so the longs sort by error
+                order[count] = (long) Float.floatToIntBits((float) error) << 32 | count;
+                count++;
+            }
+        }
+        order = Arrays.copyOf(order, count);
+        Arrays.sort(order);
+        return new Candidates(from, to, order, count);
+    }
+
+    /**
+     * Edge collapses moving vertex {@code from[i]} onto {@code to[i]}. {@code order} holds the cheapest first, each
+     * with the candidate index in its low 32 bits.
+     */
+    private record Candidates(
+            int[] from,
+            int[] to,
+            long[] order,
+            int count
+    ) {}
+
+    private static int[] adjacency(int[] indices, int vertexCount, int[] offsets) {
+        for (var index : indices) offsets[index + 1]++;
+        for (var v = 0; v < vertexCount; v++) offsets[v + 1] += offsets[v];
+        var adjacency = new int[indices.length];
+        var fill = Arrays.copyOf(offsets, vertexCount);
+        for (var i = 0; i < indices.length; i++) adjacency[fill[indices[i]]++] = i / 3;
+        return adjacency;
+    }
+
+    /**
+     * @return whether moving {@code u} onto {@code v} turns any surviving triangle around {@code u} over
+     */
+    private static boolean flips(float[] positions, int[] indices, int[] adjacency, int[] offsets, int u, int v) {
+        for (var a = offsets[u]; a < offsets[u + 1]; a++) {
+            var triangle = adjacency[a] * 3;
+            int i0 = indices[triangle], i1 = indices[triangle + 1], i2 = indices[triangle + 2];
+            if (i0 == v || i1 == v || i2 == v) continue;
+
+            var before = normal(positions, i0, i1, i2, -1, 0);
+            var after = normal(positions, i0, i1, i2, u, v);
+            if (before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the unnormalised normal of the triangle with vertex {@code replaced} moved to {@code replacement}
+     */
+    private static double[] normal(float[] positions, int i0, int i1, int i2, int replaced, int replacement) {
+        var a = (i0 == replaced ? replacement : i0) * 3;
+        var b = (i1 == replaced ? replacement : i1) * 3;
+        var c = (i2 == replaced ? replacement : i2) * 3;
+        double abX = positions[b] - positions[a], abY = positions[b + 1] - positions[a + 1], abZ = positions[b + 2] - positions[a + 2];
+        double acX = positions[c] - positions[a], acY = positions[c + 1] - positions[a + 1], acZ = positions[c + 2] - positions[a + 2];
+        return new double[]{abY * acZ - abZ * acY, abZ * acX - abX * acZ, abX * acY - abY * acX};
+    }
+
+    /**
+     * Applies the collapses and drops the triangles they made degenerate.
+     */
+    private static int[] rebuild(int[] indices, int[] remap) {
+        var result = new int[indices.length];
+        var count = 0;
+        for (var i = 0; i < indices.length; i += 3) {
+            var a = remap[indices[i]];
+            var b = remap[indices[i + 1]];
+            var c = remap[indices[i + 2]];
+            if (a == b || b == c || a == c) continue;
+            result[count++] = a;
+            result[count++] = b;
+            result[count++] = c;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static float diagonal(float[] positions) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (var i = 0; i + 2 < positions.length; i += 3) {
+            minX = Math.min(minX, positions[i]);
+            minY = Math.min(minY, positions[i + 1]);
+            minZ = Math.min(minZ, positions[i + 2]);
+            maxX = Math.max(maxX, positions[i]);
+            maxY = Math.max(maxY, positions[i + 1]);
+            maxZ = Math.max(maxZ, positions[i + 2]);
+        }
+        if (minX > maxX) return 0;
+        return (float) Math.sqrt((maxX - minX) * (maxX - minX) + (maxY - minY) * (maxY - minY) + (maxZ - minZ) * (maxZ - minZ));
+    }
+}
@@ -1,17 +1,48 @@
 package me.hydos.vkinteropexperiments.scene;
 
 import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public record ModelData(
         String name,
-        List<BufferedImage> materials,
+        List<TextureData> materials,
         List<MeshData> meshes
 ) {
+    /**
+     * Pixels of a material texture, either a decoded image or packed RGBA8 rows such as a mapped cache file.
+     *
+     * @param id     stable identifier of the pixels, equal ids must mean equal images
+     * @param image  the decoded image, null when {@code pixels} is set
+     * @param pixels packed RGBA8 rows, null when {@code image} is set. Only read, never freed
+     */
+    public record TextureData(
+            String id,
+            int width,
+            int height,
+            BufferedImage image,
+            ByteBuffer pixels
+    ) {
+
+        public static TextureData decoded(String id, BufferedImage image) {
+            return new TextureData(id, image.getWidth(), image.getHeight(), image, null);
+        }
+
+        public static TextureData packed(String id, int width, int height, ByteBuffer pixels) {
+            return new TextureData(id, width, height, null, pixels);
+        }
+    }
+
+    /**
+     * @param normals unit normals, 3 floats per vertex. May be empty
+     * @param lods    coarser index buffers over the same vertices, most detailed first. May be empty
+     */
     public record MeshData(
             float[] positions,
             float[] uvs,
+            float[] normals,
             int[] indices,
+            List<int[]> lods,
             int materialIdx
     ) {}
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package me.hydos.vkinteropexperiments.scene;
+
+import me.hydos.vkinteropexperiments.graph.cache.TextureCache;
+
+import java.util.List;
+
+/**
+ * A unit cube textured with {@link TextureCache#MISSING}. Drawn in place of entities whose model is still loading.
+ */
+public class PlaceholderModel {
+    public static final String NAME = "placeholder";
+
+    // Each face as its 4 corners in counter-clockwise order, looking at the face from outside
+    private static final float[][] FACES = {
+            {-1, -1, 1, 1, -1, 1, 1, 1, 1, -1, 1, 1},
+            {1, -1, -1, -1, -1, -1, -1, 1, -1, 1, 1, -1},
+            {1, -1, 1, 1, -1, -1, 1, 1, -1, 1, 1, 1},
+            {-1, -1, -1, -1, -1, 1, -1, 1, 1, -1, 1, -1},
+            {-1, 1, 1, 1, 1, 1, 1, 1, -1, -1, 1, -1},
+            {-1, -1, -1, 1, -1, -1, 1, -1, 1, -1, -1, 1}
+    };
+    private static final float[] FACE_UVS = {0, 1, 1, 1, 1, 0, 0, 0};
+
+    public static ModelData create() {
+        var positions = new float[FACES.length * 4 * 3];
+        var uvs = new float[FACES.length * 4 * 2];
+        var normals = new float[FACES.length * 4 * 3];
+        var indices = new int[FACES.length * 6];
+
+        for (var face = 0; face < FACES.length; face++) {
+            for (var i = 0; i < 12; i++) positions[face * 12 + i] = FACES[face][i] * 0.5f;
+            System.arraycopy(FACE_UVS, 0, uvs, face * 8, 8);
+            // The corners of a face average to its normal
+            for (var axis = 0; axis < 3; axis++) {
+                var normal = (FACES[face][axis] + FACES[face][axis + 3] + FACES[face][axis + 6] + FACES[face][axis + 9]) / 4;
+                for (var corner = 0; corner < 4; corner++) normals[face * 12 + corner * 3 + axis] = normal;
+            }
+
+            var firstVertex = face * 4;
+            var index = face * 6;
+            indices[index] = firstVertex;
+            indices[index + 1] = firstVertex + 1;
+            indices[index + 2] = firstVertex + 2;
+            indices[index + 3] = firstVertex + 2;
+            indices[index + 4] = firstVertex + 3;
+            indices[index + 5] = firstVertex;
+        }
+
+        return new ModelData(NAME, List.of(TextureCache.MISSING), List.of(new ModelData.MeshData(positions, uvs, normals, indices, List.of(), 0)));
+    }
+}
@@ -8,6 +8,10 @@ public class RenderEntity {
     public final String name;
     public final String model;
     public final Matrix4f translation = new Matrix4f();
+    // Detail level picked by the renderer, 0 is the full mesh
+    public int lod;
+    // Cleared by the renderer while the entity is outside the view frustum
+    public boolean visible = true;
 
     public RenderEntity(String name, String model, Vector3f position) {
         this.name = name;
@@ -4,35 +4,46 @@ import com.mojang.blaze3d.systems.RenderSystem;
 import org.joml.Matrix4f;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Scene {
 
-    public final Map<String, List<RenderEntity>> entityMap = new HashMap<>();
+    private final Map<String, List<RenderEntity>> entityMap = new HashMap<>();
+    /**
+     * Bumped whenever entities are added or removed. Transform changes don't count as the renderer re-reads every
+     * entity transform each frame anyway.
+     */
+    private final AtomicLong structureVersion = new AtomicLong();
 
     public void addEntity(RenderEntity entity) {
-        var entities = entityMap.get(entity.name);
-        if (entities == null) {
-            entities = new ArrayList<RenderEntity>();
-            entityMap.put(entity.model, entities);
-        }
-
-        entities.add(entity);
+        entityMap.computeIfAbsent(entity.model, model -> new ArrayList<>()).add(entity);
+        structureVersion.incrementAndGet();
     }
 
     public List<RenderEntity> getEntitiesByModelId(String modelId) {
         return entityMap.get(modelId);
     }
 
+    public Map<String, List<RenderEntity>> entitiesByModel() {
+        return Collections.unmodifiableMap(entityMap);
+    }
+
     public void clear() {
         entityMap.clear();
+        structureVersion.incrementAndGet();
     }
 
     public void removeEntity(RenderEntity entity) {
         var entities = entityMap.get(entity.model);
-        if (entities != null) entities.removeIf(e -> e.model.equals(entity.name));
+        if (entities != null && entities.remove(entity)) structureVersion.incrementAndGet();
+    }
+
+    public long structureVersion() {
+        return structureVersion.get();
     }
 
     public Matrix4f getProjection() {